@@ -0,0 +1,112 @@
+package com.mikesmales.googleglasscrosshairs.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  Log-bucketed histogram of latencies in nanoseconds.
+ *
+ *  Each power of two is split into SUB_BUCKETS linear buckets, so a reported value is within
+ *  1/SUB_BUCKETS of the recorded one, from single nanoseconds up to MAX_TRACKABLE_NANOS.
+ *  Buckets are allocated up front and updated with atomic increments,
+ *  so any thread can record without allocating or locking.
+ *
+ *  Reads are not a consistent snapshot while other threads are recording,
+ *  which is fine for percentiles that are only ever looked at by a person.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    /** About 36 minutes, anything longer is counted in the last bucket. */
+    public static final long MAX_TRACKABLE_NANOS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(getBucketIndex(MAX_TRACKABLE_NANOS) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+
+        if (nanos < 0)
+            nanos = 0;
+        else if (nanos > MAX_TRACKABLE_NANOS)
+            nanos = MAX_TRACKABLE_NANOS;
+
+        buckets.incrementAndGet(getBucketIndex(nanos));
+        count.incrementAndGet();
+        updateMax(nanos);
+    }
+
+    private void updateMax(long nanos) {
+
+        long currentMax;
+        while (nanos > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, nanos))
+                return;
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     *  The upper bound of the bucket holding the given percentile (0 to 100), or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length(); i++) {
+
+            seen += buckets.get(i);
+            if (seen >= rank)
+                return Math.min(getBucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+
+    /**
+     *  Values below SUB_BUCKETS get a bucket each, above that the top SUB_BUCKET_BITS
+     *  below the leading one bit pick the linear bucket within the power of two.
+     */
+    static int getBucketIndex(long value) {
+
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long getBucketUpperBound(int index) {
+
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowerBound = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,144 @@
+package com.mikesmales.googleglasscrosshairs.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  A LatencyHistogram for every LatencyStage, plus the event rate at each stage.
+ *
+ *  Latencies are the time from a sensor event timestamp to System.nanoTime() when the stage is reached,
+ *  so they rely on the sensors stamping events with the same monotonic clock.
+ *
+ *  Stages on the main thread no longer know which sample they are showing, so the observer stage
+ *  leaves its event time as pending, and the scroll and frame stages are measured from that.
+ *  Only the oldest pending event is kept, so the frame stage reports how stale the oldest
+ *  movement on screen was rather than the newest.
+ */
+public class LatencyRecorder {
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final LatencyStage[] STAGES = LatencyStage.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLong pendingEventTime = new AtomicLong();
+    private volatile long startTime;
+
+    public LatencyRecorder() {
+
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        startTime = System.nanoTime();
+    }
+
+    public void record(LatencyStage stage, long eventTimeNanos) {
+        histograms[stage.ordinal()].record(System.nanoTime() - eventTimeNanos);
+    }
+
+    /**
+     *  Records the stage and keeps the event time for the stages that follow on the main thread.
+     */
+    public void recordAndHold(LatencyStage stage, long eventTimeNanos) {
+
+        record(stage, eventTimeNanos);
+        pendingEventTime.compareAndSet(0, eventTimeNanos);
+    }
+
+    /**
+     *  Records the stage against the pending event time, if there is one.
+     */
+    public void recordPending(LatencyStage stage) {
+
+        long eventTime = pendingEventTime.get();
+
+        if (eventTime != 0)
+            record(stage, eventTime);
+    }
+
+    /**
+     *  Records the stage against the pending event time and clears it, for the last stage of the pipeline.
+     */
+    public void recordPendingAndRelease(LatencyStage stage) {
+
+        long eventTime = pendingEventTime.getAndSet(0);
+
+        if (eventTime != 0)
+            record(stage, eventTime);
+    }
+
+    public LatencyHistogram getHistogram(LatencyStage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     *  Events per second reaching the stage since the recorder was created or reset.
+     */
+    public float getRate(LatencyStage stage) {
+
+        long elapsed = System.nanoTime() - startTime;
+        if (elapsed <= 0)
+            return 0;
+
+        return histograms[stage.ordinal()].getCount() * 1000000000.0f / elapsed;
+    }
+
+    public void reset() {
+
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        pendingEventTime.set(0);
+        startTime = System.nanoTime();
+    }
+
+    /**
+     *  Appends a table of count, rate, p50, p99 and max per stage, in milliseconds.
+     *  Only appends primitives, so it can refresh an overlay without creating garbage.
+     */
+    public void format(StringBuilder builder) {
+
+        builder.append("stage count rate/s p50 p99 max (ms)\n");
+
+        for (LatencyStage stage : STAGES) {
+
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+
+            builder.append(stage.getLabel()).append(' ');
+            builder.append(histogram.getCount()).append(' ');
+            builder.append(Math.round(getRate(stage))).append(' ');
+            appendMillis(builder, histogram.getPercentile(50));
+            builder.append(' ');
+            appendMillis(builder, histogram.getPercentile(99));
+            builder.append(' ');
+            appendMillis(builder, histogram.getMax());
+            builder.append('\n');
+        }
+    }
+
+    private static void appendMillis(StringBuilder builder, long nanos) {
+
+        long tenths = (nanos + NANOS_PER_MILLI / 20) / (NANOS_PER_MILLI / 10);
+        builder.append(tenths / 10).append('.').append(tenths % 10);
+    }
+
+    public void dump(Writer writer) throws IOException {
+
+        StringBuilder builder = new StringBuilder();
+        format(builder);
+        writer.write(builder.toString());
+        writer.flush();
+    }
+
+    public void dumpToFile(File file) throws IOException {
+
+        FileWriter writer = new FileWriter(file);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.mikesmales.googleglasscrosshairs.metrics;
+
+/**
+ *  Points along the head movement pipeline, in the order a gyro sample passes through them.
+ *  Each is measured from the sensor event timestamp of the sample that caused it.
+ */
+public enum LatencyStage {
+
+    /** The sample has reached the tracker's sensor listener. */
+    SENSOR_CALLBACK("sensor"),
+
+    /** A fusion step including the sample has finished. */
+    FUSION("fusion"),
+
+    /** The fused movement has been handed to the observer on the main thread. */
+    OBSERVER("observer"),
+
+    /** The resulting scrollBy has been applied to the web view. */
+    SCROLL("scroll"),
+
+    /** The next frame after the scroll is about to be drawn. */
+    FRAME("frame");
+
+    private final String label;
+
+    private LatencyStage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
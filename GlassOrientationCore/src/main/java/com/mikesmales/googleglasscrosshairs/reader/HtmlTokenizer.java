@@ -0,0 +1,236 @@
+package com.mikesmales.googleglasscrosshairs.reader;
+
+/**
+ *  Splits HTML into tags and text as it arrives, however the input is chunked.
+ *
+ *  This is a tokenizer, not a parser: tags are reported as they appear, with their attributes
+ *  left as a string, and no elements are implied or closed. Text is passed through undecoded,
+ *  so entities are still escaped. Comments, doctypes and processing instructions are skipped.
+ *  The contents of script, style and the other raw text elements are reported as text up to
+ *  their end tag, without looking for tags inside.
+ *
+ *  Not thread safe.
+ */
+public class HtmlTokenizer {
+
+    public interface Handler {
+
+        /**
+         *  name is lower case. attributes is everything after the name, as written.
+         */
+        void startTag(String name, String attributes, boolean selfClosing);
+
+        void endTag(String name);
+
+        void text(char[] buffer, int offset, int length);
+    }
+
+    /** A tag longer than this is not markup anyone meant, it is dropped rather than buffered. */
+    private static final int MAX_TAG_LENGTH = 64 * 1024;
+
+    private static final int TEXT = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int TAG = 2;
+    private static final int DECLARATION = 3;
+    private static final int COMMENT = 4;
+    private static final int RAW_TEXT = 5;
+
+    private static final char[] LESS_THAN = { '<' };
+
+    private final Handler handler;
+    private final StringBuilder markup = new StringBuilder();
+
+    private int state = TEXT;
+    private char quote;
+    private int dashes;
+
+    private char[] rawEndTag;
+    private int rawMatched;
+
+    public HtmlTokenizer(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void feed(char[] buffer, int offset, int length) {
+
+        int end = offset + length;
+        int textStart = -1;
+
+        for (int i = offset; i < end; i++) {
+
+            char c = buffer[i];
+
+            switch (state) {
+
+                case TEXT:
+                    if (c == '<') {
+                        textStart = flushText(buffer, textStart, i);
+                        markup.setLength(0);
+                        state = TAG_OPEN;
+                    }
+                    else if (textStart < 0) {
+                        textStart = i;
+                    }
+                    break;
+
+                case TAG_OPEN:
+                    if (c == '/' || isLetter(c)) {
+                        markup.append(c);
+                        quote = 0;
+                        state = TAG;
+                    }
+                    else if (c == '!' || c == '?') {
+                        markup.append(c);
+                        state = DECLARATION;
+                    }
+                    else {
+                        // a lone '<' is text
+                        handler.text(LESS_THAN, 0, 1);
+                        state = TEXT;
+                        i--;
+                    }
+                    break;
+
+                case TAG:
+                    if (quote != 0) {
+                        if (c == quote)
+                            quote = 0;
+                        appendMarkup(c);
+                    }
+                    else if (c == '>') {
+                        state = TEXT;
+                        emitTag();
+                    }
+                    else {
+                        if (c == '"' || c == '\'')
+                            quote = c;
+                        appendMarkup(c);
+                    }
+                    break;
+
+                case DECLARATION:
+                    if (c == '>') {
+                        state = TEXT;
+                    }
+                    else if (markup.length() < 3) {
+                        markup.append(c);
+                        if (markup.length() == 3 && markup.charAt(1) == '-' && markup.charAt(2) == '-') {
+                            dashes = 0;
+                            state = COMMENT;
+                        }
+                    }
+                    break;
+
+                case COMMENT:
+                    if (c == '>' && dashes >= 2)
+                        state = TEXT;
+                    else
+                        dashes = (c == '-') ? dashes + 1 : 0;
+                    break;
+
+                case RAW_TEXT:
+                    if (Character.toLowerCase(c) == rawEndTag[rawMatched]) {
+
+                        if (rawMatched == 0)
+                            textStart = flushText(buffer, textStart, i);
+
+                        if (++rawMatched == rawEndTag.length) {
+                            markup.setLength(0);
+                            markup.append(rawEndTag, 1, rawEndTag.length - 1);
+                            quote = 0;
+                            state = TAG;
+                        }
+                    }
+                    else {
+                        if (rawMatched > 0) {
+                            // what looked like the end tag was text, and this character may start it again
+                            handler.text(rawEndTag, 0, rawMatched);
+                            rawMatched = 0;
+                            i--;
+                        }
+                        else if (textStart < 0) {
+                            textStart = i;
+                        }
+                    }
+                    break;
+            }
+        }
+
+        if (state == TEXT || state == RAW_TEXT)
+            flushText(buffer, textStart, end);
+    }
+
+    /**
+     *  The input has ended. Anything left unfinished, such as an unclosed tag, is dropped.
+     */
+    public void finish() {
+
+        if (state == RAW_TEXT && rawMatched > 0)
+            handler.text(rawEndTag, 0, rawMatched);
+
+        state = TEXT;
+        markup.setLength(0);
+    }
+
+    private int flushText(char[] buffer, int textStart, int end) {
+
+        if (textStart >= 0 && end > textStart)
+            handler.text(buffer, textStart, end - textStart);
+
+        return -1;
+    }
+
+    private void appendMarkup(char c) {
+
+        if (markup.length() < MAX_TAG_LENGTH)
+            markup.append(c);
+    }
+
+    private void emitTag() {
+
+        boolean endTag = markup.charAt(0) == '/';
+        int nameStart = endTag ? 1 : 0;
+        int nameEnd = nameStart;
+
+        while (nameEnd < markup.length() && isNameChar(markup.charAt(nameEnd))) {
+            nameEnd++;
+        }
+
+        if (nameEnd == nameStart)
+            return;
+
+        String name = markup.substring(nameStart, nameEnd).toLowerCase();
+
+        if (endTag) {
+            handler.endTag(name);
+            return;
+        }
+
+        int attributesEnd = markup.length();
+        boolean selfClosing = attributesEnd > nameEnd && markup.charAt(attributesEnd - 1) == '/';
+        if (selfClosing)
+            attributesEnd--;
+
+        handler.startTag(name, markup.substring(nameEnd, attributesEnd), selfClosing);
+
+        if (!selfClosing && isRawTextElement(name)) {
+            rawEndTag = ("</" + name).toCharArray();
+            rawMatched = 0;
+            state = RAW_TEXT;
+        }
+    }
+
+    private static boolean isRawTextElement(String name) {
+
+        return name.equals("script") || name.equals("style") || name.equals("textarea") || name.equals("title")
+            || name.equals("xmp") || name.equals("iframe") || name.equals("noembed") || name.equals("noscript");
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isNameChar(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == ':';
+    }
+}
@@ -0,0 +1,73 @@
+package com.mikesmales.googleglasscrosshairs.reader;
+
+/**
+ *  How much smaller reader mode made the pages it transformed, the last one and all together.
+ *  Pages are recorded on web view threads and read on the main thread.
+ */
+public class ReaderStats {
+
+    private String lastUrl;
+    private long lastBytesIn;
+    private long lastBytesOut;
+    private int lastNodesIn;
+    private int lastNodesOut;
+
+    private int pages;
+    private long totalBytesIn;
+    private long totalBytesOut;
+    private long totalNodesIn;
+    private long totalNodesOut;
+
+    public synchronized void record(String url, long bytesIn, long bytesOut, int nodesIn, int nodesOut) {
+
+        lastUrl = url;
+        lastBytesIn = bytesIn;
+        lastBytesOut = bytesOut;
+        lastNodesIn = nodesIn;
+        lastNodesOut = nodesOut;
+
+        pages++;
+        totalBytesIn += bytesIn;
+        totalBytesOut += bytesOut;
+        totalNodesIn += nodesIn;
+        totalNodesOut += nodesOut;
+    }
+
+    public synchronized int getPageCount() {
+        return pages;
+    }
+
+    public synchronized String getLastUrl() {
+        return lastUrl;
+    }
+
+    /**
+     *  The share of the source's bytes that reader mode removed across all pages, 0 to 1.
+     */
+    public synchronized float getByteReduction() {
+        return getReduction(totalBytesIn, totalBytesOut);
+    }
+
+    /**
+     *  The share of the source's elements that reader mode removed across all pages, 0 to 1.
+     */
+    public synchronized float getNodeReduction() {
+        return getReduction(totalNodesIn, totalNodesOut);
+    }
+
+    private static float getReduction(long in, long out) {
+        return (in == 0) ? 0 : 1.0f - (float) out / in;
+    }
+
+    public synchronized void format(StringBuilder builder) {
+
+        if (pages == 0)
+            return;
+
+        builder.append("reader ").append(lastBytesIn / 1024).append("k>").append(lastBytesOut / 1024).append('k');
+        builder.append(" -").append(Math.round(getReduction(lastBytesIn, lastBytesOut) * 100)).append('%');
+        builder.append(" nodes ").append(lastNodesIn).append('>').append(lastNodesOut);
+        builder.append(" -").append(Math.round(getReduction(lastNodesIn, lastNodesOut) * 100)).append('%');
+        builder.append(" all ").append(pages).append(" -").append(Math.round(getByteReduction() * 100)).append("%\n");
+    }
+}
@@ -0,0 +1,184 @@
+package com.mikesmales.googleglasscrosshairs.reader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ *  Reads a page's HTML and gives back its reader document, encoded as UTF-8.
+ *
+ *  The transform runs in whichever thread reads this stream, a chunk of the source at a time,
+ *  so the reader document arrives as the page downloads instead of after it.
+ *  When the source has been read to the end the page's figures are recorded in the stats.
+ */
+public class ReaderStream extends InputStream {
+
+    private static final int CHUNK_CHARS = 4096;
+    private static final String OUTPUT_ENCODING = "UTF-8";
+
+    private final String url;
+    private final CountingInputStream source;
+    private final Reader reader;
+    private final HtmlTokenizer tokenizer;
+    private final ReaderTransform transform;
+    private final ReaderStats stats;
+
+    private final char[] chunk = new char[CHUNK_CHARS];
+    private final StringBuilder pending = new StringBuilder();
+
+    private byte[] output = new byte[0];
+    private int outputPosition;
+    private long bytesOut;
+    private boolean finished;
+
+    /**
+     *  encoding is the source's, null if it did not say, in which case UTF-8 is assumed.
+     */
+    public ReaderStream(InputStream source, String encoding, String url, ReaderStats stats) {
+        this(new CountingInputStream(source), encoding, url, stats);
+    }
+
+    private ReaderStream(CountingInputStream source, String encoding, String url, ReaderStats stats) {
+        this(source, new InputStreamReader(source, getCharset(encoding)), url, stats);
+    }
+
+    /**
+     *  The reader decodes the source, which counts the bytes read through it.
+     */
+    ReaderStream(CountingInputStream source, Reader reader, String url, ReaderStats stats) {
+
+        this.url = url;
+        this.source = source;
+        this.reader = reader;
+        this.stats = stats;
+
+        transform = new ReaderTransform(url, pending);
+        tokenizer = new HtmlTokenizer(transform);
+    }
+
+    public String getEncoding() {
+        return OUTPUT_ENCODING;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        if (!fill())
+            return -1;
+
+        return output[outputPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+
+        if (length == 0)
+            return 0;
+
+        if (!fill())
+            return -1;
+
+        int count = Math.min(length, output.length - outputPosition);
+        System.arraycopy(output, outputPosition, buffer, offset, count);
+        outputPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return output.length - outputPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     *  Transforms source chunks until there is output to give, returning false at the end.
+     */
+    private boolean fill() throws IOException {
+
+        while (outputPosition == output.length) {
+
+            if (finished)
+                return false;
+
+            int count = reader.read(chunk);
+
+            if (count == -1) {
+                tokenizer.finish();
+                transform.finish();
+                finished = true;
+            }
+            else {
+                tokenizer.feed(chunk, 0, count);
+            }
+
+            encodePending();
+        }
+        return true;
+    }
+
+    private void encodePending() throws UnsupportedEncodingException {
+
+        int length = pending.length();
+
+        // half a surrogate pair waits for the other half
+        if (!finished && length > 0 && Character.isHighSurrogate(pending.charAt(length - 1)))
+            length--;
+
+        if (length == 0)
+            return;
+
+        output = pending.substring(0, length).getBytes(OUTPUT_ENCODING);
+        outputPosition = 0;
+        pending.delete(0, length);
+        bytesOut += output.length;
+
+        if (finished)
+            stats.record(url, source.count, bytesOut, transform.getNodesIn(), transform.getNodesOut());
+    }
+
+    private static Charset getCharset(String encoding) {
+
+        try {
+            if (encoding != null)
+                return Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            // unknown or malformed, most pages are UTF-8
+        }
+        return Charset.forName(OUTPUT_ENCODING);
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int value = super.read();
+            if (value != -1)
+                count++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            int count = super.read(buffer, offset, length);
+            if (count > 0)
+                this.count += count;
+            return count;
+        }
+    }
+}
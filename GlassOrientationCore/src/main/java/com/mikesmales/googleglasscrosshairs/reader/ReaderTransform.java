@@ -0,0 +1,312 @@
+package com.mikesmales.googleglasscrosshairs.reader;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *  Turns the tokens of a page into a light document for reading on a small display.
+ *
+ *  Text and the elements that structure it (paragraphs, headings, lists, tables, links) are kept.
+ *  Scripts, styles, media, forms and anything whose class, id or role marks it as navigation,
+ *  advertising or other page furniture are dropped with all they contain. The remaining markup
+ *  is unwrapped, attributes are removed except for link targets, and whitespace is collapsed.
+ *
+ *  Output is appended to a StringBuilder as the tokens arrive, which the caller drains,
+ *  so the start of the page can be shown before the end has been read.
+ */
+public class ReaderTransform implements HtmlTokenizer.Handler {
+
+    private static final String STYLE =
+        "body{margin:16px 24px;background:#000;color:#fff;font:28px/1.4 sans-serif}"
+      + "a{color:#7cf}h1{font-size:1.4em}h2{font-size:1.2em}h3,h4,h5,h6{font-size:1em}"
+      + "pre{white-space:pre-wrap}table{border-collapse:collapse;font-size:.8em}"
+      + "td,th{border:1px solid #444;padding:2px 4px}blockquote{margin-left:0;padding-left:16px;border-left:3px solid #444}";
+
+    /** Elements dropped along with their contents. */
+    private static final Set<String> DROPPED = new HashSet<String>(Arrays.asList(
+        "script", "style", "noscript", "template", "iframe", "frame", "frameset", "object", "embed", "applet",
+        "video", "audio", "canvas", "svg", "math", "map", "picture", "figure", "img", "source", "track",
+        "form", "input", "button", "select", "textarea", "nav", "aside", "footer", "dialog", "menu"));
+
+    /** Elements written out, without their attributes apart from a link's href. */
+    private static final Set<String> KEPT = new HashSet<String>(Arrays.asList(
+        "title", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "li", "dl", "dt", "dd",
+        "blockquote", "pre", "code", "em", "strong", "b", "i", "u", "s", "small", "sub", "sup", "q", "cite",
+        "abbr", "mark", "a", "br", "hr", "table", "caption", "thead", "tbody", "tfoot", "tr", "td", "th"));
+
+    /** Unwrapped elements that separate words, a space takes their place. */
+    private static final Set<String> BLOCKS = new HashSet<String>(Arrays.asList(
+        "div", "section", "article", "main", "header", "center", "address", "details", "summary"));
+
+    /** Elements that hold the whole page or its content, never dropped for their class or id. */
+    private static final Set<String> CONTAINERS = new HashSet<String>(Arrays.asList(
+        "html", "body", "main", "article"));
+
+    private static final Set<String> VOID = new HashSet<String>(Arrays.asList(
+        "area", "base", "br", "col", "embed", "hr", "img", "input", "keygen", "link", "meta", "param",
+        "source", "track", "wbr"));
+
+    /** Words in a class or id, or a role, that mark page furniture rather than content. */
+    private static final Pattern NOISE = Pattern.compile(
+        "(?:^|[\\s_-])(?:ad|ads|advert|advertisement|banner|breadcrumbs?|catlinks|comments?|complementary|contentinfo"
+      + "|cookie|editsection|footer|gallery|hatnote|infobox|jump|masthead|metadata|nav|navbar|navbox|navigation|noprint"
+      + "|popup|printfooter|promo|related|search|share|sharing|sidebar|social|sponsor|sponsored|thumb|toc|widget)(?:$|[\\s_-])",
+        Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+        "([a-zA-Z_:][-a-zA-Z0-9_:.]*)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+)))?");
+
+    private static final int MAX_DEPTH = 512;
+
+    private final StringBuilder output;
+
+    private final String[] openNames = new String[MAX_DEPTH];
+    private final boolean[] openWritten = new boolean[MAX_DEPTH];
+    private int depth;
+
+    /** The depth of the element being dropped, or -1 when not inside one. */
+    private int droppedDepth = -1;
+    private int preformatted;
+    private boolean lastWasSpace = true;
+
+    private int nodesIn;
+    private int nodesOut;
+
+    /**
+     *  baseUrl is the page's own, relative links are resolved against it.
+     */
+    public ReaderTransform(String baseUrl, StringBuilder output) {
+
+        this.output = output;
+
+        output.append("<!DOCTYPE html><html><head><meta charset=\"utf-8\">");
+        output.append("<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">");
+        if (baseUrl != null) {
+            output.append("<base href=\"");
+            appendAttribute(baseUrl);
+            output.append("\">");
+        }
+        output.append("<style>").append(STYLE).append("</style></head><body>");
+    }
+
+    /**
+     *  Elements seen in the source, a stand-in for the DOM nodes the full page would have built.
+     */
+    public int getNodesIn() {
+        return nodesIn;
+    }
+
+    public int getNodesOut() {
+        return nodesOut;
+    }
+
+    /**
+     *  Closes the document once the source has ended.
+     */
+    public void finish() {
+        output.append("</body></html>");
+    }
+
+    @Override
+    public void startTag(String name, String attributes, boolean selfClosing) {
+
+        nodesIn++;
+        boolean empty = selfClosing || VOID.contains(name);
+
+        if (droppedDepth >= 0) {
+            if (!empty)
+                push(name, false);
+            return;
+        }
+
+        if (DROPPED.contains(name) || (!CONTAINERS.contains(name) && isNoise(attributes))) {
+            if (!empty && depth < MAX_DEPTH) {
+                push(name, false);
+                droppedDepth = depth;
+            }
+            return;
+        }
+
+        boolean written = KEPT.contains(name) && writeStartTag(name, attributes);
+
+        if (written)
+            nodesOut++;
+        else if (BLOCKS.contains(name))
+            appendSpace();
+
+        if (!empty)
+            push(name, written);
+    }
+
+    @Override
+    public void endTag(String name) {
+
+        int match = depth - 1;
+        while (match >= 0 && !openNames[match].equals(name)) {
+            match--;
+        }
+
+        // an end tag with no start is ignored, as a browser would
+        if (match < 0)
+            return;
+
+        while (depth > match) {
+
+            depth--;
+
+            if (depth < droppedDepth) {
+                droppedDepth = -1;
+                continue;
+            }
+
+            if (openWritten[depth]) {
+                output.append("</").append(openNames[depth]).append('>');
+                if (openNames[depth].equals("pre"))
+                    preformatted--;
+            }
+            else if (droppedDepth < 0 && BLOCKS.contains(openNames[depth])) {
+                appendSpace();
+            }
+        }
+    }
+
+    @Override
+    public void text(char[] buffer, int offset, int length) {
+
+        if (droppedDepth >= 0)
+            return;
+
+        if (preformatted > 0) {
+            output.append(buffer, offset, length);
+            lastWasSpace = false;
+            return;
+        }
+
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+
+            char c = buffer[i];
+
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f') {
+                appendSpace();
+            }
+            else {
+                output.append(c);
+                lastWasSpace = false;
+            }
+        }
+    }
+
+    private void appendSpace() {
+
+        if (!lastWasSpace) {
+            output.append(' ');
+            lastWasSpace = true;
+        }
+    }
+
+    private void push(String name, boolean written) {
+
+        // past this the page is not worth following, further elements are left open and closed by the end of the document
+        if (depth == MAX_DEPTH)
+            return;
+
+        openNames[depth] = name;
+        openWritten[depth] = written;
+        depth++;
+    }
+
+    /**
+     *  Returns false if the element is left out, which is only the case for links that go nowhere.
+     */
+    private boolean writeStartTag(String name, String attributes) {
+
+        if (name.equals("a")) {
+
+            String href = getAttribute(attributes, "href");
+            if (href == null || href.startsWith("javascript:"))
+                return false;
+
+            output.append("<a href=\"");
+            appendAttribute(href);
+            output.append("\">");
+            return true;
+        }
+
+        if (name.equals("pre"))
+            preformatted++;
+
+        output.append('<').append(name).append('>');
+        return true;
+    }
+
+    private static boolean isNoise(String attributes) {
+
+        if (attributes.length() == 0)
+            return false;
+
+        Matcher matcher = ATTRIBUTE.matcher(attributes);
+
+        while (matcher.find()) {
+
+            String name = matcher.group(1).toLowerCase();
+            String value = getValue(matcher);
+
+            if (name.equals("hidden"))
+                return true;
+
+            if (value == null)
+                continue;
+
+            if ((name.equals("class") || name.equals("id") || name.equals("role")) && NOISE.matcher(value).find())
+                return true;
+
+            if (name.equals("aria-hidden") && value.equals("true"))
+                return true;
+
+            if (name.equals("style") && value.replace(" ", "").toLowerCase().contains("display:none"))
+                return true;
+        }
+
+        return false;
+    }
+
+    private static String getAttribute(String attributes, String wanted) {
+
+        Matcher matcher = ATTRIBUTE.matcher(attributes);
+
+        while (matcher.find()) {
+            if (matcher.group(1).equalsIgnoreCase(wanted))
+                return getValue(matcher);
+        }
+        return null;
+    }
+
+    private static String getValue(Matcher matcher) {
+
+        for (int group = 2; group <= 4; group++) {
+            if (matcher.group(group) != null)
+                return matcher.group(group);
+        }
+        return null;
+    }
+
+    /**
+     *  Values keep their entities, only a quote that would end the attribute needs escaping.
+     */
+    private void appendAttribute(String value) {
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char c = value.charAt(i);
+            if (c == '"')
+                output.append("&quot;");
+            else
+                output.append(c);
+        }
+    }
+}
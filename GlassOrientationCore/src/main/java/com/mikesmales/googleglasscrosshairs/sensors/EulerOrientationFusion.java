@@ -0,0 +1,151 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static com.mikesmales.googleglasscrosshairs.sensors.MatrixHelper.checkForPositiveNegativeAngleMismatch;
+
+/**
+ *  Complementary filter over azimuth, pitch and roll.
+ *
+ *  The gyroscope is integrated into a rotation matrix, and on each fusion step the gyro angles are
+ *  blended with the accelerometer/magnetometer angles and the matrix is rebuilt from the result.
+ *
+ *  This class has no Android dependencies so it can be run and benchmarked on a plain JVM.
+ */
+public class EulerOrientationFusion implements OrientationFusion {
+
+    public static final float FILTER_COEFFICIENT = 0.98f;
+
+    final float ONE_MINUS_FILTER_COEFFICIENT = 1.0f - FILTER_COEFFICIENT;
+
+    private float[] gyroRotationMatrix = new float[9];
+    private float[] gyroOrientationAngles = new float[3];
+    private float[] fusedOrientationAngles = new float[3];
+    private float[] fusedRotationMatrix = new float[9];
+
+    private float[] deltaRotationVector = new float[4];
+    private float[] deltaRotationMatrix = new float[9];
+    private float[] initMatrix = new float[9];
+
+    public EulerOrientationFusion() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+
+        gyroOrientationAngles[0] = 0.0f;
+        gyroOrientationAngles[1] = 0.0f;
+        gyroOrientationAngles[2] = 0.0f;
+
+        MatrixHelper.setIdentity(gyroRotationMatrix);
+    }
+
+    @Override
+    public void initialise(float[] accMagRotationMatrix, float[] accMagOrientationAngles) {
+
+        MatrixHelper.getRotationMatrixFromOrientation(accMagOrientationAngles, initMatrix);
+        MatrixHelper.matrixMultiplication(gyroRotationMatrix, initMatrix, gyroRotationMatrix);
+        MatrixHelper.getOrientation(gyroRotationMatrix, gyroOrientationAngles);
+    }
+
+    /**
+     *  Integrates one gyroscope sample over the time step dT (seconds) into the gyro rotation matrix.
+     *  Runs for every gyroscope event, so it only works on preallocated arrays.
+     */
+    @Override
+    public void integrateGyro(float[] gyroAngularSpeeds, float dT) {
+
+        float[] rotationMatrix = gyroRotationMatrix;
+
+        MatrixHelper.getRotationVectorFromGyro(gyroAngularSpeeds, deltaRotationVector, dT / 2.0f);
+        MatrixHelper.getRotationMatrixFromVector(deltaRotationMatrix, deltaRotationVector);
+        MatrixHelper.matrixMultiplication(rotationMatrix, deltaRotationMatrix, rotationMatrix);
+
+        MatrixHelper.getOrientation(rotationMatrix, gyroOrientationAngles);
+    }
+
+    @Override
+    public void fuse(float[] accMagRotationMatrix, float[] accMagOrientationAngles) {
+
+        fuseAzimuth(accMagOrientationAngles);
+        fusePitch(accMagOrientationAngles);
+        fuseRoll(accMagOrientationAngles);
+
+        rebuildGyroRotationMatrixFromFusedOrientation();
+        System.arraycopy(fusedOrientationAngles, 0, gyroOrientationAngles, 0, 3);
+    }
+
+    @Override
+    public void fuseGyroOnly() {
+        System.arraycopy(gyroOrientationAngles, 0, fusedOrientationAngles, 0, 3);
+    }
+
+    @Override
+    public void getFusedOrientationAngles(float[] angles) {
+        System.arraycopy(fusedOrientationAngles, 0, angles, 0, 3);
+    }
+
+    /**
+     *  The fused matrix is built in a spare buffer and swapped in, so the gyro integration
+     *  never sees a half written matrix and no new array is needed per tick.
+     */
+    private void rebuildGyroRotationMatrixFromFusedOrientation() {
+
+        float[] previousMatrix = gyroRotationMatrix;
+        MatrixHelper.getRotationMatrixFromOrientation(fusedOrientationAngles, fusedRotationMatrix);
+
+        gyroRotationMatrix = fusedRotationMatrix;
+        fusedRotationMatrix = previousMatrix;
+    }
+
+    private void fuseAzimuth(float[] accMagOrientationAngles) {
+
+        /**
+         *  First check if one of the orientation angles is negative whilst the other is positive
+         *  Compensate by adding (2 * math.PI) to the negative value, then perform the sensor fusion, and remove (2 * math.PI) from the result
+         */
+
+        if (checkForPositiveNegativeAngleMismatch(gyroOrientationAngles[0], accMagOrientationAngles[0])) {
+
+            fusedOrientationAngles[0] = (float) (FILTER_COEFFICIENT * (gyroOrientationAngles[0] + 2.0 * Math.PI) + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[0]);
+            fusedOrientationAngles[0] -= (fusedOrientationAngles[0] > Math.PI) ? 2.0 * Math.PI : 0;
+
+        } else if (checkForPositiveNegativeAngleMismatch(accMagOrientationAngles[0], gyroOrientationAngles[0])) {
+
+            fusedOrientationAngles[0] = (float) (FILTER_COEFFICIENT * gyroOrientationAngles[0] + ONE_MINUS_FILTER_COEFFICIENT * (accMagOrientationAngles[0] + 2.0 * Math.PI));
+            fusedOrientationAngles[0] -= (fusedOrientationAngles[0] > Math.PI) ? 2.0 * Math.PI : 0;
+
+        } else {
+            fusedOrientationAngles[0] = FILTER_COEFFICIENT * gyroOrientationAngles[0] + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[0];
+        }
+    }
+
+    private void fusePitch(float[] accMagOrientationAngles) {
+
+        if (checkForPositiveNegativeAngleMismatch(gyroOrientationAngles[1], accMagOrientationAngles[1])) {
+            fusedOrientationAngles[1] = (float) (FILTER_COEFFICIENT * (gyroOrientationAngles[1] + 2.0 * Math.PI) + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[1]);
+            fusedOrientationAngles[1] -= (fusedOrientationAngles[1] > Math.PI) ? 2.0 * Math.PI : 0;
+
+        } else if (checkForPositiveNegativeAngleMismatch(accMagOrientationAngles[1], gyroOrientationAngles[1])) {
+            fusedOrientationAngles[1] = (float) (FILTER_COEFFICIENT * gyroOrientationAngles[1] + ONE_MINUS_FILTER_COEFFICIENT * (accMagOrientationAngles[1] + 2.0 * Math.PI));
+            fusedOrientationAngles[1] -= (fusedOrientationAngles[1] > Math.PI) ? 2.0 * Math.PI : 0;
+
+        } else {
+            fusedOrientationAngles[1] = FILTER_COEFFICIENT * gyroOrientationAngles[1] + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[1];
+        }
+    }
+
+    private void fuseRoll(float[] accMagOrientationAngles) {
+
+        if (checkForPositiveNegativeAngleMismatch(gyroOrientationAngles[2], accMagOrientationAngles[2])) {
+            fusedOrientationAngles[2] = (float) (FILTER_COEFFICIENT * (gyroOrientationAngles[2] + 2.0 * Math.PI) + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[2]);
+            fusedOrientationAngles[2] -= (fusedOrientationAngles[2] > Math.PI) ? 2.0 * Math.PI : 0;
+
+        } else if (checkForPositiveNegativeAngleMismatch(accMagOrientationAngles[2], gyroOrientationAngles[2])) {
+            fusedOrientationAngles[2] = (float) (FILTER_COEFFICIENT * gyroOrientationAngles[2] + ONE_MINUS_FILTER_COEFFICIENT * (accMagOrientationAngles[2] + 2.0 * Math.PI));
+            fusedOrientationAngles[2] -= (fusedOrientationAngles[2] > Math.PI) ? 2.0 * Math.PI : 0;
+
+        } else {
+            fusedOrientationAngles[2] = FILTER_COEFFICIENT * gyroOrientationAngles[2] + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[2];
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+public enum FusionMode {
+
+    /** Blends azimuth, pitch and roll separately and rebuilds a rotation matrix on every fusion step. */
+    EULER,
+
+    /** Keeps the orientation as a quaternion and blends it with slerp, avoiding trigonometry and wrap-around handling. */
+    QUATERNION;
+
+    public OrientationFusion createFusion() {
+
+        switch (this) {
+            case QUATERNION:
+                return new QuaternionOrientationFusion();
+            default:
+                return new EulerOrientationFusion();
+        }
+    }
+}
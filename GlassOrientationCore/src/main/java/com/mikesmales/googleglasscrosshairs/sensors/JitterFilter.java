@@ -0,0 +1,209 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  Filters the two angular speeds that drive scrolling, so a still head does not keep
+ *  scrolling the page by a pixel at a time.
+ *
+ *  Each axis goes through a one euro filter: a low-pass whose cutoff rises with the speed of change,
+ *  so slow movements are smoothed heavily and fast ones pass with little lag.
+ *  The result is then gated by a deadband that tracks the measured noise, and an update that falls
+ *  inside it is not dispatched at all rather than dispatched as zero.
+ *  Outside it the speeds are rounded to a step, and an update that rounds to the speeds already
+ *  dispatched is not dispatched again.
+ *
+ *  Not thread safe, use it from the thread that consumes the updates.
+ */
+public class JitterFilter {
+
+    public static final float DEFAULT_MIN_CUTOFF_HZ = 1.0f;
+    public static final float DEFAULT_BETA = 0.5f;
+    public static final float DEFAULT_DERIVATIVE_CUTOFF_HZ = 1.0f;
+    public static final float DEFAULT_MIN_DEADBAND = 0.02f;
+    public static final float DEFAULT_NOISE_MULTIPLIER = 3.0f;
+    public static final float DEFAULT_OUTPUT_STEP = 0.005f;
+
+    private static final float NOISE_SMOOTHING = 0.05f;
+    private static final float MAX_DT = 0.2f;
+
+    /** A noisy spell must not stop deliberate slow movements from getting through. */
+    private static final float MAX_DEADBAND = 0.1f;
+
+    private float minCutoff = DEFAULT_MIN_CUTOFF_HZ;
+    private float beta = DEFAULT_BETA;
+    private float derivativeCutoff = DEFAULT_DERIVATIVE_CUTOFF_HZ;
+    private float minDeadband = DEFAULT_MIN_DEADBAND;
+    private float noiseMultiplier = DEFAULT_NOISE_MULTIPLIER;
+    private float outputStep = DEFAULT_OUTPUT_STEP;
+
+    private long lastTimeMillis;
+    private float[] filtered = new float[2];
+    private float[] filteredDerivative = new float[2];
+    private float noiseLevel;
+
+    private boolean moving;
+    private int outputStepsX;
+    private int outputStepsY;
+    private float outputX;
+    private float outputY;
+
+    private long dispatched;
+    private long suppressed;
+    private long unchanged;
+
+    /**
+     *  minCutoff (Hz) sets the smoothing when still, beta how quickly it opens up with speed.
+     */
+    public void setSmoothing(float minCutoff, float beta) {
+
+        this.minCutoff = minCutoff;
+        this.beta = beta;
+    }
+
+    /**
+     *  The deadband is the larger of minDeadband and noiseMultiplier times the measured noise, in radians per second.
+     */
+    public void setDeadband(float minDeadband, float noiseMultiplier) {
+
+        this.minDeadband = minDeadband;
+        this.noiseMultiplier = noiseMultiplier;
+    }
+
+    /**
+     *  The speeds are rounded to multiples of outputStep, in radians per second, before they are compared
+     *  with the last ones dispatched.
+     */
+    public void setOutputStep(float outputStep) {
+        this.outputStep = outputStep;
+    }
+
+    public void reset() {
+
+        lastTimeMillis = 0;
+        filtered[0] = filtered[1] = 0;
+        filteredDerivative[0] = filteredDerivative[1] = 0;
+        moving = false;
+        outputStepsX = outputStepsY = 0;
+        outputX = outputY = 0;
+    }
+
+    /**
+     *  Returns true if the filtered speeds have changed and should be dispatched, they are then available from getX and getY.
+     *  When it returns false, isMoving tells a head at rest from one still turning at the speeds last dispatched.
+     */
+    public boolean filter(long timeMillis, float x, float y) {
+
+        float dT = (lastTimeMillis == 0) ? 0 : Math.min(MAX_DT, (timeMillis - lastTimeMillis) / 1000.0f);
+        lastTimeMillis = timeMillis;
+
+        if (dT <= 0) {
+
+            filtered[0] = x;
+            filtered[1] = y;
+            return gate(x, y);
+        }
+
+        float filteredX = filterAxis(0, x, dT);
+        float filteredY = filterAxis(1, y, dT);
+
+        updateNoiseLevel(x - filteredX, y - filteredY, filteredX, filteredY);
+        return gate(filteredX, filteredY);
+    }
+
+    private float filterAxis(int axis, float value, float dT) {
+
+        float derivative = (value - filtered[axis]) / dT;
+        filteredDerivative[axis] += smoothingFactor(derivativeCutoff, dT) * (derivative - filteredDerivative[axis]);
+
+        float cutoff = minCutoff + beta * Math.abs(filteredDerivative[axis]);
+        filtered[axis] += smoothingFactor(cutoff, dT) * (value - filtered[axis]);
+
+        return filtered[axis];
+    }
+
+    /**
+     *  The noise is what the filter removes while the head is close to still.
+     *  Residuals during real movement are left out, so the deadband does not open up after a fast turn.
+     */
+    private void updateNoiseLevel(float residualX, float residualY, float filteredX, float filteredY) {
+
+        float deadband = getDeadband();
+
+        if (filteredX * filteredX + filteredY * filteredY > 4.0f * deadband * deadband)
+            return;
+
+        float residual = (float) Math.sqrt(residualX * residualX + residualY * residualY);
+        noiseLevel += NOISE_SMOOTHING * (residual - noiseLevel);
+    }
+
+    private static float smoothingFactor(float cutoff, float dT) {
+
+        float tau = (float) (1.0 / (2.0 * Math.PI * cutoff));
+        return 1.0f / (1.0f + tau / dT);
+    }
+
+    private boolean gate(float x, float y) {
+
+        float magnitude = (float) Math.sqrt(x * x + y * y);
+
+        if (magnitude < getDeadband()) {
+            moving = false;
+            suppressed++;
+            return false;
+        }
+
+        int stepsX = Math.round(x / outputStep);
+        int stepsY = Math.round(y / outputStep);
+
+        if (moving && stepsX == outputStepsX && stepsY == outputStepsY) {
+            unchanged++;
+            return false;
+        }
+
+        moving = true;
+        outputStepsX = stepsX;
+        outputStepsY = stepsY;
+        outputX = stepsX * outputStep;
+        outputY = stepsY * outputStep;
+        dispatched++;
+        return true;
+    }
+
+    /**
+     *  False once the speeds have fallen inside the deadband, until they leave it again.
+     */
+    public boolean isMoving() {
+        return moving;
+    }
+
+    public float getX() {
+        return outputX;
+    }
+
+    public float getY() {
+        return outputY;
+    }
+
+    public float getDeadband() {
+        return Math.max(minDeadband, Math.min(MAX_DEADBAND, noiseMultiplier * noiseLevel));
+    }
+
+    public long getDispatchedCount() {
+        return dispatched;
+    }
+
+    public long getSuppressedCount() {
+        return suppressed;
+    }
+
+    public long getUnchangedCount() {
+        return unchanged;
+    }
+
+    public void format(StringBuilder builder) {
+
+        builder.append("jitter sent ").append(dispatched);
+        builder.append(" gated ").append(suppressed);
+        builder.append(" same ").append(unchanged);
+        builder.append(" band ").append(Math.round(getDeadband() * 1000)).append(" mrad/s\n");
+    }
+}
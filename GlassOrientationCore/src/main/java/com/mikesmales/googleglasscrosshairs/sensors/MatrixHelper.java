@@ -0,0 +1,242 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  Every routine has an out-parameter form that writes into a caller supplied array
+ *  and allocates nothing, so it can be used on the per-sensor-event path.
+ *  The array returning forms are kept for convenience and delegate to them.
+ */
+public class MatrixHelper {
+
+    private static final float EPSILON = 0.000000001f;
+
+    /**
+     *  This is taken from the Android reference at:
+     *
+     *  http://developer.android.com/reference/android/hardware/SensorEvent.html#values
+     *  It calculates a rotation vector from the gyroscope angular speed values.
+     */
+
+    public static void getRotationVectorFromGyro(float[] gyroValues, float[] deltaRotationVector, float timeFactor) {
+
+        float normX = 0.0f;
+        float normY = 0.0f;
+        float normZ = 0.0f;
+
+        // Calculate the angular speed of the sample
+        float omegaMagnitude = (float) Math.sqrt(gyroValues[0] * gyroValues[0] + gyroValues[1] * gyroValues[1] + gyroValues[2] * gyroValues[2]);
+
+        // Normalize the rotation vector if it's big enough to get the axis
+        if (omegaMagnitude > EPSILON) {
+            normX = gyroValues[0] / omegaMagnitude;
+            normY = gyroValues[1] / omegaMagnitude;
+            normZ = gyroValues[2] / omegaMagnitude;
+        }
+
+        // Integrate around this axis with the angular speed by the timestep
+        // in order to get a delta rotation from this sample over the timestep
+        // We will convert this axis-angle representation of the delta rotation
+        // into a quaternion before turning it into the rotation matrix.
+        float thetaOverTwo = omegaMagnitude * timeFactor;
+        float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
+        float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
+        deltaRotationVector[0] = sinThetaOverTwo * normX;
+        deltaRotationVector[1] = sinThetaOverTwo * normY;
+        deltaRotationVector[2] = sinThetaOverTwo * normZ;
+        deltaRotationVector[3] = cosThetaOverTwo;
+    }
+
+    public static float[] getRotationMatrixFromOrientation(float[] o) {
+
+        float[] resultMatrix = new float[9];
+        getRotationMatrixFromOrientation(o, resultMatrix);
+        return resultMatrix;
+    }
+
+    /**
+     *  Writes the rotation matrix for the given azimuth, pitch and roll into result.
+     *
+     *  This is the product zM * (xM * yM) of the individual axis rotations,
+     *  expanded so that no intermediate matrices are needed.
+     */
+    public static void getRotationMatrixFromOrientation(float[] o, float[] result) {
+
+        float sinX = (float) Math.sin(o[1]);
+        float cosX = (float) Math.cos(o[1]);
+        float sinY = (float) Math.sin(o[2]);
+        float cosY = (float) Math.cos(o[2]);
+        float sinZ = (float) Math.sin(o[0]);
+        float cosZ = (float) Math.cos(o[0]);
+
+        // rotation about x-axis (pitch) applied to rotation about y-axis (roll)
+        float xy3 = -sinX * sinY;
+        float xy5 = sinX * cosY;
+        float xy6 = -cosX * sinY;
+        float xy8 = cosX * cosY;
+
+        // then rotation about z-axis (azimuth)
+        // rotation order is y, x, z (roll, pitch, azimuth)
+        result[0] = cosZ * cosY + sinZ * xy3;
+        result[1] = sinZ * cosX;
+        result[2] = cosZ * sinY + sinZ * xy5;
+
+        result[3] = -sinZ * cosY + cosZ * xy3;
+        result[4] = cosZ * cosX;
+        result[5] = -sinZ * sinY + cosZ * xy5;
+
+        result[6] = xy6;
+        result[7] = -sinX;
+        result[8] = xy8;
+    }
+
+    public static float[] matrixMultiplication(float[] A, float[] B) {
+
+        float[] result = new float[9];
+        matrixMultiplication(A, B, result);
+        return result;
+    }
+
+    /**
+     *  Writes A * B into result.
+     *  result may be the same array as A or B, which allows in-place accumulation.
+     */
+    public static void matrixMultiplication(float[] A, float[] B, float[] result) {
+
+        float r0 = A[0] * B[0] + A[1] * B[3] + A[2] * B[6];
+        float r1 = A[0] * B[1] + A[1] * B[4] + A[2] * B[7];
+        float r2 = A[0] * B[2] + A[1] * B[5] + A[2] * B[8];
+
+        float r3 = A[3] * B[0] + A[4] * B[3] + A[5] * B[6];
+        float r4 = A[3] * B[1] + A[4] * B[4] + A[5] * B[7];
+        float r5 = A[3] * B[2] + A[4] * B[5] + A[5] * B[8];
+
+        float r6 = A[6] * B[0] + A[7] * B[3] + A[8] * B[6];
+        float r7 = A[6] * B[1] + A[7] * B[4] + A[8] * B[7];
+        float r8 = A[6] * B[2] + A[7] * B[5] + A[8] * B[8];
+
+        result[0] = r0;
+        result[1] = r1;
+        result[2] = r2;
+
+        result[3] = r3;
+        result[4] = r4;
+        result[5] = r5;
+
+        result[6] = r6;
+        result[7] = r7;
+        result[8] = r8;
+    }
+
+    public static void setIdentity(float[] matrix) {
+
+        matrix[0] = 1.0f;
+        matrix[1] = 0.0f;
+        matrix[2] = 0.0f;
+        matrix[3] = 0.0f;
+        matrix[4] = 1.0f;
+        matrix[5] = 0.0f;
+        matrix[6] = 0.0f;
+        matrix[7] = 0.0f;
+        matrix[8] = 1.0f;
+    }
+
+    /**
+     *  The following are ports of the SensorManager routines of the same name, restricted to 3x3 matrices,
+     *  so the fusion maths can run off-device.
+     *  See http://developer.android.com/reference/android/hardware/SensorManager.html
+     */
+
+    public static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+
+        float Ax = gravity[0];
+        float Ay = gravity[1];
+        float Az = gravity[2];
+        final float Ex = geomagnetic[0];
+        final float Ey = geomagnetic[1];
+        final float Ez = geomagnetic[2];
+
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+
+        final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+
+        // device is close to free fall (or in space?), or close to magnetic north pole
+        if (normH < 0.1f)
+            return false;
+
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+
+        final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+
+        R[0] = Hx;
+        R[1] = Hy;
+        R[2] = Hz;
+        R[3] = Mx;
+        R[4] = My;
+        R[5] = Mz;
+        R[6] = Ax;
+        R[7] = Ay;
+        R[8] = Az;
+        return true;
+    }
+
+    public static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+
+        float q0;
+        float q1 = rotationVector[0];
+        float q2 = rotationVector[1];
+        float q3 = rotationVector[2];
+
+        if (rotationVector.length == 4) {
+            q0 = rotationVector[3];
+        } else {
+            q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+            q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+        }
+
+        float sq_q1 = 2 * q1 * q1;
+        float sq_q2 = 2 * q2 * q2;
+        float sq_q3 = 2 * q3 * q3;
+        float q1_q2 = 2 * q1 * q2;
+        float q3_q0 = 2 * q3 * q0;
+        float q1_q3 = 2 * q1 * q3;
+        float q2_q0 = 2 * q2 * q0;
+        float q2_q3 = 2 * q2 * q3;
+        float q1_q0 = 2 * q1 * q0;
+
+        R[0] = 1 - sq_q2 - sq_q3;
+        R[1] = q1_q2 - q3_q0;
+        R[2] = q1_q3 + q2_q0;
+
+        R[3] = q1_q2 + q3_q0;
+        R[4] = 1 - sq_q1 - sq_q3;
+        R[5] = q2_q3 - q1_q0;
+
+        R[6] = q1_q3 - q2_q0;
+        R[7] = q2_q3 + q1_q0;
+        R[8] = 1 - sq_q1 - sq_q2;
+    }
+
+    public static float[] getOrientation(float[] R, float[] values) {
+
+        values[0] = (float) Math.atan2(R[1], R[4]);
+        values[1] = (float) Math.asin(-R[7]);
+        values[2] = (float) Math.atan2(-R[6], R[8]);
+        return values;
+    }
+
+    public static boolean checkForPositiveNegativeAngleMismatch(float angleOne, float angleTwo) {
+        return (angleOne < -0.5 * Math.PI && angleTwo > 0.0);
+    }
+
+}
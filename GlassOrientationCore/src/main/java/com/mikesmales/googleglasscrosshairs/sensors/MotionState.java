@@ -0,0 +1,13 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+public enum MotionState {
+
+    /** The head is turning, sensors run at their fastest useful rate. */
+    MOVING,
+
+    /** The head has been still briefly, sensors slow down but the gyro stays responsive. */
+    STILL,
+
+    /** The head has been still for a long time, the magnetometer is paused. */
+    IDLE
+}
@@ -0,0 +1,167 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  Decides whether the wearer's head is moving from the gyroscope magnitude, less the gyro bias,
+ *  and the variance of the accelerometer magnitude.
+ *
+ *  Separate enter and leave thresholds, plus a minimum still time before slowing down,
+ *  give hysteresis so the state does not flap around the threshold.
+ *  Leaving a still state is immediate, so a head movement is never sampled slowly for long.
+ *
+ *  Time is taken from the sample timestamps, and the time spent in each state is accumulated.
+ *  Fed from the fusion thread, the figures can be read from any other for display.
+ */
+public class MotionStateDetector {
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    public static final float GYRO_STILL_THRESHOLD = 0.05f;
+    public static final float GYRO_MOVING_THRESHOLD = 0.15f;
+    public static final float ACCEL_VARIANCE_STILL_THRESHOLD = 0.02f;
+    public static final float ACCEL_VARIANCE_MOVING_THRESHOLD = 0.1f;
+
+    public static final long STILL_DELAY_NS = 500000000L;
+    public static final long IDLE_DELAY_NS = 5000000000L;
+
+    private static final float SMOOTHING = 0.1f;
+
+    private volatile MotionState state = MotionState.MOVING;
+    private long stillSince = -1;
+    private long lastTimestamp = -1;
+
+    private float[] gyroBias = new float[3];
+    private float gyroMagnitude;
+    private float accelMean;
+    private float accelVariance;
+    private boolean accelInitialised;
+
+    /** Atomic so the display never reads a long half written on a 32-bit device. */
+    private AtomicLongArray timeInState = new AtomicLongArray(MotionState.values().length);
+    private volatile int transitions;
+
+    /**
+     *  The bias the engine has learned, so a drifting gyro on a still head does not read as movement.
+     *  See OrientationEngine.getGyroBias.
+     */
+    public void setGyroBias(float[] bias) {
+        System.arraycopy(bias, 0, gyroBias, 0, 3);
+    }
+
+    /**
+     *  Returns true if the state changed.
+     */
+    public boolean onGyroscope(long timestamp, float x, float y, float z) {
+
+        x -= gyroBias[0];
+        y -= gyroBias[1];
+        z -= gyroBias[2];
+
+        gyroMagnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        return update(timestamp);
+    }
+
+    public boolean onAccelerometer(long timestamp, float x, float y, float z) {
+
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+
+        if (!accelInitialised) {
+            accelMean = magnitude;
+            accelInitialised = true;
+        }
+
+        float difference = magnitude - accelMean;
+        accelMean += SMOOTHING * difference;
+        accelVariance = (1.0f - SMOOTHING) * (accelVariance + SMOOTHING * difference * difference);
+
+        return update(timestamp);
+    }
+
+    private boolean update(long timestamp) {
+
+        accumulateTime(timestamp);
+
+        if (isMoving()) {
+            stillSince = -1;
+            return setState(MotionState.MOVING);
+        }
+
+        if (!isStill()) {
+            stillSince = -1;
+            return false;
+        }
+
+        if (stillSince < 0) {
+            stillSince = timestamp;
+        }
+
+        long stillFor = timestamp - stillSince;
+
+        if (stillFor >= IDLE_DELAY_NS)
+            return setState(MotionState.IDLE);
+
+        if (stillFor >= STILL_DELAY_NS && state == MotionState.MOVING)
+            return setState(MotionState.STILL);
+
+        return false;
+    }
+
+    private boolean isMoving() {
+        return gyroMagnitude > GYRO_MOVING_THRESHOLD || accelVariance > ACCEL_VARIANCE_MOVING_THRESHOLD;
+    }
+
+    private boolean isStill() {
+        return gyroMagnitude < GYRO_STILL_THRESHOLD && accelVariance < ACCEL_VARIANCE_STILL_THRESHOLD;
+    }
+
+    private boolean setState(MotionState newState) {
+
+        if (state == newState)
+            return false;
+
+        state = newState;
+        transitions++;
+        return true;
+    }
+
+    private void accumulateTime(long timestamp) {
+
+        if (lastTimestamp >= 0 && timestamp > lastTimestamp) {
+            timeInState.addAndGet(state.ordinal(), timestamp - lastTimestamp);
+        }
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+    }
+
+    public void reset() {
+
+        state = MotionState.MOVING;
+        stillSince = -1;
+        lastTimestamp = -1;
+        accelInitialised = false;
+        accelVariance = 0;
+        gyroMagnitude = 0;
+    }
+
+    public MotionState getState() {
+        return state;
+    }
+
+    public float getSecondsInState(MotionState motionState) {
+        return timeInState.get(motionState.ordinal()) * NS2S;
+    }
+
+    public int getTransitions() {
+        return transitions;
+    }
+
+    public void format(StringBuilder builder) {
+
+        builder.append("motion ").append(state.name().toLowerCase());
+
+        for (MotionState motionState : MotionState.values()) {
+            builder.append(' ').append(motionState.name().charAt(0)).append(Math.round(getSecondsInState(motionState))).append('s');
+        }
+        builder.append(" transitions ").append(transitions).append('\n');
+    }
+}
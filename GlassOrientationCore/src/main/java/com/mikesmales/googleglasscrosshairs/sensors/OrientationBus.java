@@ -0,0 +1,232 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  Publishes fused orientation updates to any number of subscribers.
+ *
+ *  Each update is written once into a pooled OrientationSnapshot and shared by every subscriber,
+ *  so subscribers see a consistent update that the fusion thread will not overwrite.
+ *  Subscribers choose their own executor and can take only every Nth update.
+ *  If a subscriber's executor has not run the previous update yet, it is replaced by the new one,
+ *  so a slow subscriber always gets the latest update and never builds up a queue.
+ *
+ *  The subscriber list is copy-on-write, and snapshots and deliveries are reused,
+ *  so publishing does not allocate once the pool has grown to fit the subscribers.
+ */
+public class OrientationBus {
+
+    /** Runs the subscriber on the publishing thread. */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final int INITIAL_POOL_SIZE = 8;
+
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    private final Object poolLock = new Object();
+    private OrientationSnapshot[] pool = new OrientationSnapshot[INITIAL_POOL_SIZE];
+    private int pooled;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+    private final AtomicLong snapshotsCreated = new AtomicLong();
+
+    public OrientationBus() {
+
+        for (int i = 0; i < INITIAL_POOL_SIZE; i++) {
+            recycle(createSnapshot());
+        }
+    }
+
+    public void subscribe(OrientationSubscriber subscriber) {
+        subscribe(subscriber, 1, DIRECT);
+    }
+
+    /**
+     *  Delivers every decimation'th update to the subscriber through the executor.
+     */
+    public synchronized void subscribe(OrientationSubscriber subscriber, int decimation, Executor executor) {
+
+        Subscription[] current = subscriptions;
+        Subscription[] updated = new Subscription[current.length + 1];
+
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = new Subscription(subscriber, Math.max(1, decimation), executor);
+
+        subscriptions = updated;
+    }
+
+    public synchronized void unsubscribe(OrientationSubscriber subscriber) {
+
+        Subscription[] current = subscriptions;
+
+        for (int i = 0; i < current.length; i++) {
+
+            if (current[i].subscriber == subscriber) {
+
+                Subscription[] updated = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+
+                subscriptions = updated;
+                current[i].cancel();
+                return;
+            }
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return subscriptions.length > 0;
+    }
+
+    /**
+     *  Called from the fusion thread after each fusion step.
+     */
+    public void publish(long timestamp, float[] fusedOrientationAngles, float[] angularSpeeds, float[] gyroSum) {
+
+        Subscription[] current = subscriptions;
+        if (current.length == 0)
+            return;
+
+        OrientationSnapshot snapshot = obtain();
+        snapshot.timestamp = timestamp;
+        System.arraycopy(fusedOrientationAngles, 0, snapshot.fusedOrientationAngles, 0, 3);
+        System.arraycopy(angularSpeeds, 0, snapshot.angularSpeeds, 0, 3);
+        System.arraycopy(gyroSum, 0, snapshot.gyroSum, 0, 3);
+
+        for (Subscription subscription : current) {
+            subscription.offer(snapshot);
+        }
+
+        published.incrementAndGet();
+        snapshot.release();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     *  Updates dropped because a subscriber's executor had not delivered the previous one yet.
+     */
+    public long getReplacedCount() {
+        return replaced.get();
+    }
+
+    public long getSnapshotsCreated() {
+        return snapshotsCreated.get();
+    }
+
+    private OrientationSnapshot obtain() {
+
+        OrientationSnapshot snapshot = null;
+
+        synchronized (poolLock) {
+            if (pooled > 0) {
+                snapshot = pool[--pooled];
+                pool[pooled] = null;
+            }
+        }
+
+        if (snapshot == null) {
+            snapshot = createSnapshot();
+        }
+
+        snapshot.acquire();
+        return snapshot;
+    }
+
+    private OrientationSnapshot createSnapshot() {
+
+        snapshotsCreated.incrementAndGet();
+        return new OrientationSnapshot(this);
+    }
+
+    void recycle(OrientationSnapshot snapshot) {
+
+        synchronized (poolLock) {
+
+            if (pooled == pool.length) {
+                OrientationSnapshot[] larger = new OrientationSnapshot[pool.length * 2];
+                System.arraycopy(pool, 0, larger, 0, pooled);
+                pool = larger;
+            }
+            pool[pooled++] = snapshot;
+        }
+    }
+
+
+    /**
+     *  The delivery runnable for one subscriber. It is handed to the executor at most once
+     *  at a time, and picks up whichever snapshot is pending when it runs.
+     */
+    private class Subscription implements Runnable {
+
+        final OrientationSubscriber subscriber;
+        final int decimation;
+        final Executor executor;
+
+        private final AtomicReference<OrientationSnapshot> pending = new AtomicReference<OrientationSnapshot>();
+        private int skipped;
+        private volatile boolean cancelled;
+
+        Subscription(OrientationSubscriber subscriber, int decimation, Executor executor) {
+
+            this.subscriber = subscriber;
+            this.decimation = decimation;
+            this.executor = executor;
+        }
+
+        /**
+         *  Only called from the publishing thread.
+         */
+        void offer(OrientationSnapshot snapshot) {
+
+            if (++skipped < decimation)
+                return;
+
+            skipped = 0;
+
+            OrientationSnapshot previous = pending.getAndSet(snapshot.retain());
+
+            if (previous != null) {
+                previous.release();
+                replaced.incrementAndGet();
+            }
+            else {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+
+            OrientationSnapshot snapshot = pending.getAndSet(null);
+            if (snapshot == null)
+                return;
+
+            try {
+                if (!cancelled)
+                    subscriber.onOrientation(snapshot);
+            } finally {
+                snapshot.release();
+            }
+        }
+
+        void cancel() {
+
+            cancelled = true;
+
+            OrientationSnapshot snapshot = pending.getAndSet(null);
+            if (snapshot != null)
+                snapshot.release();
+        }
+    }
+}
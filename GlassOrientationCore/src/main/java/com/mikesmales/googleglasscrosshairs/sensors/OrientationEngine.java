@@ -0,0 +1,275 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  The sensor fusion pipeline without any Android dependencies.
+ *
+ *  Raw samples go in as (timestamp, x, y, z), with timestamps in nanoseconds on any monotonic clock.
+ *  The accelerometer and magnetometer give an absolute orientation through the MatrixHelper ports
+ *  of the SensorManager routines, the gyroscope is integrated between samples, and fuse() blends the two.
+ *
+ *  Timestamps are kept as longs and only the difference between two samples is converted to seconds,
+ *  so the time step stays accurate however long the clock has been running.
+ *
+ *  The gyro bias is estimated while the head is still, as told by setMotionState, and subtracted from every sample.
+ *  It can be saved to an OrientationState along with the last fused orientation and restored, so fusion can start
+ *  without waiting for a first fix. The magnetometer is used as it is: TYPE_MAGNETIC_FIELD is already calibrated
+ *  by the platform, which keeps its own calibration, and the range a head sweeps is too small to calibrate it again.
+ *
+ *  Not thread safe, every method should be called from the same fusion thread.
+ */
+public class OrientationEngine implements SensorSampleRing.SampleHandler {
+
+    private static final double NS2S = 1.0 / 1000000000.0;
+
+    private static final float BIAS_STILL_THRESHOLD = 0.03f;
+    private static final float BIAS_SMOOTHING = 0.01f;
+
+    private OrientationFusion fusion;
+
+    private long gyroTimestamp;
+    private boolean initState = true;
+
+    private float[] gyroAngularSpeeds = new float[3];
+    private float[] gyroSum = new float[3];
+
+    private float[] magnetometerArray = new float[3];
+    private float[] accelerometerArray = new float[3];
+    private float[] accMagOrientationAngles = new float[3];
+    private float[] accMagRotationMatrix = new float[9];
+
+    private boolean accelerometerAvailable;
+    private boolean magnetometerAvailable;
+    private boolean accMagOrientationAvailable;
+    private boolean fused;
+
+    private float[] gyroBias = new float[3];
+    private MotionState motionState = MotionState.MOVING;
+
+    private float[] initialOrientationAngles = new float[3];
+    private float[] initialRotationMatrix = new float[9];
+
+    public OrientationEngine(FusionMode fusionMode) {
+        this.fusion = fusionMode.createFusion();
+    }
+
+    @Override
+    public void onSample(int type, long timestamp, float x, float y, float z) {
+
+        switch (type) {
+
+            case SensorSampleRing.TYPE_ACCELEROMETER:
+                onAccelerometer(timestamp, x, y, z);
+                break;
+
+            case SensorSampleRing.TYPE_GYROSCOPE:
+                onGyroscope(timestamp, x, y, z);
+                break;
+
+            case SensorSampleRing.TYPE_MAGNETIC_FIELD:
+                onMagneticField(timestamp, x, y, z);
+                break;
+        }
+    }
+
+    public void onAccelerometer(long timestamp, float x, float y, float z) {
+
+        accelerometerArray[0] = x;
+        accelerometerArray[1] = y;
+        accelerometerArray[2] = z;
+        accelerometerAvailable = true;
+
+        calculateOrientationAnglesFromAccelerometerAndMagnetometerOutput();
+    }
+
+    public void onMagneticField(long timestamp, float x, float y, float z) {
+
+        magnetometerArray[0] = x;
+        magnetometerArray[1] = y;
+        magnetometerArray[2] = z;
+        magnetometerAvailable = true;
+    }
+
+    /**
+     *  Integrates one gyroscope sample. Samples are ignored until the accelerometer and magnetometer
+     *  have given a starting orientation, and the first one after that only records the timestamp.
+     *  Returns true if the sample was integrated.
+     */
+    public boolean onGyroscope(long timestamp, float x, float y, float z) {
+
+        if (initState) {
+
+            if (!accMagOrientationAvailable)
+                return false;
+
+            fusion.initialise(accMagRotationMatrix, accMagOrientationAngles);
+            initState = false;
+        }
+
+        updateGyroBias(x, y, z);
+        x -= gyroBias[0];
+        y -= gyroBias[1];
+        z -= gyroBias[2];
+
+        long previousTimestamp = gyroTimestamp;
+        gyroTimestamp = timestamp;
+
+        if (previousTimestamp == 0)
+            return false;
+
+        final float dT = (float) ((timestamp - previousTimestamp) * NS2S);
+        gyroAngularSpeeds[0] = x;
+        gyroAngularSpeeds[1] = y;
+        gyroAngularSpeeds[2] = z;
+
+        gyroSum[0] += x;
+        gyroSum[1] += y;
+        gyroSum[2] += z;
+
+        fusion.integrateGyro(gyroAngularSpeeds, dT);
+        return true;
+    }
+
+    /**
+     *  Lets the gyro bias be learned while the state is STILL or IDLE, typically from a MotionStateDetector
+     *  fed the same samples. Until then the engine assumes the head is MOVING and the bias stays as it is.
+     */
+    public void setMotionState(MotionState motionState) {
+        this.motionState = motionState;
+    }
+
+    /**
+     *  While the head is still the gyro should read zero, so a slow average of what it reads then is its bias.
+     *  A slow, steady turn reads much like a bias, so nothing is learned unless the detector has seen the head
+     *  settle, and even then a reading well away from the current estimate is not taken as bias.
+     */
+    private void updateGyroBias(float x, float y, float z) {
+
+        if (motionState == MotionState.MOVING)
+            return;
+
+        float correctedX = x - gyroBias[0];
+        float correctedY = y - gyroBias[1];
+        float correctedZ = z - gyroBias[2];
+
+        if (correctedX * correctedX + correctedY * correctedY + correctedZ * correctedZ > BIAS_STILL_THRESHOLD * BIAS_STILL_THRESHOLD)
+            return;
+
+        gyroBias[0] += BIAS_SMOOTHING * correctedX;
+        gyroBias[1] += BIAS_SMOOTHING * correctedY;
+        gyroBias[2] += BIAS_SMOOTHING * correctedZ;
+    }
+
+    private void calculateOrientationAnglesFromAccelerometerAndMagnetometerOutput() {
+
+        if (!accelerometerAvailable || !magnetometerAvailable)
+            return;
+
+        if (MatrixHelper.getRotationMatrix(accMagRotationMatrix, accelerometerArray, magnetometerArray)) {
+            MatrixHelper.getOrientation(accMagRotationMatrix, accMagOrientationAngles);
+            accMagOrientationAvailable = true;
+        }
+    }
+
+    /**
+     *  One complementary filter step. Returns true if there is an orientation to publish, which is once the fusion
+     *  has been started from a first accelerometer/magnetometer fix or a restored state. Until fresh accelerometer
+     *  and magnetometer readings give a fix after resetSensorData, the orientation is the restored or kept one
+     *  moved on by the gyro alone.
+     */
+    public boolean fuse() {
+
+        if (initState)
+            return false;
+
+        if (accMagOrientationAvailable)
+            fusion.fuse(accMagRotationMatrix, accMagOrientationAngles);
+        else
+            fusion.fuseGyroOnly();
+
+        fused = true;
+        return true;
+    }
+
+    public void saveState(OrientationState state, long nowMillis) {
+
+        state.savedAtMillis = nowMillis;
+        state.hasOrientation = fused;
+
+        if (fused)
+            fusion.getFusedOrientationAngles(state.fusedOrientationAngles);
+
+        System.arraycopy(gyroBias, 0, state.gyroBias, 0, 3);
+    }
+
+    /**
+     *  Restores the bias, and if useOrientation is set, seeds the fusion with the saved
+     *  orientation so gyro samples are integrated from the first one rather than after the first
+     *  accelerometer/magnetometer fix. Fresh accelerometer/magnetometer data then corrects it as usual.
+     */
+    public void restoreState(OrientationState state, boolean useOrientation) {
+
+        System.arraycopy(state.gyroBias, 0, gyroBias, 0, 3);
+
+        if (useOrientation && state.hasOrientation) {
+
+            System.arraycopy(state.fusedOrientationAngles, 0, initialOrientationAngles, 0, 3);
+            MatrixHelper.getRotationMatrixFromOrientation(initialOrientationAngles, initialRotationMatrix);
+
+            fusion.reset();
+            fusion.initialise(initialRotationMatrix, initialOrientationAngles);
+            initState = false;
+        }
+    }
+
+    /**
+     *  Forgets the last gyro timestamp, so the next gyro sample is not integrated over a gap
+     *  such as a pause or a change of sensor source.
+     */
+    public void resetTimestamp() {
+        gyroTimestamp = 0;
+    }
+
+    /**
+     *  Forgets everything sampled before a gap such as a pause: the gyro timestamp, as resetTimestamp does,
+     *  and the accelerometer/magnetometer fix, so readings from before the gap are never fused with the
+     *  orientation after it. The fused orientation itself is kept.
+     */
+    public void resetSensorData() {
+
+        resetTimestamp();
+        accelerometerAvailable = false;
+        magnetometerAvailable = false;
+        accMagOrientationAvailable = false;
+    }
+
+    /**
+     *  The timestamp of the last gyroscope sample, which is the newest data a fuse() result includes.
+     */
+    public long getGyroTimestamp() {
+        return gyroTimestamp;
+    }
+
+    public boolean isAccMagOrientationAvailable() {
+        return accMagOrientationAvailable;
+    }
+
+    public void getGyroAngularSpeeds(float[] speeds) {
+        System.arraycopy(gyroAngularSpeeds, 0, speeds, 0, 3);
+    }
+
+    public void getGyroSum(float[] sum) {
+        System.arraycopy(gyroSum, 0, sum, 0, 3);
+    }
+
+    public void getAccMagOrientationAngles(float[] angles) {
+        System.arraycopy(accMagOrientationAngles, 0, angles, 0, 3);
+    }
+
+    public void getGyroBias(float[] bias) {
+        System.arraycopy(gyroBias, 0, bias, 0, 3);
+    }
+
+    public void getFusedOrientationAngles(float[] angles) {
+        fusion.getFusedOrientationAngles(angles);
+    }
+}
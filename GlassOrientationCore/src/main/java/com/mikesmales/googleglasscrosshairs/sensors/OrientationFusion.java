@@ -0,0 +1,30 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  A complementary filter that integrates the gyroscope and periodically corrects it
+ *  with the orientation given by the accelerometer and magnetometer.
+ *
+ *  The accelerometer/magnetometer orientation is passed both as the rotation matrix from getRotationMatrix
+ *  and the angles from getOrientation, implementations use whichever suits their representation.
+ */
+public interface OrientationFusion {
+
+    void reset();
+
+    void initialise(float[] accMagRotationMatrix, float[] accMagOrientationAngles);
+
+    void integrateGyro(float[] gyroAngularSpeeds, float dT);
+
+    void fuse(float[] accMagRotationMatrix, float[] accMagOrientationAngles);
+
+    /**
+     *  A fusion step with no accelerometer/magnetometer orientation to correct towards,
+     *  the fused orientation becomes the integrated gyro orientation.
+     */
+    void fuseGyroOnly();
+
+    /**
+     *  Writes the fused azimuth, pitch and roll into angles.
+     */
+    void getFusedOrientationAngles(float[] angles);
+}
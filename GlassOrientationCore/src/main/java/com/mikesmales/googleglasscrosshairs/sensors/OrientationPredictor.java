@@ -0,0 +1,354 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyHistogram;
+
+/**
+ *  Extrapolates the fused orientation forward by a horizon, to hide the time between
+ *  a sensor sample and the frame that shows it.
+ *
+ *  The fused angles and the gyro angular speeds are in different frames, so each is extrapolated
+ *  from its own smoothed derivatives: the angles from their rate of change, and the angular speeds
+ *  from the angular acceleration. On an axis that has just changed direction, or whose deceleration
+ *  would carry the prediction past a stop, the prediction is clamped to where the movement stops,
+ *  as overshooting a reversal is far more visible than lagging it.
+ *
+ *  Every prediction, of the angles and of the angular speeds that drive scrolling, is later compared
+ *  with the actual values at its target time, alongside the error of not predicting at all,
+ *  so the horizon can be tuned per device.
+ *
+ *  Called from the fusion thread only, apart from the error statistics.
+ */
+public class OrientationPredictor {
+
+    /** Take the horizon from a measured latency, see setHorizonSource. */
+    public static final long AUTOMATIC_HORIZON = -1;
+    public static final long DEFAULT_HORIZON_NANOS = 33000000L;
+
+    private static final double NS2S = 1.0 / 1000000000.0;
+    private static final float DERIVATIVE_SMOOTHING = 0.3f;
+    private static final int PENDING_PREDICTIONS = 64;
+    private static final int HORIZON_REFRESH_INTERVAL = 100;
+
+    private PredictionModel model;
+    private long horizonNanos;
+    private volatile LatencyHistogram horizonSource;
+    private long automaticHorizonNanos = DEFAULT_HORIZON_NANOS;
+    private int updatesSinceHorizonRefresh;
+
+    private long lastTimestamp;
+    private float[] lastAngles = new float[3];
+    private float[] angleRates = new float[3];
+    private float[] angleAccelerations = new float[3];
+    private float[] lastAngularSpeeds = new float[3];
+    private float[] angularAccelerations = new float[3];
+
+    private float[] predictedAngles = new float[3];
+    private float[] predictedAngularSpeeds = new float[3];
+
+    private long[] pendingTargetTimes = new long[PENDING_PREDICTIONS];
+    private float[] pendingPredictedAngles = new float[PENDING_PREDICTIONS * 3];
+    private float[] pendingBaselineAngles = new float[PENDING_PREDICTIONS * 3];
+    private float[] pendingPredictedSpeeds = new float[PENDING_PREDICTIONS * 3];
+    private float[] pendingBaselineSpeeds = new float[PENDING_PREDICTIONS * 3];
+    private int pendingHead;
+    private int pendingTail;
+
+    private final PredictionErrorStats predictionErrors = new PredictionErrorStats(true);
+    private final PredictionErrorStats baselineErrors = new PredictionErrorStats(true);
+    private final PredictionErrorStats speedPredictionErrors = new PredictionErrorStats(false);
+    private final PredictionErrorStats speedBaselineErrors = new PredictionErrorStats(false);
+
+    public OrientationPredictor(PredictionModel model, long horizonNanos) {
+
+        this.model = model;
+        this.horizonNanos = horizonNanos;
+    }
+
+    /**
+     *  With an AUTOMATIC_HORIZON the horizon follows the median of this histogram,
+     *  typically the end to end latency up to the frame.
+     */
+    public void setHorizonSource(LatencyHistogram horizonSource) {
+        this.horizonSource = horizonSource;
+    }
+
+    public long getHorizonNanos() {
+
+        if (horizonNanos != AUTOMATIC_HORIZON)
+            return horizonNanos;
+
+        return automaticHorizonNanos;
+    }
+
+    public void reset() {
+
+        lastTimestamp = 0;
+        pendingHead = 0;
+        pendingTail = 0;
+
+        for (int i = 0; i < 3; i++) {
+            lastAngles[i] = 0;
+            angleRates[i] = 0;
+            angleAccelerations[i] = 0;
+            lastAngularSpeeds[i] = 0;
+            angularAccelerations[i] = 0;
+        }
+    }
+
+    /**
+     *  Takes one fused update and works out the predicted angles and speeds for it.
+     */
+    public void update(long timestamp, float[] fusedAngles, float[] angularSpeeds) {
+
+        scoreDuePredictions(timestamp, fusedAngles, angularSpeeds);
+        refreshAutomaticHorizon();
+
+        float dT = (lastTimestamp == 0) ? 0 : (float) ((timestamp - lastTimestamp) * NS2S);
+        float horizon = (float) (getHorizonNanos() * NS2S);
+
+        for (int axis = 0; axis < 3; axis++) {
+            predictAngle(axis, fusedAngles[axis], dT, horizon);
+            predictAngularSpeed(axis, angularSpeeds[axis], dT, horizon);
+        }
+
+        lastTimestamp = timestamp;
+        rememberPrediction(timestamp + getHorizonNanos(), fusedAngles, angularSpeeds);
+    }
+
+    private void predictAngle(int axis, float angle, float dT, float horizon) {
+
+        float previousRate = angleRates[axis];
+        float previousAngle = lastAngles[axis];
+        lastAngles[axis] = angle;
+
+        if (dT <= 0) {
+            predictedAngles[axis] = angle;
+            return;
+        }
+
+        float rate = smooth(previousRate, wrapAngle(angle - previousAngle) / dT);
+        angleRates[axis] = rate;
+        angleAccelerations[axis] = smooth(angleAccelerations[axis], (rate - previousRate) / dT);
+
+        if (rate * previousRate < 0) {
+
+            // reversing, hold still until the new direction is established
+            predictedAngles[axis] = angle;
+            return;
+        }
+
+        float acceleration = (model == PredictionModel.SECOND_ORDER) ? angleAccelerations[axis] : 0;
+
+        if ((rate + acceleration * horizon) * rate < 0) {
+
+            // decelerating to a stop within the horizon, predict the stopping point and no further
+            float timeToStop = -rate / acceleration;
+            predictedAngles[axis] = wrapAngle(angle + 0.5f * rate * timeToStop);
+            return;
+        }
+
+        predictedAngles[axis] = wrapAngle(angle + rate * horizon + 0.5f * acceleration * horizon * horizon);
+    }
+
+    private void predictAngularSpeed(int axis, float speed, float dT, float horizon) {
+
+        float previousSpeed = lastAngularSpeeds[axis];
+        lastAngularSpeeds[axis] = speed;
+
+        if (dT > 0) {
+            angularAccelerations[axis] = smooth(angularAccelerations[axis], (speed - previousSpeed) / dT);
+        }
+
+        if (speed * previousSpeed < 0) {
+            predictedAngularSpeeds[axis] = 0;
+            return;
+        }
+
+        if (model == PredictionModel.CONSTANT_VELOCITY) {
+            predictedAngularSpeeds[axis] = speed;
+            return;
+        }
+
+        float predictedSpeed = speed + angularAccelerations[axis] * horizon;
+        predictedAngularSpeeds[axis] = (predictedSpeed * speed < 0) ? 0 : predictedSpeed;
+    }
+
+    private static float smooth(float previous, float current) {
+        return previous + DERIVATIVE_SMOOTHING * (current - previous);
+    }
+
+    private void refreshAutomaticHorizon() {
+
+        if (horizonNanos != AUTOMATIC_HORIZON || horizonSource == null)
+            return;
+
+        if (++updatesSinceHorizonRefresh < HORIZON_REFRESH_INTERVAL)
+            return;
+
+        updatesSinceHorizonRefresh = 0;
+
+        long measured = horizonSource.getPercentile(50);
+        if (measured > 0)
+            automaticHorizonNanos = measured;
+    }
+
+    public void getPredictedAngles(float[] angles) {
+        System.arraycopy(predictedAngles, 0, angles, 0, 3);
+    }
+
+    public void getPredictedAngularSpeeds(float[] speeds) {
+        System.arraycopy(predictedAngularSpeeds, 0, speeds, 0, 3);
+    }
+
+
+    private void rememberPrediction(long targetTime, float[] fusedAngles, float[] angularSpeeds) {
+
+        if (pendingHead - pendingTail == PENDING_PREDICTIONS)
+            pendingTail++;
+
+        int slot = pendingHead % PENDING_PREDICTIONS;
+        pendingTargetTimes[slot] = targetTime;
+        System.arraycopy(predictedAngles, 0, pendingPredictedAngles, slot * 3, 3);
+        System.arraycopy(fusedAngles, 0, pendingBaselineAngles, slot * 3, 3);
+        System.arraycopy(predictedAngularSpeeds, 0, pendingPredictedSpeeds, slot * 3, 3);
+        System.arraycopy(angularSpeeds, 0, pendingBaselineSpeeds, slot * 3, 3);
+        pendingHead++;
+    }
+
+    /**
+     *  Predictions whose target time has been reached are compared with the orientation and angular speeds now.
+     *  The baseline is what the prediction started from, which is what would have been used without one.
+     */
+    private void scoreDuePredictions(long timestamp, float[] fusedAngles, float[] angularSpeeds) {
+
+        while (pendingTail != pendingHead) {
+
+            int slot = pendingTail % PENDING_PREDICTIONS;
+            if (pendingTargetTimes[slot] > timestamp)
+                return;
+
+            predictionErrors.record(pendingPredictedAngles, slot * 3, fusedAngles);
+            baselineErrors.record(pendingBaselineAngles, slot * 3, fusedAngles);
+            speedPredictionErrors.record(pendingPredictedSpeeds, slot * 3, angularSpeeds);
+            speedBaselineErrors.record(pendingBaselineSpeeds, slot * 3, angularSpeeds);
+            pendingTail++;
+        }
+    }
+
+    public PredictionErrorStats getPredictionErrors() {
+        return predictionErrors;
+    }
+
+    /**
+     *  The errors the same updates would have had without prediction.
+     */
+    public PredictionErrorStats getBaselineErrors() {
+        return baselineErrors;
+    }
+
+    /**
+     *  The errors of the predicted angular speeds, in radians per second.
+     */
+    public PredictionErrorStats getSpeedPredictionErrors() {
+        return speedPredictionErrors;
+    }
+
+    public PredictionErrorStats getSpeedBaselineErrors() {
+        return speedBaselineErrors;
+    }
+
+    /**
+     *  Appends the horizon and the mean, RMS and max errors with and without prediction,
+     *  in milliradians for the angles and milliradians per second for the angular speeds.
+     */
+    public void format(StringBuilder builder) {
+
+        builder.append("predict ").append(getHorizonNanos() / 1000000).append("ms err ");
+        appendErrors(builder, predictionErrors);
+        builder.append(" none ");
+        appendErrors(builder, baselineErrors);
+        builder.append(" mrad\n");
+
+        builder.append("predict speed err ");
+        appendErrors(builder, speedPredictionErrors);
+        builder.append(" none ");
+        appendErrors(builder, speedBaselineErrors);
+        builder.append(" mrad/s\n");
+    }
+
+    private static void appendErrors(StringBuilder builder, PredictionErrorStats stats) {
+
+        builder.append(Math.round(stats.getMeanAbsoluteError() * 1000)).append('/');
+        builder.append(Math.round(stats.getRmsError() * 1000)).append('/');
+        builder.append(Math.round(stats.getMaxError() * 1000));
+    }
+
+    static float wrapAngle(float angle) {
+
+        if (angle > Math.PI)
+            return (float) (angle - 2.0 * Math.PI);
+
+        if (angle < -Math.PI)
+            return (float) (angle + 2.0 * Math.PI);
+
+        return angle;
+    }
+
+
+    /**
+     *  Mean absolute, root mean square and maximum error over all three axes,
+     *  in radians for angles or radians per second for angular speeds.
+     */
+    public static class PredictionErrorStats {
+
+        /** Angles wrap around at pi, angular speeds do not. */
+        private final boolean angles;
+
+        private long count;
+        private double sumAbsolute;
+        private double sumSquares;
+        private float max;
+
+        PredictionErrorStats(boolean angles) {
+            this.angles = angles;
+        }
+
+        synchronized void record(float[] predicted, int offset, float[] actual) {
+
+            for (int axis = 0; axis < 3; axis++) {
+
+                float difference = predicted[offset + axis] - actual[axis];
+                float error = Math.abs(angles ? wrapAngle(difference) : difference);
+
+                sumAbsolute += error;
+                sumSquares += error * error;
+                max = Math.max(max, error);
+            }
+            count += 3;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized float getMeanAbsoluteError() {
+            return (count == 0) ? 0 : (float) (sumAbsolute / count);
+        }
+
+        public synchronized float getRmsError() {
+            return (count == 0) ? 0 : (float) Math.sqrt(sumSquares / count);
+        }
+
+        public synchronized float getMaxError() {
+            return max;
+        }
+
+        public synchronized void reset() {
+
+            count = 0;
+            sumAbsolute = 0;
+            sumSquares = 0;
+            max = 0;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  One fused orientation update as delivered by the OrientationBus.
+ *
+ *  Snapshots are pooled and reference counted. A subscriber can read one freely during its callback,
+ *  and must retain() it to keep it afterwards and release() it when done,
+ *  as a released snapshot is refilled with a later update.
+ */
+public class OrientationSnapshot {
+
+    private final OrientationBus bus;
+    private final AtomicInteger references = new AtomicInteger();
+
+    long timestamp;
+    final float[] fusedOrientationAngles = new float[3];
+    final float[] angularSpeeds = new float[3];
+    final float[] gyroSum = new float[3];
+
+    OrientationSnapshot(OrientationBus bus) {
+        this.bus = bus;
+    }
+
+    /**
+     *  The sensor timestamp, in nanoseconds, of the newest gyro sample included.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Azimuth, pitch and roll in radians. */
+    public void getFusedOrientationAngles(float[] angles) {
+        System.arraycopy(fusedOrientationAngles, 0, angles, 0, 3);
+    }
+
+    /** The latest gyro reading in radians per second. */
+    public void getAngularSpeeds(float[] speeds) {
+        System.arraycopy(angularSpeeds, 0, speeds, 0, 3);
+    }
+
+    public void getGyroSum(float[] sum) {
+        System.arraycopy(gyroSum, 0, sum, 0, 3);
+    }
+
+    public float getFusedOrientationAngle(int axis) {
+        return fusedOrientationAngles[axis];
+    }
+
+    public float getAngularSpeed(int axis) {
+        return angularSpeeds[axis];
+    }
+
+    public OrientationSnapshot retain() {
+
+        references.incrementAndGet();
+        return this;
+    }
+
+    public void release() {
+
+        if (references.decrementAndGet() == 0) {
+            bus.recycle(this);
+        }
+    }
+
+    void acquire() {
+        references.set(1);
+    }
+}
@@ -0,0 +1,99 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ *  What the OrientationEngine needs to start fusing straight away instead of from scratch:
+ *  the last fused orientation and the estimated gyro bias. The magnetometer's calibration is the platform's,
+ *  which keeps it itself.
+ *
+ *  Small enough to keep in memory between activations and to write to a file between runs.
+ */
+public class OrientationState {
+
+    private static final int MAGIC = 0x47474f53;
+    private static final int VERSION = 2;
+
+    long savedAtMillis;
+
+    boolean hasOrientation;
+    final float[] fusedOrientationAngles = new float[3];
+
+    final float[] gyroBias = new float[3];
+
+    public long getSavedAtMillis() {
+        return savedAtMillis;
+    }
+
+    public boolean hasOrientation() {
+        return hasOrientation;
+    }
+
+    /**
+     *  The orientation is only worth starting from if the head cannot have moved far since it was saved,
+     *  the bias stays valid much longer.
+     */
+    public boolean isOrientationFresh(long nowMillis, long maxAgeMillis) {
+        return hasOrientation && nowMillis - savedAtMillis <= maxAgeMillis;
+    }
+
+    public void writeTo(File file) throws IOException {
+
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary));
+
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(savedAtMillis);
+
+            output.writeBoolean(hasOrientation);
+            writeFloats(output, fusedOrientationAngles);
+            writeFloats(output, gyroBias);
+        } finally {
+            output.close();
+        }
+
+        if (!temporary.renameTo(file))
+            throw new IOException("Could not replace " + file);
+    }
+
+    public static OrientationState readFrom(File file) throws IOException {
+
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                throw new IOException("Not an orientation state file: " + file);
+
+            OrientationState state = new OrientationState();
+            state.savedAtMillis = input.readLong();
+
+            state.hasOrientation = input.readBoolean();
+            readFloats(input, state.fusedOrientationAngles);
+            readFloats(input, state.gyroBias);
+            return state;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void writeFloats(DataOutputStream output, float[] values) throws IOException {
+
+        for (float value : values) {
+            output.writeFloat(value);
+        }
+    }
+
+    private static void readFloats(DataInputStream input, float[] values) throws IOException {
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = input.readFloat();
+        }
+    }
+}
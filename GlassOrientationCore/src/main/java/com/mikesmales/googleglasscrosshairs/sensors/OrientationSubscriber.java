@@ -0,0 +1,9 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+public interface OrientationSubscriber {
+
+    /**
+     *  The snapshot is only valid until this returns, unless it is retained.
+     */
+    void onOrientation(OrientationSnapshot snapshot);
+}
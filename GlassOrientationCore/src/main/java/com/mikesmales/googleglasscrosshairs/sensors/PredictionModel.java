@@ -0,0 +1,10 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+public enum PredictionModel {
+
+    /** Extrapolates along the current angular velocity. */
+    CONSTANT_VELOCITY,
+
+    /** Also applies the current angular acceleration, which follows the start and end of a movement more closely. */
+    SECOND_ORDER
+}
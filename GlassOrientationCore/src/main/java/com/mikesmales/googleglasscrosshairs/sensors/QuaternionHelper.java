@@ -0,0 +1,156 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  Quaternions are stored as float[4] in the same order as a rotation vector: x, y, z, w.
+ *  That way the output of MatrixHelper.getRotationVectorFromGyro is directly a delta quaternion,
+ *  and getRotationMatrixFromVector gives the matching rotation matrix.
+ *
+ *  Every routine writes into a caller supplied array, and the output may alias an input.
+ */
+public class QuaternionHelper {
+
+    private static final float SLERP_THRESHOLD = 0.9995f;
+
+    public static void setIdentity(float[] q) {
+
+        q[0] = 0.0f;
+        q[1] = 0.0f;
+        q[2] = 0.0f;
+        q[3] = 1.0f;
+    }
+
+    /**
+     *  Writes a * b into result, which as a rotation matrix is R(a) * R(b).
+     */
+    public static void multiply(float[] a, float[] b, float[] result) {
+
+        float x = a[3] * b[0] + a[0] * b[3] + a[1] * b[2] - a[2] * b[1];
+        float y = a[3] * b[1] - a[0] * b[2] + a[1] * b[3] + a[2] * b[0];
+        float z = a[3] * b[2] + a[0] * b[1] - a[1] * b[0] + a[2] * b[3];
+        float w = a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2];
+
+        result[0] = x;
+        result[1] = y;
+        result[2] = z;
+        result[3] = w;
+    }
+
+    public static void normalize(float[] q) {
+
+        float invNorm = 1.0f / (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+
+        q[0] *= invNorm;
+        q[1] *= invNorm;
+        q[2] *= invNorm;
+        q[3] *= invNorm;
+    }
+
+    /**
+     *  Converts a 3x3 rotation matrix, as produced by getRotationMatrix, into a unit quaternion.
+     *  The branch picks the largest diagonal term to keep the square root well conditioned.
+     */
+    public static void fromRotationMatrix(float[] R, float[] q) {
+
+        float trace = R[0] + R[4] + R[8];
+
+        if (trace > 0.0f) {
+            float s = 0.5f / (float) Math.sqrt(trace + 1.0f);
+            q[3] = 0.25f / s;
+            q[0] = (R[7] - R[5]) * s;
+            q[1] = (R[2] - R[6]) * s;
+            q[2] = (R[3] - R[1]) * s;
+
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = 2.0f * (float) Math.sqrt(1.0f + R[0] - R[4] - R[8]);
+            q[3] = (R[7] - R[5]) / s;
+            q[0] = 0.25f * s;
+            q[1] = (R[1] + R[3]) / s;
+            q[2] = (R[2] + R[6]) / s;
+
+        } else if (R[4] > R[8]) {
+            float s = 2.0f * (float) Math.sqrt(1.0f + R[4] - R[0] - R[8]);
+            q[3] = (R[2] - R[6]) / s;
+            q[0] = (R[1] + R[3]) / s;
+            q[1] = 0.25f * s;
+            q[2] = (R[5] + R[7]) / s;
+
+        } else {
+            float s = 2.0f * (float) Math.sqrt(1.0f + R[8] - R[0] - R[4]);
+            q[3] = (R[3] - R[1]) / s;
+            q[0] = (R[2] + R[6]) / s;
+            q[1] = (R[5] + R[7]) / s;
+            q[2] = 0.25f * s;
+        }
+    }
+
+    /**
+     *  Normalised linear interpolation from one orientation towards another, along the shorter arc.
+     */
+    public static void nlerp(float[] from, float[] to, float t, float[] result) {
+
+        float sign = (dot(from, to) < 0.0f) ? -1.0f : 1.0f;
+        float oneMinusT = 1.0f - t;
+
+        result[0] = oneMinusT * from[0] + t * sign * to[0];
+        result[1] = oneMinusT * from[1] + t * sign * to[1];
+        result[2] = oneMinusT * from[2] + t * sign * to[2];
+        result[3] = oneMinusT * from[3] + t * sign * to[3];
+
+        normalize(result);
+    }
+
+    /**
+     *  Spherical linear interpolation along the shorter arc.
+     *  When the orientations are almost the same this falls back to nlerp, which is cheaper and just as accurate.
+     */
+    public static void slerp(float[] from, float[] to, float t, float[] result) {
+
+        float cosTheta = dot(from, to);
+        float sign = 1.0f;
+
+        if (cosTheta < 0.0f) {
+            cosTheta = -cosTheta;
+            sign = -1.0f;
+        }
+
+        if (cosTheta > SLERP_THRESHOLD) {
+            nlerp(from, to, t, result);
+            return;
+        }
+
+        float theta = (float) Math.acos(cosTheta);
+        float invSinTheta = 1.0f / (float) Math.sin(theta);
+        float fromWeight = (float) Math.sin((1.0f - t) * theta) * invSinTheta;
+        float toWeight = sign * (float) Math.sin(t * theta) * invSinTheta;
+
+        result[0] = fromWeight * from[0] + toWeight * to[0];
+        result[1] = fromWeight * from[1] + toWeight * to[1];
+        result[2] = fromWeight * from[2] + toWeight * to[2];
+        result[3] = fromWeight * from[3] + toWeight * to[3];
+    }
+
+    /**
+     *  Equivalent to getOrientation(getRotationMatrixFromVector(q)), computing only the matrix terms it needs.
+     */
+    public static void getOrientation(float[] q, float[] values) {
+
+        float x = q[0];
+        float y = q[1];
+        float z = q[2];
+        float w = q[3];
+
+        float r1 = 2 * (x * y - z * w);
+        float r4 = 1 - 2 * (x * x + z * z);
+        float r6 = 2 * (x * z - y * w);
+        float r7 = 2 * (y * z + x * w);
+        float r8 = 1 - 2 * (x * x + y * y);
+
+        values[0] = (float) Math.atan2(r1, r4);
+        values[1] = (float) Math.asin(Math.max(-1.0f, Math.min(1.0f, -r7)));
+        values[2] = (float) Math.atan2(-r6, r8);
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    }
+}
@@ -0,0 +1,66 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  Complementary filter that keeps the orientation as a quaternion.
+ *
+ *  Each gyro sample is a single quaternion product and renormalisation, and each fusion step
+ *  slerps a fraction of the way towards the accelerometer/magnetometer orientation.
+ *  There is no per-axis blending, so no angle wrap-around to handle and no gimbal lock.
+ *  Euler angles are only produced when they are asked for.
+ */
+public class QuaternionOrientationFusion implements OrientationFusion {
+
+    public static final float FILTER_COEFFICIENT = EulerOrientationFusion.FILTER_COEFFICIENT;
+
+    final float ONE_MINUS_FILTER_COEFFICIENT = 1.0f - FILTER_COEFFICIENT;
+
+    private float[] gyroOrientation = new float[4];
+    private float[] accMagOrientation = new float[4];
+    private float[] deltaRotation = new float[4];
+
+    public QuaternionOrientationFusion() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        QuaternionHelper.setIdentity(gyroOrientation);
+    }
+
+    @Override
+    public void initialise(float[] accMagRotationMatrix, float[] accMagOrientationAngles) {
+        QuaternionHelper.fromRotationMatrix(accMagRotationMatrix, gyroOrientation);
+    }
+
+    @Override
+    public void integrateGyro(float[] gyroAngularSpeeds, float dT) {
+
+        MatrixHelper.getRotationVectorFromGyro(gyroAngularSpeeds, deltaRotation, dT / 2.0f);
+
+        QuaternionHelper.multiply(gyroOrientation, deltaRotation, gyroOrientation);
+        QuaternionHelper.normalize(gyroOrientation);
+    }
+
+    @Override
+    public void fuse(float[] accMagRotationMatrix, float[] accMagOrientationAngles) {
+
+        QuaternionHelper.fromRotationMatrix(accMagRotationMatrix, accMagOrientation);
+        QuaternionHelper.slerp(gyroOrientation, accMagOrientation, ONE_MINUS_FILTER_COEFFICIENT, gyroOrientation);
+    }
+
+    /**
+     *  The gyro quaternion is the fused orientation already.
+     */
+    @Override
+    public void fuseGyroOnly() {
+    }
+
+    @Override
+    public void getFusedOrientationAngles(float[] angles) {
+        QuaternionHelper.getOrientation(gyroOrientation, angles);
+    }
+
+    public float[] getOrientation() {
+        return gyroOrientation;
+    }
+}
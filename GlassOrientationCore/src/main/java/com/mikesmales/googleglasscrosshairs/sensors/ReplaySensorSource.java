@@ -0,0 +1,106 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *  Plays a recorded sensor trace back into the tracker, on its own thread.
+ *
+ *  At ORIGINAL speed samples are spaced out as they were recorded, so field reports can be reproduced
+ *  with the real timing. At MAXIMUM speed they are delivered as fast as the sink accepts them,
+ *  for tests and benchmarks. Sample timestamps are passed on unchanged either way.
+ */
+public class ReplaySensorSource implements SensorSource {
+
+    public enum Speed {
+        ORIGINAL,
+        MAXIMUM
+    }
+
+    private File traceFile;
+    private Speed speed;
+
+    private volatile boolean running;
+    private volatile boolean finished;
+    private volatile IOException error;
+    private Thread replayThread;
+
+    public ReplaySensorSource(File traceFile, Speed speed) {
+
+        this.traceFile = traceFile;
+        this.speed = speed;
+    }
+
+    @Override
+    public void start(final SensorSampleRing.SampleHandler sink) {
+
+        running = true;
+        finished = false;
+        error = null;
+
+        replayThread = new Thread(new Runnable() {
+            public void run() {
+                replay(sink);
+            }
+        }, "SensorReplay");
+        replayThread.start();
+    }
+
+    @Override
+    public void setMotionState(MotionState state) {
+        // a recording has fixed sampling rates
+    }
+
+    @Override
+    public void stop() {
+
+        running = false;
+
+        if (replayThread != null) {
+            replayThread.interrupt();
+            replayThread = null;
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    private void replay(SensorSampleRing.SampleHandler sink) {
+
+        try {
+            SensorTraceReader reader = new SensorTraceReader(traceFile);
+
+            if (!reader.hasNext())
+                return;
+
+            long firstTimestamp = reader.peekTimestamp();
+            long startTime = System.nanoTime();
+
+            while (running && reader.hasNext()) {
+
+                if (speed == Speed.ORIGINAL) {
+                    waitUntil(startTime + reader.peekTimestamp() - firstTimestamp);
+                }
+                reader.next(sink);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            finished = true;
+        }
+    }
+
+    private void waitUntil(long time) {
+
+        long remaining;
+        while (running && (remaining = time - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
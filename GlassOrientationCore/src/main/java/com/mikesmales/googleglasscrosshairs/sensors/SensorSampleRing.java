@@ -0,0 +1,133 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Single producer, single consumer queue of timestamped sensor samples.
+ *
+ *  Samples are stored in preallocated primitive arrays, so offering and draining never allocate or lock.
+ *  The producer publishes a slot by advancing head after writing it, and the consumer releases
+ *  slots by advancing tail after reading them, so a sample is never read while it is being written.
+ *
+ *  When the ring is full the new sample is dropped and counted as an overrun,
+ *  the producer never touches slots the consumer has not released.
+ */
+public class SensorSampleRing {
+
+    /** Sensor types share their values with android.hardware.Sensor. */
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+
+    public interface SampleHandler {
+        void onSample(int type, long timestamp, float x, float y, float z);
+    }
+
+    private final int mask;
+    private final int[] types;
+    private final long[] timestamps;
+    private final float[] xValues;
+    private final float[] yValues;
+    private final float[] zValues;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong overruns = new AtomicLong();
+    private volatile int highWaterMark;
+
+    /**
+     *  capacity is rounded up to a power of two.
+     */
+    public SensorSampleRing(int capacity) {
+
+        int size = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+
+        types = new int[size];
+        timestamps = new long[size];
+        xValues = new float[size];
+        yValues = new float[size];
+        zValues = new float[size];
+    }
+
+    /**
+     *  Producer side. Returns false if the ring was full and the sample was dropped.
+     */
+    public boolean offer(int type, long timestamp, float x, float y, float z) {
+
+        long currentHead = head.get();
+        int depth = (int) (currentHead - tail.get());
+
+        if (depth > mask) {
+            overruns.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) currentHead & mask;
+        types[slot] = type;
+        timestamps[slot] = timestamp;
+        xValues[slot] = x;
+        yValues[slot] = y;
+        zValues[slot] = z;
+
+        head.lazySet(currentHead + 1);
+
+        if (depth + 1 > highWaterMark) {
+            highWaterMark = depth + 1;
+        }
+        return true;
+    }
+
+    /**
+     *  Consumer side. Hands up to maxSamples samples to the handler in the order they were offered,
+     *  and returns how many were drained.
+     */
+    public int drain(SampleHandler handler, int maxSamples) {
+
+        long currentTail = tail.get();
+        long available = head.get() - currentTail;
+        int count = (int) Math.min(available, maxSamples);
+
+        for (int i = 0; i < count; i++) {
+
+            int slot = (int) (currentTail + i) & mask;
+            handler.onSample(types[slot], timestamps[slot], xValues[slot], yValues[slot], zValues[slot]);
+        }
+
+        tail.lazySet(currentTail + count);
+        return count;
+    }
+
+    public int drain(SampleHandler handler) {
+        return drain(handler, Integer.MAX_VALUE);
+    }
+
+    /**
+     *  Consumer side. Discards every queued sample, and returns how many there were.
+     */
+    public int clear() {
+
+        long currentTail = tail.get();
+        int count = (int) (head.get() - currentTail);
+
+        tail.lazySet(currentTail + count);
+        return count;
+    }
+
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+}
@@ -0,0 +1,21 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+/**
+ *  Where GlassOrientationTracker gets its raw accelerometer, gyroscope and magnetometer samples from.
+ *
+ *  AndroidSensorSource reads the device sensors, ReplaySensorSource plays back a recorded trace.
+ */
+public interface SensorSource {
+
+    /**
+     *  Starts delivering samples to the sink. Samples always arrive on the same thread until stop is called.
+     */
+    void start(SensorSampleRing.SampleHandler sink);
+
+    /**
+     *  Lets the source adapt its sampling rates to how the head is moving. Sources may ignore it.
+     */
+    void setMotionState(MotionState state);
+
+    void stop();
+}
@@ -0,0 +1,77 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  Reads a trace written by SensorTraceWriter, one sample at a time, without allocating per sample.
+ */
+public class SensorTraceReader {
+
+    private MappedByteBuffer buffer;
+    private int sampleCount;
+
+    public SensorTraceReader(File traceFile) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(traceFile, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+
+        if (buffer.remaining() < SensorTraceWriter.HEADER_SIZE
+                || buffer.getInt() != SensorTraceWriter.MAGIC
+                || buffer.getInt() != SensorTraceWriter.VERSION) {
+            throw new IOException("Not a sensor trace: " + traceFile);
+        }
+
+        sampleCount = buffer.remaining() / SensorTraceWriter.RECORD_SIZE;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public boolean hasNext() {
+        return buffer.remaining() >= SensorTraceWriter.RECORD_SIZE;
+    }
+
+    /**
+     *  Timestamp of the sample next would deliver. Only valid when hasNext is true.
+     */
+    public long peekTimestamp() {
+        return buffer.getLong(buffer.position() + 1);
+    }
+
+    public void next(SensorSampleRing.SampleHandler handler) {
+
+        int type = buffer.get();
+        long timestamp = buffer.getLong();
+        float x = buffer.getFloat();
+        float y = buffer.getFloat();
+        float z = buffer.getFloat();
+
+        handler.onSample(type, timestamp, x, y, z);
+    }
+
+    /**
+     *  Delivers every remaining sample and returns how many there were.
+     */
+    public int readAll(SensorSampleRing.SampleHandler handler) {
+
+        int count = 0;
+        while (hasNext()) {
+            next(handler);
+            count++;
+        }
+        return count;
+    }
+
+    public void rewind() {
+        buffer.position(SensorTraceWriter.HEADER_SIZE);
+    }
+}
@@ -0,0 +1,98 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  Appends raw sensor samples to a compact binary trace file.
+ *
+ *  The file is written through a memory mapped window that is moved along one chunk at a time,
+ *  so recording a sample is a handful of buffer puts with no system call or allocation.
+ *
+ *  Format, big endian:
+ *  header: int MAGIC, int VERSION
+ *  record: byte sensor type, long timestamp in ns, float x, float y, float z
+ */
+public class SensorTraceWriter {
+
+    public static final int MAGIC = 0x47475354;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 1 + 8 + 4 * 3;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long chunkStart;
+    private int sampleCount;
+
+    public SensorTraceWriter(File traceFile) throws IOException {
+
+        file = new RandomAccessFile(traceFile, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        mapChunk(0);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     *  Synchronized so that close can be called from another thread while samples are being written,
+     *  the lock is uncontended in normal use.
+     */
+    public synchronized void write(int type, long timestamp, float x, float y, float z) throws IOException {
+
+        if (buffer == null)
+            return;
+
+        if (buffer.remaining() < RECORD_SIZE) {
+            mapChunk(chunkStart + buffer.position());
+        }
+
+        buffer.put((byte) type);
+        buffer.putLong(timestamp);
+        buffer.putFloat(x);
+        buffer.putFloat(y);
+        buffer.putFloat(z);
+        sampleCount++;
+    }
+
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     *  Trims the unused part of the last chunk and closes the file.
+     */
+    public synchronized void close() throws IOException {
+
+        if (buffer == null)
+            return;
+
+        long length = chunkStart + buffer.position();
+        buffer.force();
+        buffer = null;
+
+        try {
+            channel.truncate(length);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void mapChunk(long position) throws IOException {
+
+        if (buffer != null) {
+            buffer.force();
+        }
+
+        chunkStart = position;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,587 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Serves web view requests from a ResponseCache, going to the network only on a miss.
+ *
+ *  A fresh cached response is served straight from disk. An expired one is usually served too and
+ *  revalidated in the background with its ETag or Last-Modified, so the next load gets the new version.
+ *  If the response said no-cache or must-revalidate though, an expired copy is revalidated first
+ *  and only served once the server has confirmed it.
+ *  A miss is fetched here and written to the cache as the web view reads it.
+ *
+ *  In offline mode nothing touches the network, misses get a short placeholder page.
+ *
+ *  Requests are made as the web view would make them, with its User-Agent and its cookies,
+ *  and any cookies a response sets are handed back to it.
+ *
+ *  Only plain GET requests are visible through this API, and since WebResourceResponse cannot carry a status,
+ *  anything other than a 200 is left to the web view to load itself. That includes redirects, which are
+ *  not followed here: served under the original url, the page's relative links and cookies would break.
+ */
+public class CachingInterceptor implements ResourceInterceptor {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    private static final byte[] OFFLINE_PAGE = "<html><body><p>Not available offline</p></body></html>".getBytes();
+
+    private final ResponseCache cache;
+    private final ExecutorService revalidationExecutor = Executors.newSingleThreadExecutor();
+    private final Set<String> revalidating = new HashSet<String>();
+
+    private volatile boolean offline;
+    private volatile String userAgent;
+    private volatile CookieJar cookieJar;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong offlineMisses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong bytesFromCache = new AtomicLong();
+    private final AtomicLong bytesFromNetwork = new AtomicLong();
+
+    public CachingInterceptor(ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    public void setOfflineMode(boolean offline) {
+        this.offline = offline;
+    }
+
+    public boolean isOfflineMode() {
+        return offline;
+    }
+
+    /**
+     *  The web view's User-Agent, or null for the platform's default.
+     */
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    /**
+     *  The web view's cookies, or null to send none.
+     */
+    public void setCookieJar(CookieJar cookieJar) {
+        this.cookieJar = cookieJar;
+    }
+
+    @Override
+    public WebResource intercept(String url) {
+
+        if (!url.startsWith("http:") && !url.startsWith("https:"))
+            return null;
+
+        requests.incrementAndGet();
+        ResponseCache.Entry entry = cache.get(url);
+
+        if (entry != null) {
+
+            if (!offline && entry.isRevalidationRequired() && !entry.isFresh(System.currentTimeMillis()))
+                return revalidateBeforeServing(entry);
+
+            WebResource cached = serveFromCache(entry);
+
+            if (cached != null) {
+
+                if (!offline && !entry.isFresh(System.currentTimeMillis()))
+                    revalidateInBackground(entry);
+
+                return cached;
+            }
+        }
+
+        if (offline) {
+            offlineMisses.incrementAndGet();
+            return new WebResource(url, "text/html", "UTF-8", new ByteArrayInputStream(OFFLINE_PAGE));
+        }
+
+        return fetch(url);
+    }
+
+    private WebResource serveFromCache(ResponseCache.Entry entry) {
+
+        try {
+            InputStream body = new CountingInputStream(cache.openBody(entry), bytesFromCache);
+            hits.incrementAndGet();
+            return new WebResource(entry.getUrl(), entry.getMimeType(), entry.getEncoding(), body);
+        } catch (IOException e) {
+            cache.remove(entry.getUrl());
+            return null;
+        }
+    }
+
+    private WebResource fetch(String url) {
+
+        misses.incrementAndGet();
+
+        try {
+            HttpURLConnection connection = openConnection(url);
+            storeCookies(connection);
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                return null;
+            }
+
+            return respond(url, connection);
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     *  Hands a 200 response to the web view, writing it to the cache as it is read if it may be kept.
+     */
+    private WebResource respond(String url, HttpURLConnection connection) throws IOException {
+
+        String mimeType = getMimeType(connection.getContentType());
+        String encoding = getCharset(connection.getContentType());
+        InputStream body = new CountingInputStream(connection.getInputStream(), bytesFromNetwork);
+
+        if (isCacheable(connection)) {
+
+            ResponseCache.Editor editor = cache.edit(url, mimeType, encoding);
+            editor.setValidators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), getExpiresAt(connection));
+            editor.setRevalidationRequired(isRevalidationRequired(connection));
+            body = new CacheWritingInputStream(body, editor);
+        }
+        else {
+            cache.remove(url);
+        }
+
+        return new WebResource(url, mimeType, encoding, body);
+    }
+
+    /**
+     *  Blocks the web view's request on a conditional request, and serves the cached copy if it is
+     *  still valid, the new body if there is one, or nothing, so the web view goes to the network itself.
+     */
+    private WebResource revalidateBeforeServing(ResponseCache.Entry entry) {
+
+        revalidations.incrementAndGet();
+
+        try {
+            HttpURLConnection connection = openConditionalConnection(entry);
+            int responseCode = connection.getResponseCode();
+            storeCookies(connection);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+
+                notModified.incrementAndGet();
+                cache.updateExpiry(entry, getExpiresAt(connection));
+                connection.disconnect();
+                return serveFromCache(entry);
+            }
+
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+
+                misses.incrementAndGet();
+                return respond(entry.getUrl(), connection);
+            }
+
+            cache.remove(entry.getUrl());
+            connection.disconnect();
+            return null;
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void revalidateInBackground(final ResponseCache.Entry entry) {
+
+        synchronized (revalidating) {
+            if (!revalidating.add(entry.getUrl()))
+                return;
+        }
+
+        revalidationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    revalidate(entry);
+                } finally {
+                    synchronized (revalidating) {
+                        revalidating.remove(entry.getUrl());
+                    }
+                }
+            }
+        });
+    }
+
+    private void revalidate(ResponseCache.Entry entry) {
+
+        revalidations.incrementAndGet();
+
+        try {
+            HttpURLConnection connection = openConditionalConnection(entry);
+            int responseCode = connection.getResponseCode();
+            storeCookies(connection);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+
+                notModified.incrementAndGet();
+                cache.updateExpiry(entry, getExpiresAt(connection));
+                connection.disconnect();
+            }
+            else if (responseCode == HttpURLConnection.HTTP_OK && isCacheable(connection)) {
+
+                ResponseCache.Editor editor = cache.edit(entry.getUrl(), getMimeType(connection.getContentType()), getCharset(connection.getContentType()));
+                editor.setValidators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"), getExpiresAt(connection));
+                editor.setRevalidationRequired(isRevalidationRequired(connection));
+
+                InputStream body = new CacheWritingInputStream(new CountingInputStream(connection.getInputStream(), bytesFromNetwork), editor);
+                drain(body);
+            }
+            else {
+                cache.remove(entry.getUrl());
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            // keep serving the cached copy, it is revalidated again on the next request
+        }
+    }
+
+    private HttpURLConnection openConditionalConnection(ResponseCache.Entry entry) throws IOException {
+
+        HttpURLConnection connection = openConnection(entry.getUrl());
+
+        if (entry.getEtag() != null)
+            connection.setRequestProperty("If-None-Match", entry.getEtag());
+
+        if (entry.getLastModified() != null)
+            connection.setRequestProperty("If-Modified-Since", entry.getLastModified());
+
+        return connection;
+    }
+
+    protected HttpURLConnection openConnection(String url) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(false);
+
+        String currentUserAgent = userAgent;
+        if (currentUserAgent != null)
+            connection.setRequestProperty("User-Agent", currentUserAgent);
+
+        CookieJar currentCookieJar = cookieJar;
+        String cookies = (currentCookieJar == null) ? null : currentCookieJar.getCookie(url);
+        if (cookies != null)
+            connection.setRequestProperty("Cookie", cookies);
+
+        return connection;
+    }
+
+    private void storeCookies(HttpURLConnection connection) throws IOException {
+
+        CookieJar currentCookieJar = cookieJar;
+        if (currentCookieJar == null)
+            return;
+
+        String url = connection.getURL().toString();
+
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+
+            if (header.getKey() == null || !header.getKey().equalsIgnoreCase("Set-Cookie"))
+                continue;
+
+            for (String setCookie : header.getValue()) {
+                currentCookieJar.setCookie(url, setCookie);
+            }
+        }
+    }
+
+    private static boolean isCacheable(HttpURLConnection connection) {
+
+        String cacheControl = connection.getHeaderField("Cache-Control");
+
+        if (cacheControl == null)
+            return true;
+
+        cacheControl = cacheControl.toLowerCase();
+        return !cacheControl.contains("no-store") && !cacheControl.contains("private");
+    }
+
+    /**
+     *  no-cache allows storing a response but not serving it unless revalidated, must-revalidate
+     *  the same once it has expired. With no-cache's expiry set to now the two come to the same thing.
+     */
+    static boolean isRevalidationRequired(HttpURLConnection connection) {
+
+        String cacheControl = connection.getHeaderField("Cache-Control");
+
+        if (cacheControl == null)
+            return false;
+
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+
+            directive = directive.trim();
+            if (directive.equals("no-cache") || directive.equals("must-revalidate"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     *  From max-age, or Expires, or else already expired so the entry is revalidated each time it is served.
+     *  no-cache is treated the same as an expired entry.
+     */
+    static long getExpiresAt(HttpURLConnection connection) {
+
+        long now = System.currentTimeMillis();
+        String cacheControl = connection.getHeaderField("Cache-Control");
+
+        if (cacheControl != null) {
+
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+
+                directive = directive.trim();
+
+                if (directive.equals("no-cache"))
+                    return now;
+
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring(8).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        return now;
+                    }
+                }
+            }
+        }
+
+        long expiration = connection.getExpiration();
+        return (expiration > 0) ? expiration : now;
+    }
+
+    static String getMimeType(String contentType) {
+
+        if (contentType == null)
+            return "application/octet-stream";
+
+        int separator = contentType.indexOf(';');
+        return ((separator < 0) ? contentType : contentType.substring(0, separator)).trim();
+    }
+
+    static String getCharset(String contentType) {
+
+        if (contentType == null)
+            return null;
+
+        for (String parameter : contentType.split(";")) {
+
+            parameter = parameter.trim();
+            if (parameter.toLowerCase().startsWith("charset="))
+                return parameter.substring(8).replace("\"", "").trim();
+        }
+        return null;
+    }
+
+    private static void drain(InputStream input) throws IOException {
+
+        byte[] buffer = new byte[8192];
+
+        try {
+            while (input.read(buffer) != -1) {
+                // the cache writing stream does the work
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    public void shutdown() {
+        revalidationExecutor.shutdownNow();
+    }
+
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public float getHitRate() {
+
+        long total = requests.get();
+        return (total == 0) ? 0 : (float) hits.get() / total;
+    }
+
+    /**
+     *  Bytes served from disk instead of the network.
+     */
+    public long getBytesSaved() {
+        return bytesFromCache.get();
+    }
+
+    public long getBytesFetched() {
+        return bytesFromNetwork.get();
+    }
+
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    public long getOfflineMissCount() {
+        return offlineMisses.get();
+    }
+
+    public void format(StringBuilder builder) {
+
+        builder.append("cache hit ").append(Math.round(getHitRate() * 100)).append("% ");
+        builder.append(hits.get()).append('/').append(requests.get());
+        builder.append(" saved ").append(bytesFromCache.get() / 1024).append("k");
+        builder.append(" fetched ").append(bytesFromNetwork.get() / 1024).append("k");
+        builder.append(" 304 ").append(notModified.get()).append('/').append(revalidations.get());
+
+        if (offline)
+            builder.append(" offline");
+
+        builder.append('\n');
+    }
+
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream input, AtomicLong counter) {
+
+            super(input);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int value = super.read();
+            if (value != -1)
+                counter.incrementAndGet();
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            int count = super.read(buffer, offset, length);
+            if (count > 0)
+                counter.addAndGet(count);
+            return count;
+        }
+    }
+
+    /**
+     *  Copies everything the web view reads into a cache editor, committing it if the body
+     *  was read to the end and discarding it if the stream failed or was closed early.
+     */
+    private static class CacheWritingInputStream extends FilterInputStream {
+
+        private ResponseCache.Editor editor;
+        private OutputStream output;
+
+        CacheWritingInputStream(InputStream input, ResponseCache.Editor editor) throws IOException {
+
+            super(input);
+            this.editor = editor;
+            this.output = editor.getOutputStream();
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            try {
+                int value = super.read();
+
+                if (value == -1)
+                    commit();
+                else if (editor != null)
+                    output.write(value);
+
+                return value;
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+
+            try {
+                int count = super.read(buffer, offset, length);
+
+                if (count == -1)
+                    commit();
+                else if (editor != null)
+                    output.write(buffer, offset, count);
+
+                return count;
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            abort();
+            super.close();
+        }
+
+        private void commit() throws IOException {
+
+            if (editor == null)
+                return;
+
+            ResponseCache.Editor committing = editor;
+            editor = null;
+            committing.commit();
+        }
+
+        private void abort() {
+
+            if (editor == null)
+                return;
+
+            editor.abort();
+            editor = null;
+        }
+    }
+}
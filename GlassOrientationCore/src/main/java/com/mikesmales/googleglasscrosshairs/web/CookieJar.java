@@ -0,0 +1,18 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+/**
+ *  Where requests made on the web view's behalf get their cookies from and store the ones they are sent,
+ *  so they are the web view's own. In the app this is the web view's CookieManager.
+ */
+public interface CookieJar {
+
+    /**
+     *  The Cookie header value for the url, or null if there are no cookies for it.
+     */
+    String getCookie(String url);
+
+    /**
+     *  Stores one Set-Cookie header value received from the url.
+     */
+    void setCookie(String url, String setCookie);
+}
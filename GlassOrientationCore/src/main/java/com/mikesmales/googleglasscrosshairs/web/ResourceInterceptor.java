@@ -0,0 +1,10 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+public interface ResourceInterceptor {
+
+    /**
+     *  Called on a web view loading thread for every resource the page requests.
+     *  Returns null to let the web view load the resource itself.
+     */
+    WebResource intercept(String url);
+}
@@ -0,0 +1,461 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Size-bounded, least recently used cache of response bodies on disk, keyed by URL.
+ *
+ *  Each entry is a body file and a small metadata file holding the content type, the validators
+ *  (ETag and Last-Modified), the expiry time and whether a stale copy may be served. The index is kept
+ *  in memory and rebuilt from the metadata files on a thread of its own when the cache is created,
+ *  with the files' modification times standing in for the access order. Until it has loaded,
+ *  contains() reports nothing cached and the calls that need the index wait for it.
+ *
+ *  Bodies are written through an Editor into a temporary file and only become visible when committed,
+ *  so a partly downloaded response is never served.
+ */
+public class ResponseCache {
+
+    private static final int META_MAGIC = 0x47475243;
+    private static final int META_VERSION = 2;
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public static class Entry {
+
+        final String key;
+        final String url;
+        String mimeType;
+        String encoding;
+        String etag;
+        String lastModified;
+        long expiresAt;
+        boolean revalidationRequired;
+        long length;
+
+        Entry(String key, String url) {
+
+            this.key = key;
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public boolean isFresh(long nowMillis) {
+            return nowMillis < expiresAt;
+        }
+
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+
+        /**
+         *  The response said no-cache or must-revalidate, so once stale it must not be served
+         *  until the origin server has confirmed it.
+         */
+        public boolean isRevalidationRequired() {
+            return revalidationRequired;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private long totalBytes;
+    private boolean indexLoaded;
+    private final AtomicInteger editCount = new AtomicInteger();
+
+    /**
+     *  Returns straight away, the directory is read in the background so it can be created on the main thread.
+     */
+    public ResponseCache(File directory, long maxBytes) {
+
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadIndex();
+            }
+        }, "ResponseCacheIndex").start();
+    }
+
+    /**
+     *  Returns the entry for the url and marks it as the most recently used, or null if there is none.
+     *  Waits for the index if it is still loading.
+     */
+    public synchronized Entry get(String url) {
+
+        if (!awaitIndex())
+            return null;
+
+        Entry entry = entries.get(getKey(url));
+
+        if (entry == null || !entry.url.equals(url))
+            return null;
+
+        getMetaFile(entry.key).setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     *  Never waits, while the index is loading nothing is reported as cached.
+     */
+    public synchronized boolean contains(String url) {
+
+        if (!indexLoaded)
+            return false;
+
+        Entry entry = entries.get(getKey(url));
+        return entry != null && entry.url.equals(url);
+    }
+
+    public InputStream openBody(Entry entry) throws IOException {
+        return new FileInputStream(getBodyFile(entry.key));
+    }
+
+    public Editor edit(String url, String mimeType, String encoding) {
+
+        Entry entry = new Entry(getKey(url), url);
+        entry.mimeType = mimeType;
+        entry.encoding = encoding;
+        return new Editor(entry);
+    }
+
+    /**
+     *  Records a successful revalidation, the body is unchanged.
+     */
+    public synchronized void updateExpiry(Entry entry, long expiresAt) {
+
+        if (!awaitIndex())
+            return;
+
+        entry.expiresAt = expiresAt;
+
+        try {
+            writeMeta(entry);
+        } catch (IOException e) {
+            remove(entry.url);
+        }
+    }
+
+    public synchronized void remove(String url) {
+
+        if (!awaitIndex())
+            return;
+
+        Entry entry = entries.remove(getKey(url));
+
+        if (entry != null) {
+            deleteFiles(entry);
+        }
+    }
+
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+
+    public class Editor {
+
+        private final Entry entry;
+        private final File temporaryFile;
+        private OutputStream output;
+
+        Editor(Entry entry) {
+
+            this.entry = entry;
+            this.temporaryFile = new File(directory, entry.key + "." + editCount.incrementAndGet() + TEMP_SUFFIX);
+        }
+
+        public void setValidators(String etag, String lastModified, long expiresAt) {
+
+            entry.etag = etag;
+            entry.lastModified = lastModified;
+            entry.expiresAt = expiresAt;
+        }
+
+        public void setRevalidationRequired(boolean revalidationRequired) {
+            entry.revalidationRequired = revalidationRequired;
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+
+            // loading the index deletes temporary files left behind, so none is created until it is done
+            synchronized (ResponseCache.this) {
+                if (!awaitIndex())
+                    throw new InterruptedIOException("Interrupted waiting for the cache index");
+            }
+
+            if (output == null)
+                output = new FileOutputStream(temporaryFile);
+
+            return output;
+        }
+
+        public void commit() throws IOException {
+
+            getOutputStream().close();
+            entry.length = temporaryFile.length();
+
+            synchronized (ResponseCache.this) {
+
+                Entry previous = entries.remove(entry.key);
+                if (previous != null) {
+                    totalBytes -= previous.length;
+                }
+
+                if (!temporaryFile.renameTo(getBodyFile(entry.key))) {
+                    temporaryFile.delete();
+                    throw new IOException("Could not commit " + entry.url);
+                }
+
+                writeMeta(entry);
+                entries.put(entry.key, entry);
+                totalBytes += entry.length;
+
+                trimToSize();
+            }
+        }
+
+        public void abort() {
+
+            try {
+                if (output != null)
+                    output.close();
+            } catch (IOException e) {
+                // the file is deleted either way
+            }
+            temporaryFile.delete();
+        }
+    }
+
+
+    private void trimToSize() {
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            deleteFiles(eldest);
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+
+        totalBytes -= entry.length;
+        getBodyFile(entry.key).delete();
+        getMetaFile(entry.key).delete();
+    }
+
+    /**
+     *  Called with the lock held. Returns false if the thread was interrupted before the index loaded.
+     */
+    private boolean awaitIndex() {
+
+        while (!indexLoaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Reads the metadata files without the lock and publishes them under it. Nothing can change
+     *  the index in the meantime, every call that would waits for it.
+     */
+    private void loadIndex() {
+
+        LinkedHashMap<String, Entry> loaded = new LinkedHashMap<String, Entry>();
+        long loadedBytes = 0;
+
+        try {
+            directory.mkdirs();
+
+            File[] files = directory.listFiles();
+            List<File> metaFiles = new ArrayList<File>();
+
+            for (File file : (files == null) ? new File[0] : files) {
+
+                if (file.getName().endsWith(META_SUFFIX))
+                    metaFiles.add(file);
+                else if (file.getName().endsWith(TEMP_SUFFIX))
+                    file.delete();
+            }
+
+            Collections.sort(metaFiles, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    long difference = first.lastModified() - second.lastModified();
+                    return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+                }
+            });
+
+            for (File metaFile : metaFiles) {
+
+                Entry entry = readMeta(metaFile);
+
+                if (entry == null || !getBodyFile(entry.key).exists()) {
+                    metaFile.delete();
+                    continue;
+                }
+
+                loaded.put(entry.key, entry);
+                loadedBytes += entry.length;
+            }
+        } finally {
+            synchronized (this) {
+
+                entries.putAll(loaded);
+                totalBytes = loadedBytes;
+                trimToSize();
+
+                indexLoaded = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(getMetaFile(entry.key)));
+
+        try {
+            output.writeInt(META_MAGIC);
+            output.writeInt(META_VERSION);
+            output.writeUTF(entry.url);
+            writeOptional(output, entry.mimeType);
+            writeOptional(output, entry.encoding);
+            writeOptional(output, entry.etag);
+            writeOptional(output, entry.lastModified);
+            output.writeLong(entry.expiresAt);
+            output.writeBoolean(entry.revalidationRequired);
+            output.writeLong(entry.length);
+        } finally {
+            output.close();
+        }
+    }
+
+    private Entry readMeta(File metaFile) {
+
+        try {
+            DataInputStream input = new DataInputStream(new FileInputStream(metaFile));
+
+            try {
+                // entries written by an older version are dropped rather than served without their flags
+                if (input.readInt() != META_MAGIC || input.readInt() != META_VERSION)
+                    return null;
+
+                String url = input.readUTF();
+                Entry entry = new Entry(getKey(url), url);
+                entry.mimeType = readOptional(input);
+                entry.encoding = readOptional(input);
+                entry.etag = readOptional(input);
+                entry.lastModified = readOptional(input);
+                entry.expiresAt = input.readLong();
+                entry.revalidationRequired = input.readBoolean();
+                entry.length = input.readLong();
+                return entry;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeOptional(DataOutputStream output, String value) throws IOException {
+
+        output.writeBoolean(value != null);
+        if (value != null)
+            output.writeUTF(value);
+    }
+
+    private static String readOptional(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private File getBodyFile(String key) {
+        return new File(directory, key + BODY_SUFFIX);
+    }
+
+    private File getMetaFile(String key) {
+        return new File(directory, key + META_SUFFIX);
+    }
+
+    private static String getKey(String url) {
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+
+            for (byte value : digest) {
+                key.append(Character.forDigit((value >> 4) & 0xf, 16));
+                key.append(Character.forDigit(value & 0xf, 16));
+            }
+            return key.toString();
+
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.io.InputStream;
+
+/**
+ *  A response body handed to the web view in place of its own network request.
+ *  Mirrors what WebResourceResponse can carry at this API level, which has no status code or headers.
+ */
+public class WebResource {
+
+    private final String url;
+    private final String mimeType;
+    private final String encoding;
+    private final InputStream data;
+
+    public WebResource(String url, String mimeType, String encoding, InputStream data) {
+
+        this.url = url;
+        this.mimeType = mimeType;
+        this.encoding = encoding;
+        this.data = data;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public InputStream getData() {
+        return data;
+    }
+}
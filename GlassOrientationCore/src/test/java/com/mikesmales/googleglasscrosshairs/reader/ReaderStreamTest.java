@@ -0,0 +1,164 @@
+package com.mikesmales.googleglasscrosshairs.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import org.junit.Test;
+
+public class ReaderStreamTest {
+
+    private static final String URL = "https://en.wikipedia.org/wiki/Crosshair";
+    private static final String TARGET = "\ud83c\udfaf";
+
+    @Test
+    public void outputMatchesTheTransform() throws IOException {
+
+        String source = ReaderTransformTest.fixture("wikipedia.html");
+
+        StringBuilder expected = new StringBuilder();
+        ReaderTransform transform = new ReaderTransform(URL, expected);
+        HtmlTokenizer tokenizer = new HtmlTokenizer(transform);
+        tokenizer.feed(source.toCharArray(), 0, source.length());
+        tokenizer.finish();
+        transform.finish();
+
+        ReaderStats stats = new ReaderStats();
+        String output = read(new ByteArrayInputStream(source.getBytes("UTF-8")), stats);
+
+        assertEquals(expected.toString(), output);
+        assertEquals(1, stats.getPageCount());
+        assertEquals(URL, stats.getLastUrl());
+    }
+
+    @Test
+    public void surrogatePairSplitAcrossChunksIsEncodedWhole() throws IOException {
+
+        String source = "<p>Aim " + TARGET + " on target</p>";
+        int split = source.indexOf(TARGET) + 1;
+
+        ReaderStats stats = new ReaderStats();
+        ReaderStream.CountingInputStream empty = new ReaderStream.CountingInputStream(new ByteArrayInputStream(new byte[0]));
+        String output = read(new ReaderStream(empty, new SplitReader(source, split), URL, stats));
+
+        assertTrue(output, output.contains("<p>Aim " + TARGET + " on target</p>"));
+    }
+
+    @Test
+    public void surrogatePairAtAChunkBoundaryIsEncodedWhole() throws IOException {
+
+        // the pair lands on each side of the stream's 4096 character chunks in turn
+        for (int padding = 4085; padding < 4105; padding++) {
+
+            StringBuilder source = new StringBuilder("<p>");
+            for (int i = source.length(); i < padding; i++) {
+                source.append('x');
+            }
+            source.append(TARGET).append(" on target</p>");
+
+            String output = read(new ByteArrayInputStream(source.toString().getBytes("UTF-8")), new ReaderStats());
+
+            assertTrue("padding " + padding, output.contains("x" + TARGET + " on target</p>"));
+        }
+    }
+
+    @Test
+    public void malformedSourceStillEndsTheDocument() throws IOException {
+
+        String source = ReaderTransformTest.fixture("malformed.html");
+        String output = read(new TrickleInputStream(new ByteArrayInputStream(source.getBytes("UTF-8"))), new ReaderStats());
+
+        assertTrue(output, output.endsWith("</body></html>"));
+    }
+
+    /**
+     *  Reads the stream a few bytes at a time and fails on anything that is not well formed UTF-8,
+     *  such as half of a surrogate pair.
+     */
+    private static String read(InputStream source, ReaderStats stats) throws IOException {
+        return read(new ReaderStream(source, "UTF-8", URL, stats));
+    }
+
+    private static String read(ReaderStream stream) throws IOException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+
+        try {
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            stream.close();
+        }
+
+        try {
+            return Charset.forName("UTF-8").newDecoder()
+                          .onMalformedInput(CodingErrorAction.REPORT)
+                          .onUnmappableCharacter(CodingErrorAction.REPORT)
+                          .decode(ByteBuffer.wrap(output.toByteArray())).toString();
+        } catch (CharacterCodingException e) {
+            throw new AssertionError("output is not valid UTF-8: " + e);
+        }
+    }
+
+    /**
+     *  Gives out the text in two reads split at the given character, however much is asked for.
+     */
+    private static class SplitReader extends Reader {
+
+        private final String text;
+        private final int split;
+        private int position;
+
+        SplitReader(String text, int split) {
+
+            this.text = text;
+            this.split = split;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+
+            if (position == text.length())
+                return -1;
+
+            int end = Math.min(position + length, (position < split) ? split : text.length());
+            text.getChars(position, end, buffer, offset);
+
+            int count = end - position;
+            position = end;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     *  Gives out at most one byte per read, the way a slow connection splits a page.
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+
+        TrickleInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.mikesmales.googleglasscrosshairs.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class ReaderTransformTest {
+
+    private static final String URL = "https://en.wikipedia.org/wiki/Crosshair";
+
+    @Test
+    public void pageClassesOnHtmlAndBodyDoNotBlankThePage() throws IOException {
+
+        String output = transform(fixture("wikipedia.html"));
+
+        assertTrue(output, output.contains("<h1>Crosshair</h1>"));
+        assertTrue(output, output.contains("two perpendicular lines"));
+    }
+
+    @Test
+    public void chromeIsDropped() throws IOException {
+
+        String output = transform(fixture("wikipedia.html"));
+
+        assertFalse(output, output.contains("Jump to content"));
+        assertFalse(output, output.contains("Main page"));
+        assertFalse(output, output.contains("name=\"search\""));
+        assertFalse(output, output.contains("#History"));
+        assertFalse(output, output.contains("For the film"));
+        assertFalse(output, output.contains("Reticle"));
+        assertFalse(output, output.contains("Optics"));
+        assertFalse(output, output.contains("Categories"));
+        assertFalse(output, output.contains("Creative Commons"));
+        assertFalse(output, output.contains("documentElement"));
+        assertFalse(output, output.contains("color: red"));
+        assertFalse(output, output.contains("class="));
+    }
+
+    @Test
+    public void contentIsKept() throws IOException {
+
+        String output = transform(fixture("wikipedia.html"));
+
+        assertTrue(output, output.contains("<base href=\"" + URL + "\">"));
+        assertTrue(output, output.contains("<p>A <b>crosshair</b> is a shape of two perpendicular lines used for aiming,"
+                                           + " in a <a href=\"/wiki/Telescopic_sight\">telescopic sight</a>.</p>"));
+        assertTrue(output, output.contains("<h2>History</h2>"));
+        assertTrue(output, output.contains("spider silk &amp; fine wire, described as &#8220;fils&#8221; &mdash; caf&eacute; notes,"
+                                           + " na\u00efve r\u00e9sum\u00e9, \u7167\u6e96 and \ud83c\udfaf on target."));
+        assertTrue(output, output.contains("<ul><li>Duplex</li><li>Mil-dot</li></ul>"));
+        assertTrue(output, output.endsWith("</body></html>"));
+    }
+
+    @Test
+    public void outputIsTheSameWhereverTheInputIsSplit() throws IOException {
+
+        // the fixture's emoji is a surrogate pair, so one of the splits falls between its halves
+        char[] source = fixture("wikipedia.html").toCharArray();
+        String whole = transform(source, source.length);
+
+        for (int split = 1; split < source.length; split++) {
+
+            StringBuilder output = new StringBuilder();
+            ReaderTransform transform = new ReaderTransform(URL, output);
+            HtmlTokenizer tokenizer = new HtmlTokenizer(transform);
+
+            tokenizer.feed(source, 0, split);
+            tokenizer.feed(source, split, source.length - split);
+            tokenizer.finish();
+            transform.finish();
+
+            assertEquals("split at " + split, whole, output.toString());
+        }
+
+        assertEquals(whole, transform(source, 1));
+        assertEquals(whole, transform(source, 7));
+    }
+
+    @Test
+    public void misnestedAndStrayTagsAreRecoveredFrom() throws IOException {
+
+        String output = transform(fixture("malformed.html"));
+
+        assertTrue(output, output.contains("<p>First <b>bold <i>both</i></b> italic paragraph"));
+        assertTrue(output, output.contains("<p>Second < 3 and 5 > 4 paragraph</p>"));
+        assertTrue(output, output.contains("<p>After the sidebar</p>"));
+        assertFalse(output, output.contains("sidebar <"));
+        assertFalse(output, output.contains("Sidebar"));
+    }
+
+    @Test
+    public void scriptsAndCommentsHideTheirMarkup() throws IOException {
+
+        String output = transform(fixture("malformed.html"));
+
+        assertTrue(output, output.contains("<p>Before a comment after a comment</p>"));
+        assertFalse(output, output.contains("commented out"));
+        assertFalse(output, output.contains("x ="));
+    }
+
+    @Test
+    public void linksKeepOnlyWhereTheyGo() throws IOException {
+
+        String output = transform(fixture("malformed.html"));
+
+        assertFalse(output, output.contains("javascript:"));
+        assertTrue(output, output.contains(" nowhere "));
+        assertTrue(output, output.contains("<a href=\"/relative\">relative</a>"));
+        assertTrue(output, output.contains("<a href=\"q?a=1&b=&quot;2&quot;\">quoted</a>"));
+    }
+
+    @Test
+    public void unclosedElementsAndTagsAtTheEndAreDropped() throws IOException {
+
+        String output = transform(fixture("malformed.html"));
+
+        assertTrue(output, output.endsWith("<p>Unclosed paragraph <em>and emphasis </body></html>"));
+        assertFalse(output, output.contains("Buy now"));
+        assertFalse(output, output.contains("unterminated"));
+    }
+
+    @Test
+    public void deeplyNestedElementsAreCut() {
+
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            source.append("<div><span>");
+        }
+        source.append("deep");
+
+        String output = transform(source.toString().toCharArray(), source.length());
+
+        assertTrue(output, output.contains("deep"));
+        assertTrue(output, output.endsWith("</body></html>"));
+    }
+
+    private static String transform(String source) {
+
+        char[] chars = source.toCharArray();
+        return transform(chars, chars.length);
+    }
+
+    private static String transform(char[] source, int chunkLength) {
+
+        StringBuilder output = new StringBuilder();
+        ReaderTransform transform = new ReaderTransform(URL, output);
+        HtmlTokenizer tokenizer = new HtmlTokenizer(transform);
+
+        for (int offset = 0; offset < source.length; offset += chunkLength) {
+            tokenizer.feed(source, offset, Math.min(chunkLength, source.length - offset));
+        }
+
+        tokenizer.finish();
+        transform.finish();
+        return output.toString();
+    }
+
+    static String fixture(String name) throws IOException {
+
+        InputStream input = ReaderTransformTest.class.getResourceAsStream("/reader/" + name);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+
+        return new String(output.toByteArray(), "UTF-8");
+    }
+}
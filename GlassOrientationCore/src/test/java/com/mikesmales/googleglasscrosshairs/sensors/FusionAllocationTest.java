@@ -0,0 +1,134 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  The fusion path runs for every sensor event, so once warmed up it must not allocate.
+ *
+ *  Synthetic events are fed through the OrientationEngine and straight into EulerOrientationFusion,
+ *  and the bytes the test thread allocates are compared before and after a measured run.
+ */
+public class FusionAllocationTest {
+
+    private static final int WARM_UP_EVENTS = 50000;
+    private static final int MEASURED_EVENTS = 50000;
+
+    /** 200 Hz, the gyro rate while the head is moving. */
+    private static final long SAMPLE_INTERVAL_NS = 5000000L;
+
+    private com.sun.management.ThreadMXBean threads;
+    private long threadId;
+
+    private final float[] rotationMatrix = new float[9];
+    private final float[] orientationAngles = new float[3];
+    private final float[] angularSpeeds = new float[3];
+
+    @Before
+    public void setUp() {
+
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+
+        threads.setThreadAllocatedMemoryEnabled(true);
+        threadId = Thread.currentThread().getId();
+    }
+
+    @Test
+    public void engineDoesNotAllocatePerEvent() {
+
+        for (FusionMode mode : FusionMode.values()) {
+
+            OrientationEngine engine = new OrientationEngine(mode);
+            feedEngine(engine, 0, WARM_UP_EVENTS);
+
+            long before = allocatedBytes();
+            feedEngine(engine, WARM_UP_EVENTS, MEASURED_EVENTS);
+            long after = allocatedBytes();
+
+            assertEquals(mode + " allocated while fusing", 0, after - before - measurementOverhead());
+        }
+    }
+
+    @Test
+    public void eulerFusionDoesNotAllocatePerEvent() {
+
+        EulerOrientationFusion fusion = new EulerOrientationFusion();
+        MatrixHelper.getRotationMatrixFromOrientation(orientationAngles, rotationMatrix);
+        fusion.initialise(rotationMatrix, orientationAngles);
+
+        feedFusion(fusion, 0, WARM_UP_EVENTS);
+
+        long before = allocatedBytes();
+        feedFusion(fusion, WARM_UP_EVENTS, MEASURED_EVENTS);
+        long after = allocatedBytes();
+
+        assertEquals(0, after - before - measurementOverhead());
+    }
+
+    /**
+     *  A slow sweep of the head, with the accelerometer and magnetometer at a quarter of the gyro rate
+     *  and a fusion step every sixth gyro sample, about the TIME_CONSTANT of the timer.
+     */
+    private static void feedEngine(OrientationEngine engine, int first, int count) {
+
+        for (int i = first; i < first + count; i++) {
+
+            long timestamp = (i + 1) * SAMPLE_INTERVAL_NS;
+            float phase = i * 0.001f;
+
+            if (i % 4 == 0) {
+                engine.onSample(SensorSampleRing.TYPE_ACCELEROMETER, timestamp, 0.3f * (float) Math.sin(phase), 9.6f, 1.2f);
+                engine.onSample(SensorSampleRing.TYPE_MAGNETIC_FIELD, timestamp, 22.0f * (float) Math.cos(phase), -8.0f, -40.0f + 22.0f * (float) Math.sin(phase));
+            }
+
+            engine.onSample(SensorSampleRing.TYPE_GYROSCOPE, timestamp, 0.02f, 0.2f * (float) Math.cos(phase), 0.01f);
+
+            if (i % 6 == 0)
+                engine.fuse();
+        }
+    }
+
+    private void feedFusion(EulerOrientationFusion fusion, int first, int count) {
+
+        float dT = (float) (SAMPLE_INTERVAL_NS / 1000000000.0);
+
+        for (int i = first; i < first + count; i++) {
+
+            float phase = i * 0.001f;
+            angularSpeeds[0] = 0.02f;
+            angularSpeeds[1] = 0.2f * (float) Math.cos(phase);
+            angularSpeeds[2] = 0.01f;
+            fusion.integrateGyro(angularSpeeds, dT);
+
+            if (i % 6 == 0) {
+                orientationAngles[0] = (float) Math.sin(phase) * 3.0f;
+                orientationAngles[1] = 0.1f;
+                orientationAngles[2] = -0.05f;
+                MatrixHelper.getRotationMatrixFromOrientation(orientationAngles, rotationMatrix);
+                fusion.fuse(rotationMatrix, orientationAngles);
+            }
+        }
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     *  Whatever reading the counter allocates itself, measured with nothing in between.
+     */
+    private long measurementOverhead() {
+
+        long before = allocatedBytes();
+        long after = allocatedBytes();
+        return after - before;
+    }
+}
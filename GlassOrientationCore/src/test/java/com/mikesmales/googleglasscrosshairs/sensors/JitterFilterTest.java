@@ -0,0 +1,92 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JitterFilterTest {
+
+    private static final long UPDATE_INTERVAL_MILLIS = 20;
+    private static final float TURN_SPEED = 0.5f;
+
+    private final JitterFilter filter = new JitterFilter();
+    private long timeMillis = 1000;
+
+    private int feed(int updates, float x, float y) {
+
+        int dispatched = 0;
+
+        for (int i = 0; i < updates; i++) {
+
+            if (filter.filter(timeMillis, x, y))
+                dispatched++;
+
+            timeMillis += UPDATE_INTERVAL_MILLIS;
+        }
+
+        return dispatched;
+    }
+
+    @Test
+    public void steadyTurnIsDispatchedOnce() {
+
+        assertEquals(1, feed(50, TURN_SPEED, 0));
+
+        assertTrue(filter.isMoving());
+        assertEquals(TURN_SPEED, filter.getX(), JitterFilter.DEFAULT_OUTPUT_STEP);
+        assertEquals(0, filter.getY(), 0);
+        assertEquals(1, filter.getDispatchedCount());
+        assertEquals(49, filter.getUnchangedCount());
+        assertEquals(0, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void changeSmallerThanTheOutputStepIsNotDispatched() {
+
+        feed(50, TURN_SPEED, 0);
+
+        assertEquals(0, feed(50, TURN_SPEED + JitterFilter.DEFAULT_OUTPUT_STEP * 0.2f, 0));
+        // the filter eases into the new speed, one dispatch per step at most
+        int dispatched = feed(50, TURN_SPEED + JitterFilter.DEFAULT_OUTPUT_STEP * 4, 0);
+        assertTrue(dispatched > 0 && dispatched <= 4);
+        assertEquals(TURN_SPEED + JitterFilter.DEFAULT_OUTPUT_STEP * 4, filter.getX(), JitterFilter.DEFAULT_OUTPUT_STEP);
+        assertTrue(filter.isMoving());
+    }
+
+    @Test
+    public void stillHeadIsGatedNotCountedAsUnchanged() {
+
+        feed(50, TURN_SPEED, 0);
+        feed(200, 0, 0);
+        long unchanged = filter.getUnchangedCount();
+        long suppressed = filter.getSuppressedCount();
+
+        assertEquals(0, feed(50, 0, 0));
+        assertFalse(filter.isMoving());
+        assertEquals(unchanged, filter.getUnchangedCount());
+        assertEquals(suppressed + 50, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void firstUpdateOutOfTheDeadbandIsDispatched() {
+
+        feed(50, TURN_SPEED, 0);
+        feed(200, 0, 0);
+
+        while (true) {
+
+            boolean dispatched = filter.filter(timeMillis, TURN_SPEED, 0);
+            timeMillis += UPDATE_INTERVAL_MILLIS;
+
+            if (filter.isMoving()) {
+                assertTrue(dispatched);
+                break;
+            }
+        }
+
+        feed(100, TURN_SPEED, 0);
+        assertEquals(TURN_SPEED, filter.getX(), JitterFilter.DEFAULT_OUTPUT_STEP);
+    }
+}
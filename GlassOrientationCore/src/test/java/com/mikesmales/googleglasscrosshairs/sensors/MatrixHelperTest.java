@@ -0,0 +1,126 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *  The SensorManager ports against rotations whose matrices and angles are known,
+ *  in SensorManager's world frame of x east, y north and z up.
+ */
+public class MatrixHelperTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final float TOLERANCE = 0.0001f;
+
+    private static final float[] IDENTITY = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+
+    private final float[] matrix = new float[9];
+    private final float[] angles = new float[3];
+
+    @Test
+    public void flatFacingNorthIsTheIdentity() {
+
+        assertTrue(MatrixHelper.getRotationMatrix(matrix, new float[] { 0, 0, GRAVITY }, new float[] { 0, 20, -40 }));
+        assertArrayEquals(IDENTITY, matrix, TOLERANCE);
+
+        MatrixHelper.getOrientation(matrix, angles);
+        assertArrayEquals(new float[] { 0, 0, 0 }, angles, TOLERANCE);
+    }
+
+    @Test
+    public void flatFacingEastHasAnAzimuthOfNinetyDegrees() {
+
+        // the top of the device points east, so its x axis points south
+        assertTrue(MatrixHelper.getRotationMatrix(matrix, new float[] { 0, 0, GRAVITY }, new float[] { -20, 0, -40 }));
+        assertArrayEquals(new float[] { 0, 1, 0, -1, 0, 0, 0, 0, 1 }, matrix, TOLERANCE);
+
+        MatrixHelper.getOrientation(matrix, angles);
+        assertArrayEquals(new float[] { (float) (Math.PI / 2), 0, 0 }, angles, TOLERANCE);
+    }
+
+    @Test
+    public void pitchedAndTurnedAnglesAreRecovered() {
+
+        double azimuth = Math.toRadians(-120);
+        double pitch = Math.toRadians(35);
+        double north = 20;
+        double down = 40;
+
+        float[] gravity = { 0, (float) (-GRAVITY * Math.sin(pitch)), (float) (GRAVITY * Math.cos(pitch)) };
+        float[] field = {
+            (float) (-Math.sin(azimuth) * north),
+            (float) (Math.cos(azimuth) * Math.cos(pitch) * north + Math.sin(pitch) * down),
+            (float) (Math.cos(azimuth) * Math.sin(pitch) * north - Math.cos(pitch) * down) };
+
+        assertTrue(MatrixHelper.getRotationMatrix(matrix, gravity, field));
+        MatrixHelper.getOrientation(matrix, angles);
+
+        assertArrayEquals(new float[] { (float) azimuth, (float) pitch, 0 }, angles, TOLERANCE);
+    }
+
+    @Test
+    public void freeFallHasNoRotation() {
+        assertFalse(MatrixHelper.getRotationMatrix(matrix, new float[] { 0, 0, 0 }, new float[] { 0, 20, -40 }));
+    }
+
+    @Test
+    public void fieldAlongGravityHasNoRotation() {
+        assertFalse(MatrixHelper.getRotationMatrix(matrix, new float[] { 0, 0, GRAVITY }, new float[] { 0, 0, -50 }));
+    }
+
+    @Test
+    public void rotationVectorOfAQuarterTurnAboutZ() {
+
+        float half = (float) Math.sqrt(0.5);
+        float[] expected = { 0, -1, 0, 1, 0, 0, 0, 0, 1 };
+
+        MatrixHelper.getRotationMatrixFromVector(matrix, new float[] { 0, 0, half, half });
+        assertArrayEquals(expected, matrix, TOLERANCE);
+
+        // without the scalar part it is worked out from the other three
+        MatrixHelper.getRotationMatrixFromVector(matrix, new float[] { 0, 0, half });
+        assertArrayEquals(expected, matrix, TOLERANCE);
+    }
+
+    @Test
+    public void rotationVectorOfAHalfTurnAboutX() {
+
+        MatrixHelper.getRotationMatrixFromVector(matrix, new float[] { 1, 0, 0, 0 });
+        assertArrayEquals(new float[] { 1, 0, 0, 0, -1, 0, 0, 0, -1 }, matrix, TOLERANCE);
+    }
+
+    @Test
+    public void orientationMatrixRoundTripsThroughGetOrientation() {
+
+        for (int azimuth = -170; azimuth < 180; azimuth += 40) {
+            for (int pitch = -80; pitch <= 80; pitch += 40) {
+                for (int roll = -160; roll < 180; roll += 40) {
+
+                    float[] expected = { (float) Math.toRadians(azimuth), (float) Math.toRadians(pitch), (float) Math.toRadians(roll) };
+
+                    MatrixHelper.getRotationMatrixFromOrientation(expected, matrix);
+                    MatrixHelper.getOrientation(matrix, angles);
+
+                    assertArrayEquals(azimuth + "/" + pitch + "/" + roll, expected, angles, TOLERANCE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void gyroRotationVectorIsHalfTheAngle() {
+
+        float[] rotationVector = new float[4];
+
+        // a quarter turn about z, at one radian per second for pi / 2 seconds, with the time factor halved as the engine does
+        MatrixHelper.getRotationVectorFromGyro(new float[] { 0, 0, 1 }, rotationVector, (float) (Math.PI / 4));
+        assertArrayEquals(new float[] { 0, 0, (float) Math.sqrt(0.5), (float) Math.sqrt(0.5) }, rotationVector, TOLERANCE);
+
+        MatrixHelper.getRotationVectorFromGyro(new float[] { 0, 0, 0 }, rotationVector, 1);
+        assertEquals(1, rotationVector[3], TOLERANCE);
+    }
+}
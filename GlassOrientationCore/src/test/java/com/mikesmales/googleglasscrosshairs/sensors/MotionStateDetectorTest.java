@@ -0,0 +1,66 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MotionStateDetectorTest {
+
+    private static final long SAMPLE_INTERVAL_NS = 10000000L;
+    private static final float GRAVITY = 9.81f;
+
+    /** Well above GYRO_MOVING_THRESHOLD, as a poorly calibrated gyro can read. */
+    private static final float[] GYRO_BIAS = {0.12f, -0.1f, 0.05f};
+
+    private final MotionStateDetector detector = new MotionStateDetector();
+    private long timestamp = SAMPLE_INTERVAL_NS;
+
+    private void feedStillHead(long durationNs) {
+
+        for (long end = timestamp + durationNs; timestamp < end; timestamp += SAMPLE_INTERVAL_NS) {
+            detector.onAccelerometer(timestamp, 0, 0, GRAVITY);
+            detector.onGyroscope(timestamp, GYRO_BIAS[0], GYRO_BIAS[1], GYRO_BIAS[2]);
+        }
+    }
+
+    @Test
+    public void biasedGyroOnAStillHeadReadsAsMovingWithoutTheBias() {
+
+        feedStillHead(MotionStateDetector.IDLE_DELAY_NS * 2);
+
+        assertEquals(MotionState.MOVING, detector.getState());
+        assertEquals(0, detector.getTransitions());
+    }
+
+    @Test
+    public void biasedGyroOnAStillHeadSettlesOnceTheBiasIsKnown() {
+
+        detector.setGyroBias(GYRO_BIAS);
+
+        feedStillHead(MotionStateDetector.STILL_DELAY_NS * 2);
+        assertEquals(MotionState.STILL, detector.getState());
+
+        feedStillHead(MotionStateDetector.IDLE_DELAY_NS);
+        assertEquals(MotionState.IDLE, detector.getState());
+        assertEquals(2, detector.getTransitions());
+    }
+
+    @Test
+    public void timeInEachStateAddsUpToTheTimeFed() {
+
+        detector.setGyroBias(GYRO_BIAS);
+        feedStillHead(MotionStateDetector.IDLE_DELAY_NS * 2);
+
+        float total = 0;
+
+        for (MotionState state : MotionState.values()) {
+            total += detector.getSecondsInState(state);
+        }
+
+        // the first sample only starts the clock
+        float fed = (MotionStateDetector.IDLE_DELAY_NS * 2 - SAMPLE_INTERVAL_NS) / 1000000000.0f;
+
+        assertEquals(fed, total, 0.001f);
+        assertEquals(MotionStateDetector.STILL_DELAY_NS / 1000000000.0f, detector.getSecondsInState(MotionState.MOVING), 0.02f);
+    }
+}
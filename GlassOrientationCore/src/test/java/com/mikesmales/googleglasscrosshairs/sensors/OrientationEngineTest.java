@@ -0,0 +1,202 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrientationEngineTest {
+
+    private static final long SAMPLE_INTERVAL_NS = 5000000L;
+    private static final long MAGNETOMETER_INTERVAL_NS = 20000000L;
+
+    private static final float FIELD_STRENGTH = 50.0f;
+
+    private OrientationEngine engine;
+    private long timestamp;
+
+    private final float[] bias = new float[3];
+
+    @Before
+    public void setUp() {
+
+        engine = new OrientationEngine(FusionMode.EULER);
+
+        // a first accelerometer/magnetometer fix, so gyro samples are integrated
+        engine.onMagneticField(0, 20.0f, -10.0f, -40.0f);
+        engine.onAccelerometer(0, 0.0f, 9.8f, 0.5f);
+    }
+
+    @Test
+    public void slowTurnWhileMovingIsNotLearnedAsBias() {
+
+        engine.setMotionState(MotionState.MOVING);
+        feedGyro(2000, 0.0f, 0.02f, 0.0f);
+
+        engine.getGyroBias(bias);
+        assertEquals(0.0f, bias[1], 0.0f);
+    }
+
+    @Test
+    public void offsetWhileStillIsLearnedAsBias() {
+
+        engine.setMotionState(MotionState.STILL);
+        feedGyro(2000, 0.0f, 0.02f, 0.0f);
+
+        engine.getGyroBias(bias);
+        assertEquals(0.02f, bias[1], 0.001f);
+    }
+
+    @Test
+    public void biasIsKeptOnceMovingAgain() {
+
+        engine.setMotionState(MotionState.IDLE);
+        feedGyro(2000, 0.01f, 0.0f, 0.0f);
+
+        engine.setMotionState(MotionState.MOVING);
+        feedGyro(2000, 0.03f, 0.0f, 0.0f);
+
+        engine.getGyroBias(bias);
+        assertEquals(0.01f, bias[0], 0.001f);
+    }
+
+    @Test
+    public void restoredOrientationIsPublishedBeforeTheFirstFix() {
+
+        OrientationEngine restored = new OrientationEngine(FusionMode.EULER);
+        assertFalse(restored.fuse());
+
+        restored.restoreState(savedOrientation(1.2f), true);
+
+        float[] angles = new float[3];
+        assertTrue(restored.fuse());
+        restored.getFusedOrientationAngles(angles);
+        assertEquals(1.2f, angles[0], 0.001f);
+    }
+
+    @Test
+    public void fixFromBeforeAPauseIsNotFused() {
+
+        timestamp += MAGNETOMETER_INTERVAL_NS;
+        feedAccelerometerAndMagnetometer(0, 0);
+        feedGyro(10, 0.0f, 0.0f, 0.0f);
+
+        engine.resetSensorData();
+        engine.restoreState(savedOrientation((float) (Math.PI / 2)), true);
+
+        float[] angles = new float[3];
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(engine.fuse());
+        }
+        engine.getFusedOrientationAngles(angles);
+        assertEquals(Math.PI / 2, angles[0], 0.001);
+
+        // only a fresh fix is fused
+        timestamp += MAGNETOMETER_INTERVAL_NS;
+        feedAccelerometerAndMagnetometer(Math.PI / 4, 0);
+        engine.fuse();
+        engine.getFusedOrientationAngles(angles);
+        assertTrue(angles[0] < Math.PI / 2 - 0.001);
+    }
+
+    @Test
+    public void gyroIsIntegratedOverExactTimeStepsAfterDaysOfUptime() {
+
+        // about eleven days of uptime, where a float of the timestamp itself would be off by tens of milliseconds
+        assertEquals(1.0, turnFlatDevice(1000000000000000L), 0.001);
+        assertEquals(1.0, turnFlatDevice(SAMPLE_INTERVAL_NS), 0.001);
+    }
+
+    /**
+     *  Turns a flat device about its z axis at 0.5 radians a second for two seconds and returns the change of azimuth.
+     */
+    private static double turnFlatDevice(long startTimestamp) {
+
+        OrientationEngine flat = new OrientationEngine(FusionMode.EULER);
+        flat.onMagneticField(startTimestamp, 0.0f, 20.0f, -40.0f);
+        flat.onAccelerometer(startTimestamp, 0.0f, 0.0f, 9.81f);
+        flat.onGyroscope(startTimestamp, 0.0f, 0.0f, 0.0f);
+
+        // gyro alone from here
+        flat.resetSensorData();
+
+        float[] before = new float[3];
+        float[] after = new float[3];
+        flat.fuse();
+        flat.getFusedOrientationAngles(before);
+
+        long timestamp = startTimestamp;
+        for (int i = 0; i <= 400; i++) {
+            flat.onGyroscope(timestamp, 0.0f, 0.0f, 0.5f);
+            timestamp += SAMPLE_INTERVAL_NS;
+        }
+
+        flat.fuse();
+        flat.getFusedOrientationAngles(after);
+        return Math.abs(after[0] - before[0]);
+    }
+
+    @Test
+    public void limitedHeadSweepsDoNotSkewHeading() {
+
+        // ten minutes of looking around a desk, never turning far from one direction
+        for (int i = 0; i < 10 * 60 * 50; i++) {
+
+            timestamp += MAGNETOMETER_INTERVAL_NS;
+            double azimuth = Math.toRadians(30 + 60 * Math.sin(i * 2.0 * Math.PI / 500));
+            double pitch = Math.toRadians(40 * Math.sin(i * 2.0 * Math.PI / 170));
+            feedAccelerometerAndMagnetometer(azimuth, pitch);
+        }
+
+        float[] angles = new float[3];
+
+        for (int degrees = -180; degrees < 180; degrees += 15) {
+
+            timestamp += MAGNETOMETER_INTERVAL_NS;
+            feedAccelerometerAndMagnetometer(Math.toRadians(degrees), 0);
+
+            engine.getAccMagOrientationAngles(angles);
+            assertEquals("heading " + degrees, degrees, Math.toDegrees(angles[0]), 0.5);
+        }
+    }
+
+    /**
+     *  What the accelerometer and a calibrated magnetometer read at rest, with no roll,
+     *  in a 50 microtesla field dipping 60 degrees.
+     */
+    private void feedAccelerometerAndMagnetometer(double azimuth, double pitch) {
+
+        double sinAzimuth = Math.sin(azimuth);
+        double cosAzimuth = Math.cos(azimuth);
+        double sinPitch = Math.sin(pitch);
+        double cosPitch = Math.cos(pitch);
+
+        double north = FIELD_STRENGTH * Math.cos(Math.toRadians(60));
+        double down = FIELD_STRENGTH * Math.sin(Math.toRadians(60));
+
+        // the device axes in east, north, up are x (cos, -sin, 0), y (sin cos, cos cos, -sin) and z (sin sin, cos sin, cos)
+        engine.onMagneticField(timestamp, (float) (-sinAzimuth * north),
+                               (float) (cosAzimuth * cosPitch * north + sinPitch * down),
+                               (float) (cosAzimuth * sinPitch * north - cosPitch * down));
+        engine.onAccelerometer(timestamp, 0.0f, (float) (-9.81 * sinPitch), (float) (9.81 * cosPitch));
+    }
+
+    private static OrientationState savedOrientation(float azimuth) {
+
+        OrientationState state = new OrientationState();
+        state.hasOrientation = true;
+        state.fusedOrientationAngles[0] = azimuth;
+        return state;
+    }
+
+    private void feedGyro(int count, float x, float y, float z) {
+
+        for (int i = 0; i < count; i++) {
+            timestamp += SAMPLE_INTERVAL_NS;
+            engine.onGyroscope(timestamp, x, y, z);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SensorSampleRingTest {
+
+    private final List<Long> drained = new ArrayList<Long>();
+
+    private final SensorSampleRing.SampleHandler collector = new SensorSampleRing.SampleHandler() {
+
+        @Override
+        public void onSample(int type, long timestamp, float x, float y, float z) {
+
+            // every sample carries its timestamp in its values too, so a slot read half written would show
+            assertEquals(SensorSampleRing.TYPE_GYROSCOPE, type);
+            assertEquals((float) timestamp, x, 0.0f);
+            assertEquals(-(float) timestamp, y, 0.0f);
+            assertEquals(timestamp * 0.5f, z, 0.0f);
+            drained.add(timestamp);
+        }
+    };
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+
+        assertEquals(2, new SensorSampleRing(1).capacity());
+        assertEquals(2, new SensorSampleRing(2).capacity());
+        assertEquals(4, new SensorSampleRing(3).capacity());
+        assertEquals(64, new SensorSampleRing(64).capacity());
+        assertEquals(128, new SensorSampleRing(65).capacity());
+    }
+
+    @Test
+    public void samplesComeOutInOrderAcrossManyWraps() {
+
+        SensorSampleRing ring = new SensorSampleRing(8);
+        long next = 1;
+
+        for (int round = 0; round < 100; round++) {
+
+            // a different number each time, so the wrap falls at every slot
+            int count = 1 + round % 8;
+            for (int i = 0; i < count; i++) {
+                assertTrue(offer(ring, next++));
+            }
+
+            assertEquals(count, ring.drain(collector));
+            assertEquals(0, ring.size());
+        }
+
+        assertEquals(next - 1, drained.size());
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(i + 1, (long) drained.get(i));
+        }
+        assertEquals(0, ring.getOverruns());
+    }
+
+    @Test
+    public void fullRingDropsNewSamplesAndCountsThem() {
+
+        SensorSampleRing ring = new SensorSampleRing(4);
+
+        for (long timestamp = 1; timestamp <= 4; timestamp++) {
+            assertTrue(offer(ring, timestamp));
+        }
+
+        assertFalse(offer(ring, 5));
+        assertFalse(offer(ring, 6));
+        assertEquals(2, ring.getOverruns());
+        assertEquals(4, ring.getHighWaterMark());
+
+        // the queued samples are untouched by the dropped ones
+        assertEquals(4, ring.drain(collector));
+        assertEquals(4, (long) drained.get(3));
+
+        assertTrue(offer(ring, 7));
+        ring.drain(collector);
+        assertEquals(7, (long) drained.get(4));
+    }
+
+    @Test
+    public void drainStopsAtMaxSamples() {
+
+        SensorSampleRing ring = new SensorSampleRing(8);
+
+        for (long timestamp = 1; timestamp <= 5; timestamp++) {
+            offer(ring, timestamp);
+        }
+
+        assertEquals(3, ring.drain(collector, 3));
+        assertEquals(2, ring.size());
+        assertEquals(2, ring.drain(collector, 3));
+        assertEquals(5, (long) drained.get(4));
+    }
+
+    @Test
+    public void clearDiscardsQueuedSamples() {
+
+        SensorSampleRing ring = new SensorSampleRing(4);
+        offer(ring, 1);
+        offer(ring, 2);
+
+        assertEquals(2, ring.clear());
+        assertEquals(0, ring.drain(collector));
+
+        offer(ring, 3);
+        ring.drain(collector);
+        assertEquals(1, drained.size());
+        assertEquals(3, (long) drained.get(0));
+    }
+
+    @Test
+    public void producerAndConsumerThreadsSeeEverySampleOnce() throws InterruptedException {
+
+        final SensorSampleRing ring = new SensorSampleRing(64);
+        final int total = 100000;
+
+        Thread producer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                for (long timestamp = 1; timestamp <= total; timestamp++) {
+                    while (!offer(ring, timestamp)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+
+        producer.start();
+
+        while (drained.size() < total) {
+            if (ring.drain(collector) == 0)
+                Thread.yield();
+        }
+        producer.join();
+
+        for (int i = 0; i < total; i++) {
+            assertEquals(i + 1, (long) drained.get(i));
+        }
+    }
+
+    private static boolean offer(SensorSampleRing ring, long timestamp) {
+        return ring.offer(SensorSampleRing.TYPE_GYROSCOPE, timestamp, timestamp, -timestamp, timestamp * 0.5f);
+    }
+}
@@ -0,0 +1,115 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SensorTraceReaderTest {
+
+    /** More than one of the writer's mapped chunks. */
+    private static final int SAMPLES = 60000;
+
+    private static final int[] TYPES = {
+        SensorSampleRing.TYPE_ACCELEROMETER, SensorSampleRing.TYPE_MAGNETIC_FIELD, SensorSampleRing.TYPE_GYROSCOPE };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void samplesReadBackAsTheyWereWritten() throws IOException {
+
+        File file = folder.newFile("trace");
+        write(file, SAMPLES);
+
+        assertEquals(SensorTraceWriter.HEADER_SIZE + (long) SAMPLES * SensorTraceWriter.RECORD_SIZE, file.length());
+
+        SensorTraceReader reader = new SensorTraceReader(file);
+        assertEquals(SAMPLES, reader.getSampleCount());
+
+        Checker checker = new Checker();
+        assertTrue(reader.hasNext());
+        assertEquals(timestampOf(0), reader.peekTimestamp());
+        assertEquals(SAMPLES, reader.readAll(checker));
+        assertFalse(reader.hasNext());
+
+        // and again from the start
+        reader.rewind();
+        checker.index = 0;
+        assertEquals(SAMPLES, reader.readAll(checker));
+    }
+
+    @Test
+    public void emptyTraceHasNoSamples() throws IOException {
+
+        File file = folder.newFile("trace");
+        write(file, 0);
+
+        SensorTraceReader reader = new SensorTraceReader(file);
+        assertEquals(0, reader.getSampleCount());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void samplesAfterCloseAreIgnored() throws IOException {
+
+        File file = folder.newFile("trace");
+        SensorTraceWriter writer = new SensorTraceWriter(file);
+        writer.write(SensorSampleRing.TYPE_GYROSCOPE, 1, 0, 0, 0);
+        writer.close();
+        writer.write(SensorSampleRing.TYPE_GYROSCOPE, 2, 0, 0, 0);
+
+        assertEquals(1, new SensorTraceReader(file).getSampleCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+
+        File file = folder.newFile("other");
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[] { 'n', 'o', 't', ' ', 'a', ' ', 't', 'r', 'a', 'c', 'e' });
+        output.close();
+
+        new SensorTraceReader(file);
+    }
+
+    private static void write(File file, int samples) throws IOException {
+
+        SensorTraceWriter writer = new SensorTraceWriter(file);
+
+        for (int i = 0; i < samples; i++) {
+            writer.write(TYPES[i % TYPES.length], timestampOf(i), i * 0.25f, -i, Float.MIN_VALUE * i);
+        }
+
+        assertEquals(samples, writer.getSampleCount());
+        writer.close();
+    }
+
+    /** Sensor timestamps are nanoseconds of uptime, far beyond an int. */
+    private static long timestampOf(int index) {
+        return 86400000000000L + index * 5000000L;
+    }
+
+    private static class Checker implements SensorSampleRing.SampleHandler {
+
+        int index;
+
+        @Override
+        public void onSample(int type, long timestamp, float x, float y, float z) {
+
+            assertEquals(TYPES[index % TYPES.length], type);
+            assertEquals(timestampOf(index), timestamp);
+            assertEquals(index * 0.25f, x, 0.0f);
+            assertEquals(-index, y, 0.0f);
+            assertEquals(Float.MIN_VALUE * index, z, 0.0f);
+            index++;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingInterceptorTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubHttpServer server;
+    private ResponseCache cache;
+    private CachingInterceptor interceptor;
+
+    @Before
+    public void setUp() throws IOException {
+
+        server = new StubHttpServer();
+        cache = new ResponseCache(folder.getRoot(), 1024 * 1024);
+        interceptor = new CachingInterceptor(cache);
+    }
+
+    @After
+    public void tearDown() {
+
+        interceptor.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void missIsFetchedAndCached() throws IOException {
+
+        server.respond("/page", new StubHttpServer.Response(200, "<p>hello</p>")
+            .header("Content-Type", "text/html; charset=utf-8")
+            .header("Cache-Control", "max-age=600"));
+
+        WebResource resource = interceptor.intercept(server.url("/page"));
+
+        assertEquals("text/html", resource.getMimeType());
+        assertEquals("utf-8", resource.getEncoding());
+        assertEquals("<p>hello</p>", StubHttpServer.read(resource.getData()));
+        assertTrue(cache.contains(server.url("/page")));
+    }
+
+    @Test
+    public void freshHitIsServedWithoutTheNetwork() throws IOException {
+
+        server.respond("/page", new StubHttpServer.Response(200, "cached").header("Cache-Control", "max-age=600"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        assertEquals("cached", StubHttpServer.read(interceptor.intercept(server.url("/page")).getData()));
+        assertEquals(1, server.getRequestCount("/page"));
+        assertEquals(1, interceptor.getHitCount());
+    }
+
+    @Test
+    public void staleHitIsServedAndRevalidatedInTheBackground() throws Exception {
+
+        server.respond("/page", new StubHttpServer.Response(200, "old").header("ETag", "\"v1\"").header("Cache-Control", "max-age=0"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        server.respond("/page", new StubHttpServer.Response(304, null).header("Cache-Control", "max-age=600"));
+        assertEquals("old", StubHttpServer.read(interceptor.intercept(server.url("/page")).getData()));
+
+        awaitRequests("/page", 2);
+        assertEquals("\"v1\"", server.getLastRequest("/page").getFirst("If-None-Match"));
+
+        awaitNotModified(1);
+        assertTrue(cache.get(server.url("/page")).isFresh(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void noCacheEntryIsRevalidatedBeforeItIsServed() throws IOException {
+
+        server.respond("/page", new StubHttpServer.Response(200, "old").header("ETag", "\"v1\"").header("Cache-Control", "no-cache"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        server.respond("/page", new StubHttpServer.Response(304, null).header("Cache-Control", "no-cache"));
+        WebResource confirmed = interceptor.intercept(server.url("/page"));
+
+        assertEquals(2, server.getRequestCount("/page"));
+        assertEquals("\"v1\"", server.getLastRequest("/page").getFirst("If-None-Match"));
+        assertEquals("old", StubHttpServer.read(confirmed.getData()));
+
+        server.respond("/page", new StubHttpServer.Response(200, "new").header("ETag", "\"v2\"").header("Cache-Control", "no-cache"));
+        assertEquals("new", StubHttpServer.read(interceptor.intercept(server.url("/page")).getData()));
+        assertEquals(3, server.getRequestCount("/page"));
+    }
+
+    @Test
+    public void staleMustRevalidateEntryIsNotServedWhenRevalidationFails() throws IOException {
+
+        server.respond("/page", new StubHttpServer.Response(200, "old").header("Cache-Control", "max-age=0, must-revalidate"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        server.respond("/page", new StubHttpServer.Response(503, "unavailable"));
+
+        assertNull(interceptor.intercept(server.url("/page")));
+        assertFalse(cache.contains(server.url("/page")));
+    }
+
+    @Test
+    public void freshMustRevalidateEntryIsServedWithoutTheNetwork() throws IOException {
+
+        server.respond("/page", new StubHttpServer.Response(200, "cached").header("Cache-Control", "max-age=600, must-revalidate"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        assertEquals("cached", StubHttpServer.read(interceptor.intercept(server.url("/page")).getData()));
+        assertEquals(1, server.getRequestCount("/page"));
+    }
+
+    @Test
+    public void offlineModeServesEntriesThatNeedRevalidation() throws IOException {
+
+        server.respond("/page", new StubHttpServer.Response(200, "cached").header("Cache-Control", "no-cache"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        interceptor.setOfflineMode(true);
+
+        assertEquals("cached", StubHttpServer.read(interceptor.intercept(server.url("/page")).getData()));
+        assertEquals(1, server.getRequestCount("/page"));
+    }
+
+    @Test
+    public void errorIsLeftToTheWebView() {
+
+        assertNull(interceptor.intercept(server.url("/missing")));
+        assertNotNull(server.getLastRequest("/missing"));
+    }
+
+    @Test
+    public void redirectIsLeftToTheWebView() {
+
+        server.respond("/old", new StubHttpServer.Response(301, "moved").header("Location", server.url("/new")));
+        server.respond("/new", new StubHttpServer.Response(200, "new"));
+
+        assertNull(interceptor.intercept(server.url("/old")));
+        assertEquals(0, server.getRequestCount("/new"));
+        assertFalse(cache.contains(server.url("/old")));
+    }
+
+    @Test
+    public void entryIsDroppedWhenItsRevalidationRedirects() throws Exception {
+
+        server.respond("/page", new StubHttpServer.Response(200, "old").header("ETag", "\"v1\"").header("Cache-Control", "max-age=0"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        server.respond("/page", new StubHttpServer.Response(302, "moved").header("Location", server.url("/new")));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        awaitRequests("/page", 2);
+        awaitRemoval(server.url("/page"));
+        assertEquals(0, server.getRequestCount("/new"));
+    }
+
+    @Test
+    public void offlineMissGetsThePlaceholder() throws IOException {
+
+        interceptor.setOfflineMode(true);
+        WebResource resource = interceptor.intercept(server.url("/page"));
+
+        assertTrue(StubHttpServer.read(resource.getData()).contains("Not available offline"));
+        assertEquals(0, server.getRequestCount("/page"));
+    }
+
+    @Test
+    public void requestsCarryTheWebViewsUserAgentAndCookies() throws IOException {
+
+        RecordingCookieJar cookieJar = new RecordingCookieJar();
+        cookieJar.cookie = "session=abc";
+        interceptor.setCookieJar(cookieJar);
+        interceptor.setUserAgent("GlassBrowser/1.0");
+
+        server.respond("/page", new StubHttpServer.Response(200, "hello")
+            .header("Set-Cookie", "seen=1; Path=/")
+            .header("Set-Cookie", "theme=dark"));
+        StubHttpServer.read(interceptor.intercept(server.url("/page")).getData());
+
+        assertEquals("GlassBrowser/1.0", server.getLastRequest("/page").getFirst("User-Agent"));
+        assertEquals("session=abc", server.getLastRequest("/page").getFirst("Cookie"));
+        assertEquals(new HashSet<String>(Arrays.asList("seen=1; Path=/", "theme=dark")), new HashSet<String>(cookieJar.received));
+        assertEquals(server.url("/page"), cookieJar.receivedFrom);
+    }
+
+    private void awaitRequests(String path, int count) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.getRequestCount(path) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getRequestCount(path));
+    }
+
+    private void awaitRemoval(String url) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (cache.contains(url) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(cache.contains(url));
+    }
+
+    private void awaitNotModified(int count) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (interceptor.getNotModifiedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, interceptor.getNotModifiedCount());
+    }
+
+
+    private static class RecordingCookieJar implements CookieJar {
+
+        String cookie;
+        String receivedFrom;
+        final List<String> received = new ArrayList<String>();
+
+        @Override
+        public String getCookie(String url) {
+            return cookie;
+        }
+
+        @Override
+        public void setCookie(String url, String setCookie) {
+
+            receivedFrom = url;
+            received.add(setCookie);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResponseCacheTest {
+
+    private static final String URL = "http://example.com/page";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesAreReloadedByTheNextCache() throws IOException {
+
+        ResponseCache first = new ResponseCache(folder.getRoot(), 1024 * 1024);
+        store(first, URL, "hello", true);
+
+        ResponseCache second = new ResponseCache(folder.getRoot(), 1024 * 1024);
+        ResponseCache.Entry entry = second.get(URL);
+
+        assertNotNull(entry);
+        assertEquals("text/html", entry.getMimeType());
+        assertEquals("\"v1\"", entry.getEtag());
+        assertTrue(entry.isRevalidationRequired());
+        assertEquals("hello", StubHttpServer.read(second.openBody(entry)));
+        assertEquals(5, second.getSize());
+    }
+
+    @Test
+    public void getWaitsForTheIndexToLoad() throws IOException {
+
+        ResponseCache first = new ResponseCache(folder.getRoot(), 1024 * 1024);
+        for (int i = 0; i < 200; i++) {
+            store(first, URL + i, "body " + i, false);
+        }
+
+        ResponseCache second = new ResponseCache(folder.getRoot(), 1024 * 1024);
+
+        assertNotNull(second.get(URL + 199));
+        assertTrue(second.contains(URL + 199));
+        assertEquals(200, second.getEntryCount());
+    }
+
+    @Test
+    public void leftoverTemporaryFilesAndOrphanedMetadataAreDeleted() throws IOException {
+
+        File temporary = new File(folder.getRoot(), "abc.1.tmp");
+        new FileOutputStream(temporary).close();
+        File orphan = new File(folder.getRoot(), "abc.meta");
+        new FileOutputStream(orphan).close();
+
+        ResponseCache cache = new ResponseCache(folder.getRoot(), 1024 * 1024);
+        assertNull(cache.get(URL));
+
+        assertFalse(temporary.exists());
+        assertFalse(orphan.exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() throws IOException {
+
+        ResponseCache cache = new ResponseCache(folder.getRoot(), 10);
+        store(cache, URL + 1, "12345", false);
+        store(cache, URL + 2, "12345", false);
+
+        cache.get(URL + 1);
+        store(cache, URL + 3, "12345", false);
+
+        assertTrue(cache.contains(URL + 1));
+        assertFalse(cache.contains(URL + 2));
+        assertTrue(cache.contains(URL + 3));
+    }
+
+    private static void store(ResponseCache cache, String url, String body, boolean revalidationRequired) throws IOException {
+
+        ResponseCache.Editor editor = cache.edit(url, "text/html", "UTF-8");
+        editor.setValidators("\"v1\"", null, System.currentTimeMillis() + 60000);
+        editor.setRevalidationRequired(revalidationRequired);
+        editor.getOutputStream().write(body.getBytes("UTF-8"));
+        editor.commit();
+    }
+}
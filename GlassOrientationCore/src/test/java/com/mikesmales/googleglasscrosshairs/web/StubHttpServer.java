@@ -0,0 +1,135 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *  A local HTTP server with canned responses, recording the requests it receives.
+ */
+class StubHttpServer {
+
+    static class Response {
+
+        final int status;
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        final byte[] body;
+
+        Response(int status, String body) {
+
+            this.status = status;
+            this.body = (body == null) ? null : body.getBytes();
+        }
+
+        Response header(String name, String value) {
+
+            if (!headers.containsKey(name))
+                headers.put(name, new ArrayList<String>());
+
+            headers.get(name).add(value);
+            return this;
+        }
+    }
+
+    private final HttpServer server;
+    private final Map<String, Response> responses = Collections.synchronizedMap(new HashMap<String, Response>());
+    private final List<Headers> requests = Collections.synchronizedList(new ArrayList<Headers>());
+    private final List<String> requestPaths = Collections.synchronizedList(new ArrayList<String>());
+
+    StubHttpServer() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    void respond(String path, Response response) {
+        responses.put(path, response);
+    }
+
+    int getRequestCount(String path) {
+        return Collections.frequency(requestPaths, path);
+    }
+
+    /**
+     *  The headers of the last request for path, or null if there was none.
+     */
+    Headers getLastRequest(String path) {
+
+        synchronized (requests) {
+            for (int i = requestPaths.size() - 1; i >= 0; i--) {
+                if (requestPaths.get(i).equals(path))
+                    return requests.get(i);
+            }
+        }
+        return null;
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+
+        String path = exchange.getRequestURI().getPath();
+
+        synchronized (requests) {
+            requestPaths.add(path);
+            requests.add(exchange.getRequestHeaders());
+        }
+
+        Response response = responses.get(path);
+        if (response == null)
+            response = new Response(404, "not found");
+
+        exchange.getResponseHeaders().putAll(response.headers);
+
+        if (response.body == null || response.status == 304) {
+            exchange.sendResponseHeaders(response.status, -1);
+        }
+        else {
+            exchange.sendResponseHeaders(response.status, response.body.length);
+            OutputStream output = exchange.getResponseBody();
+            output.write(response.body);
+            output.close();
+        }
+        exchange.close();
+    }
+
+    static String read(InputStream input) throws IOException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+        return output.toString("UTF-8");
+    }
+}
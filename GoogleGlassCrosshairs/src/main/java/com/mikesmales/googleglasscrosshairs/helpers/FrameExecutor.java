@@ -0,0 +1,59 @@
+package com.mikesmales.googleglasscrosshairs.helpers;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import android.content.Context;
+import android.os.Looper;
+
+/**
+ *  Runs submitted tasks on the looper's thread at the next display frame, in the order they were submitted.
+ *
+ *  Tasks from any thread are batched into one FrameHandler message per frame.
+ *  The two task lists are swapped rather than copied, so once they have grown to fit
+ *  the number of tasks per frame nothing is allocated.
+ */
+public class FrameExecutor implements Executor {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private FrameHandler frameHandler;
+
+    private ArrayList<Runnable> queued = new ArrayList<Runnable>(INITIAL_CAPACITY);
+    private ArrayList<Runnable> running = new ArrayList<Runnable>(INITIAL_CAPACITY);
+
+    public FrameExecutor(Context context, Looper looper) {
+        frameHandler = new FrameHandler(context, looper, runFrameTask);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+
+        synchronized (this) {
+            queued.add(task);
+        }
+        frameHandler.requestFrame();
+    }
+
+    private Runnable runFrameTask = new Runnable() {
+        public void run() {
+            runQueuedTasks();
+        }
+    };
+
+    private void runQueuedTasks() {
+
+        ArrayList<Runnable> tasks;
+
+        synchronized (this) {
+            tasks = queued;
+            queued = running;
+            running = tasks;
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).run();
+        }
+        tasks.clear();
+    }
+}
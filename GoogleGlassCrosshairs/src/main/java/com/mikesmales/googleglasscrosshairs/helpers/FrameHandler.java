@@ -0,0 +1,71 @@
+package com.mikesmales.googleglasscrosshairs.helpers;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.view.WindowManager;
+
+/**
+ *  Runs a task at most once per display frame, however often it is requested.
+ *
+ *  Requests can come from any thread, the task runs on the handler's looper at the next frame boundary.
+ *  Choreographer would align to the real vsync, but it needs API 16 and this app targets API 15,
+ *  so frames are derived from the display refresh rate instead.
+ */
+public class FrameHandler extends Handler
+{
+	private static final int MSG_FRAME = 1;
+	private static final float DEFAULT_REFRESH_RATE = 60.0f;
+
+	private Runnable runnable;
+	private long frameIntervalMillis;
+	private AtomicBoolean frameRequested = new AtomicBoolean();
+
+	public FrameHandler(Context context, Looper looper, Runnable aRunnable) {
+
+		super(looper);
+		runnable = aRunnable;
+		frameIntervalMillis = Math.max(1, Math.round(1000.0f / getRefreshRate(context)));
+	}
+
+	private static float getRefreshRate(Context context) {
+
+		WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+		float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+		return (refreshRate > 0) ? refreshRate : DEFAULT_REFRESH_RATE;
+	}
+
+	@Override
+	public void handleMessage(Message msg) {
+
+		frameRequested.set(false);
+		runnable.run();
+	}
+
+	public void requestFrame() {
+
+		if (frameRequested.compareAndSet(false, true)) {
+			sendEmptyMessageAtTime(MSG_FRAME, getNextFrameTime());
+		}
+	}
+
+	public void cancel() {
+
+		removeMessages(MSG_FRAME);
+		frameRequested.set(false);
+	}
+
+	public long getFrameIntervalMillis() {
+		return frameIntervalMillis;
+	}
+
+	private long getNextFrameTime() {
+
+		long now = SystemClock.uptimeMillis();
+		return (now / frameIntervalMillis + 1) * frameIntervalMillis;
+	}
+}
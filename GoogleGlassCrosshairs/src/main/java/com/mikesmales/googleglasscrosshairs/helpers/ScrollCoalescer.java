@@ -0,0 +1,142 @@
+package com.mikesmales.googleglasscrosshairs.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+import android.os.Looper;
+import android.view.View;
+
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyRecorder;
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyStage;
+
+/**
+ *  Collects scroll deltas from any number of sources and applies them to a view
+ *  with at most one scrollBy per display frame.
+ *
+ *  Deltas are summed as floats and only whole pixels are scrolled,
+ *  the fractional remainder is carried into the next frame so slow movements are not lost to truncation.
+ *
+ *  Sources that move the view every frame, such as ScrollPhysics, register as a FrameSource
+ *  instead of running frames of their own. They are stepped at the start of each frame and their
+ *  movement is applied with everything else, so the view is only ever scrolled from here.
+ *
+ *  All methods must be called on the main thread.
+ */
+public class ScrollCoalescer {
+
+    public interface FrameSource {
+
+        /**
+         *  Called at the start of a frame the source asked for with requestFrame.
+         *  The source adds its movement for the frame with scrollBy.
+         */
+        void onFrame();
+    }
+
+    private View target;
+    private FrameHandler frameHandler;
+    private LatencyRecorder latencyRecorder;
+    private final List<FrameSource> frameSources = new ArrayList<FrameSource>();
+
+    private float pendingX;
+    private float pendingY;
+    private boolean flushing;
+
+    private long frames;
+    private long scrollCalls;
+
+    public ScrollCoalescer(Context context, View target) {
+
+        this.target = target;
+        frameHandler = new FrameHandler(context, Looper.getMainLooper(), flushTask);
+    }
+
+    public void setTarget(View target) {
+
+        this.target = target;
+        clear();
+    }
+
+    public void addFrameSource(FrameSource frameSource) {
+        frameSources.add(frameSource);
+    }
+
+    /**
+     *  Records the SCROLL stage for each flush that moves the view, or stops recording when null.
+     */
+    public void setLatencyRecorder(LatencyRecorder latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    public void scrollBy(float deltaX, float deltaY) {
+
+        pendingX += deltaX;
+        pendingY += deltaY;
+
+        // during a flush the movement is applied by the flush itself
+        if (!flushing && (Math.abs(pendingX) >= 1.0f || Math.abs(pendingY) >= 1.0f)) {
+            frameHandler.requestFrame();
+        }
+    }
+
+    /**
+     *  Steps every frame source at the next frame. A source asks again from onFrame to keep moving.
+     */
+    public void requestFrame() {
+        frameHandler.requestFrame();
+    }
+
+    /**
+     *  Drops any pending movement, for example when head tracking stops.
+     *  Frame sources are stopped separately, a glide can carry on.
+     */
+    public void clear() {
+
+        pendingX = 0;
+        pendingY = 0;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     *  How many times the view has actually been scrolled.
+     */
+    public long getScrollCalls() {
+        return scrollCalls;
+    }
+
+    private Runnable flushTask = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    private void flush() {
+
+        frames++;
+        flushing = true;
+
+        for (int i = 0; i < frameSources.size(); i++) {
+            frameSources.get(i).onFrame();
+        }
+
+        flushing = false;
+
+        int x = (int) pendingX;
+        int y = (int) pendingY;
+
+        pendingX -= x;
+        pendingY -= y;
+
+        if (target != null && (x != 0 || y != 0)) {
+            target.scrollBy(x, y);
+            scrollCalls++;
+
+            if (latencyRecorder != null)
+                latencyRecorder.recordPending(LatencyStage.SCROLL);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.mikesmales.googleglasscrosshairs.helpers;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.OverScroller;
+
+/**
+ *  Scrolls a view smoothly from head angular velocity.
+ *
+ *  Each head update sets a target scroll velocity through a response curve, so small movements are
+ *  finer than large ones. The view is advanced once per display frame, with the scroll velocity easing
+ *  towards the target however far apart the head updates are. When the head stops the page glides to
+ *  a halt with OverScroller's fling deceleration, and near the ends of the page the movement is damped
+ *  so it comes to rest at the edge instead of hitting it.
+ *
+ *  Frames come from a ScrollCoalescer, which the movement is also handed to, so head scrolling and
+ *  any other scrolling in the same frame reach the view as a single scrollBy.
+ *  All methods must be called on the main thread.
+ */
+public class ScrollPhysics {
+
+    /**
+     *  How far the target can scroll, a plain View does not say.
+     */
+    public interface ScrollBounds {
+
+        int getMaxScrollX();
+
+        int getMaxScrollY();
+    }
+
+    public static final float DEFAULT_EXPONENT = 1.25f;
+
+    /** Time constant of the velocity following the head. */
+    private static final float ACCELERATION_TIME_CONSTANT_MILLIS = 60;
+
+    /** Head updates can stop arriving without a stop, for example when tracking is paused. */
+    private static final long INPUT_TIMEOUT_MILLIS = 300;
+
+    private static final float EDGE_RESISTANCE_DISTANCE = 120;
+    private static final float STOPPED_VELOCITY = 5;
+    private static final float MAX_FRAME_SECONDS = 0.1f;
+
+    private View target;
+    private ScrollBounds bounds;
+    private ScrollCoalescer sink;
+    private OverScroller scroller;
+
+    private float gain;
+    private float exponent = DEFAULT_EXPONENT;
+
+    private float targetVelocityX;
+    private float targetVelocityY;
+    private float velocityX;
+    private float velocityY;
+    private long lastInputTime;
+    private long lastFrameTime;
+    private boolean running;
+
+    private boolean flinging;
+    private float flingDirectionX;
+    private float flingDirectionY;
+
+    private long framesStepped;
+
+    /**
+     *  gain is the scroll speed in pixels per second at a head speed of one radian per second.
+     *  The sink should scroll the same target.
+     */
+    public ScrollPhysics(Context context, ScrollCoalescer sink, View target, ScrollBounds bounds, float gain) {
+
+        this.sink = sink;
+        this.target = target;
+        this.bounds = bounds;
+        this.gain = gain;
+
+        scroller = new OverScroller(context);
+        sink.addFrameSource(frameSource);
+    }
+
+    public void setTarget(View target, ScrollBounds bounds) {
+
+        stop();
+        this.target = target;
+        this.bounds = bounds;
+    }
+
+    /**
+     *  Scroll speed = gain * headSpeed ^ exponent. An exponent above 1 makes slow movements finer, 1 is linear.
+     */
+    public void setResponseCurve(float gain, float exponent) {
+
+        this.gain = gain;
+        this.exponent = exponent;
+    }
+
+    /**
+     *  Lower friction glides further after the head stops.
+     */
+    public void setFriction(float friction) {
+        scroller.setFriction(friction);
+    }
+
+    /**
+     *  The head's angular speeds in radians per second, already in the scroll direction.
+     */
+    public void setHeadVelocity(float x, float y) {
+
+        targetVelocityX = applyResponseCurve(x);
+        targetVelocityY = applyResponseCurve(y);
+        lastInputTime = SystemClock.uptimeMillis();
+
+        if (flinging)
+            resumeFromFling();
+
+        startFrames();
+    }
+
+    /**
+     *  The head is still turning at the speeds last given to setHeadVelocity.
+     */
+    public void holdHeadVelocity() {
+        lastInputTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     *  The head has come to rest, the page glides to a halt.
+     */
+    public void release() {
+
+        targetVelocityX = 0;
+        targetVelocityY = 0;
+
+        if (!flinging && isMoving()) {
+            startFling();
+            startFrames();
+        }
+    }
+
+    /**
+     *  Stops dead, for example when tracking stops.
+     */
+    public void stop() {
+
+        running = false;
+        scroller.forceFinished(true);
+        flinging = false;
+
+        targetVelocityX = targetVelocityY = 0;
+        velocityX = velocityY = 0;
+        lastFrameTime = 0;
+    }
+
+    public boolean isMoving() {
+        return flinging || Math.abs(velocityX) > STOPPED_VELOCITY || Math.abs(velocityY) > STOPPED_VELOCITY;
+    }
+
+    public long getFramesStepped() {
+        return framesStepped;
+    }
+
+    public void format(StringBuilder builder) {
+
+        builder.append("scroll frames ").append(framesStepped).append('/').append(sink.getFrames());
+        builder.append(" calls ").append(sink.getScrollCalls());
+        builder.append(" v ").append(Math.round(velocityX)).append(',').append(Math.round(velocityY)).append(" px/s\n");
+    }
+
+    private float applyResponseCurve(float headSpeed) {
+
+        float speed = gain * (float) Math.pow(Math.abs(headSpeed), exponent);
+        return (headSpeed < 0) ? -speed : speed;
+    }
+
+    private void startFrames() {
+
+        if (lastFrameTime == 0)
+            lastFrameTime = SystemClock.uptimeMillis();
+
+        running = true;
+        sink.requestFrame();
+    }
+
+    private ScrollCoalescer.FrameSource frameSource = new ScrollCoalescer.FrameSource() {
+
+        @Override
+        public void onFrame() {
+
+            // the frame may have been asked for by another source
+            if (running)
+                step();
+        }
+    };
+
+    private void step() {
+
+        long now = SystemClock.uptimeMillis();
+        float dT = Math.min(MAX_FRAME_SECONDS, (now - lastFrameTime) / 1000.0f);
+        lastFrameTime = now;
+        framesStepped++;
+
+        if (flinging) {
+            stepFling();
+        }
+        else {
+            if (now - lastInputTime > INPUT_TIMEOUT_MILLIS)
+                release();
+
+            if (!flinging)
+                stepTracking(dT);
+        }
+
+        if (isMoving() || targetVelocityX != 0 || targetVelocityY != 0) {
+            sink.requestFrame();
+        }
+        else {
+            velocityX = velocityY = 0;
+            lastFrameTime = 0;
+            running = false;
+        }
+    }
+
+    private void stepTracking(float dT) {
+
+        float blend = 1.0f - (float) Math.exp(-dT * 1000 / ACCELERATION_TIME_CONSTANT_MILLIS);
+        velocityX += (targetVelocityX - velocityX) * blend;
+        velocityY += (targetVelocityY - velocityY) * blend;
+
+        float deltaX = velocityX * dT * getEdgeResistance(target.getScrollX(), bounds.getMaxScrollX(), velocityX);
+        float deltaY = velocityY * dT * getEdgeResistance(target.getScrollY(), bounds.getMaxScrollY(), velocityY);
+
+        sink.scrollBy(deltaX, deltaY);
+    }
+
+    /**
+     *  1 away from the edges, falling to 0 at the edge being scrolled towards.
+     */
+    private static float getEdgeResistance(int position, int max, float velocity) {
+
+        float remaining = (velocity < 0) ? position : max - position;
+
+        if (remaining <= 0)
+            return 0;
+
+        return Math.min(1.0f, remaining / EDGE_RESISTANCE_DISTANCE);
+    }
+
+    private void startFling() {
+
+        int startX = target.getScrollX();
+        int startY = target.getScrollY();
+
+        scroller.fling(startX, startY, Math.round(velocityX), Math.round(velocityY),
+                       0, Math.max(0, bounds.getMaxScrollX()), 0, Math.max(0, bounds.getMaxScrollY()));
+
+        float speed = (float) Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+        flingDirectionX = (speed > 0) ? velocityX / speed : 0;
+        flingDirectionY = (speed > 0) ? velocityY / speed : 0;
+        flinging = true;
+    }
+
+    private void stepFling() {
+
+        if (!scroller.computeScrollOffset()) {
+            flinging = false;
+            velocityX = velocityY = 0;
+            return;
+        }
+
+        float speed = scroller.getCurrVelocity();
+        velocityX = flingDirectionX * speed;
+        velocityY = flingDirectionY * speed;
+
+        sink.scrollBy(scroller.getCurrX() - target.getScrollX(), scroller.getCurrY() - target.getScrollY());
+    }
+
+    /**
+     *  A new head movement during a glide carries on from the glide's velocity.
+     */
+    private void resumeFromFling() {
+
+        if (scroller.computeScrollOffset()) {
+
+            float speed = scroller.getCurrVelocity();
+            velocityX = flingDirectionX * speed;
+            velocityY = flingDirectionY * speed;
+        }
+
+        scroller.forceFinished(true);
+        flinging = false;
+    }
+}
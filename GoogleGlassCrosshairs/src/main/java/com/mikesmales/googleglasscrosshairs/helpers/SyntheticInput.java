@@ -0,0 +1,266 @@
+package com.mikesmales.googleglasscrosshairs.helpers;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+
+/**
+ *  Generates touch gestures on a view: taps, long presses and drags, at any point within the view's real size.
+ *
+ *  Drags are driven by movement deltas, for example from head motion. The samples are collected between frames
+ *  and sent as one ACTION_MOVE per frame carrying the earlier samples as history, the way real touch input arrives.
+ *  A selection drag holds still for the long press timeout first, so the view selects text rather than scrolling.
+ *
+ *  Every event is obtained from the MotionEvent pool and recycled as soon as it has been dispatched,
+ *  and the sample buffer is allocated once, so gestures allocate nothing.
+ *
+ *  All methods must be called on the main thread.
+ */
+public class SyntheticInput {
+
+    private static final int MAX_BATCH_SAMPLES = 32;
+    private static final long TAP_DURATION_MILLIS = 50;
+
+    /** Released a little after the timeout, so the view has seen the long press before the up arrives. */
+    private static final long LONG_PRESS_MARGIN_MILLIS = 100;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_PRESSED = 1;
+    private static final int STATE_DRAGGING = 2;
+
+    private View target;
+    private Handler handler;
+    private FrameHandler frameHandler;
+    private long longPressMillis;
+
+    private int state = STATE_IDLE;
+    private long downTime;
+    private long movesAllowedAt;
+    private float pointerX;
+    private float pointerY;
+
+    private long[] sampleTimes = new long[MAX_BATCH_SAMPLES];
+    private float[] sampleX = new float[MAX_BATCH_SAMPLES];
+    private float[] sampleY = new float[MAX_BATCH_SAMPLES];
+    private int sampleCount;
+
+    private long eventsDispatched;
+    private long samplesDispatched;
+
+    public SyntheticInput(Context context, View target) {
+
+        this.target = target;
+        handler = new Handler(Looper.getMainLooper());
+        frameHandler = new FrameHandler(context, Looper.getMainLooper(), flushMovesTask);
+        longPressMillis = ViewConfiguration.getLongPressTimeout() + LONG_PRESS_MARGIN_MILLIS;
+    }
+
+    public void setTarget(View target) {
+
+        cancel();
+        this.target = target;
+    }
+
+    public float getCenterX() {
+        return target.getWidth() / 2.0f;
+    }
+
+    public float getCenterY() {
+        return target.getHeight() / 2.0f;
+    }
+
+    public void tap(float x, float y) {
+
+        cancel();
+
+        long now = SystemClock.uptimeMillis();
+        x = clampX(x);
+        y = clampY(y);
+
+        dispatch(MotionEvent.ACTION_DOWN, now, now, x, y);
+        dispatch(MotionEvent.ACTION_UP, now, now + TAP_DURATION_MILLIS, x, y);
+    }
+
+    /**
+     *  Presses and holds until the view has recognised a long press, then releases.
+     */
+    public void longPress(float x, float y) {
+
+        press(x, y);
+        state = STATE_PRESSED;
+        handler.postDelayed(releaseTask, longPressMillis);
+    }
+
+    /**
+     *  Presses and keeps the pointer down, it then follows moveBy until endDrag.
+     *  With select the pointer holds still for a long press first, moves made meanwhile are sent once it has passed.
+     */
+    public void startDrag(float x, float y, boolean select) {
+
+        press(x, y);
+        state = STATE_DRAGGING;
+        movesAllowedAt = select ? downTime + longPressMillis : downTime;
+    }
+
+    public void moveBy(float deltaX, float deltaY) {
+
+        if (state != STATE_DRAGGING)
+            return;
+
+        pointerX = clampX(pointerX + deltaX);
+        pointerY = clampY(pointerY + deltaY);
+
+        addSample(SystemClock.uptimeMillis(), pointerX, pointerY);
+        frameHandler.requestFrame();
+    }
+
+    public void endDrag() {
+
+        if (state != STATE_DRAGGING)
+            return;
+
+        frameHandler.cancel();
+        dispatchMoves();
+        dispatch(MotionEvent.ACTION_UP, downTime, SystemClock.uptimeMillis(), pointerX, pointerY);
+        state = STATE_IDLE;
+    }
+
+    public boolean isDragging() {
+        return state == STATE_DRAGGING;
+    }
+
+    /**
+     *  Abandons any gesture in progress, the view gets an ACTION_CANCEL so it is not left waiting for an up.
+     */
+    public void cancel() {
+
+        if (state == STATE_IDLE)
+            return;
+
+        handler.removeCallbacks(releaseTask);
+        frameHandler.cancel();
+        sampleCount = 0;
+
+        dispatch(MotionEvent.ACTION_CANCEL, downTime, SystemClock.uptimeMillis(), pointerX, pointerY);
+        state = STATE_IDLE;
+    }
+
+    public long getEventsDispatched() {
+        return eventsDispatched;
+    }
+
+    /**
+     *  Samples sent, including those carried as history, so samples / events is the average batch size.
+     */
+    public long getSamplesDispatched() {
+        return samplesDispatched;
+    }
+
+    private void press(float x, float y) {
+
+        cancel();
+
+        downTime = SystemClock.uptimeMillis();
+        pointerX = clampX(x);
+        pointerY = clampY(y);
+
+        dispatch(MotionEvent.ACTION_DOWN, downTime, downTime, pointerX, pointerY);
+    }
+
+    private Runnable releaseTask = new Runnable() {
+        public void run() {
+            release();
+        }
+    };
+
+    private void release() {
+
+        if (state != STATE_PRESSED)
+            return;
+
+        dispatch(MotionEvent.ACTION_UP, downTime, SystemClock.uptimeMillis(), pointerX, pointerY);
+        state = STATE_IDLE;
+    }
+
+    private Runnable flushMovesTask = new Runnable() {
+        public void run() {
+            flushMoves();
+        }
+    };
+
+    private void flushMoves() {
+
+        if (state != STATE_DRAGGING || sampleCount == 0)
+            return;
+
+        if (SystemClock.uptimeMillis() < movesAllowedAt) {
+            frameHandler.requestFrame();
+            return;
+        }
+
+        dispatchMoves();
+    }
+
+    private void dispatchMoves() {
+
+        if (sampleCount == 0)
+            return;
+
+        MotionEvent event = MotionEvent.obtain(downTime, sampleTimes[0], MotionEvent.ACTION_MOVE, sampleX[0], sampleY[0], 0);
+
+        try {
+            for (int i = 1; i < sampleCount; i++) {
+                event.addBatch(sampleTimes[i], sampleX[i], sampleY[i], 1.0f, 1.0f, 0);
+            }
+            target.dispatchTouchEvent(event);
+        } finally {
+            event.recycle();
+        }
+
+        eventsDispatched++;
+        samplesDispatched += sampleCount;
+        sampleCount = 0;
+    }
+
+    /**
+     *  When the buffer is full the newest sample replaces the last, the path is still right at its end.
+     */
+    private void addSample(long time, float x, float y) {
+
+        int index = (sampleCount < MAX_BATCH_SAMPLES) ? sampleCount++ : MAX_BATCH_SAMPLES - 1;
+
+        sampleTimes[index] = time;
+        sampleX[index] = x;
+        sampleY[index] = y;
+    }
+
+    private void dispatch(int action, long downTime, long eventTime, float x, float y) {
+
+        MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, x, y, 0);
+
+        try {
+            target.dispatchTouchEvent(event);
+        } finally {
+            event.recycle();
+        }
+
+        eventsDispatched++;
+        samplesDispatched++;
+    }
+
+    private float clampX(float x) {
+
+        int width = target.getWidth();
+        return (width > 0) ? Math.max(0, Math.min(width - 1, x)) : x;
+    }
+
+    private float clampY(float y) {
+
+        int height = target.getHeight();
+        return (height > 0) ? Math.max(0, Math.min(height - 1, y)) : y;
+    }
+}
@@ -0,0 +1,180 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+import android.app.Activity;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ *  Delivers samples from the device's accelerometer, gyroscope and magnetometer.
+ *
+ *  Events arrive either on the main looper or on a dedicated sensor thread.
+ *  Until a motion state is given every sensor runs at SENSOR_DELAY_NORMAL,
+ *  after that the rates follow the state.
+ *
+ *  The motion state arrives from the fusion stage while start and stop are called from the main thread,
+ *  so every registration change happens under one lock, and none once the source has stopped.
+ */
+public class AndroidSensorSource implements SensorSource {
+
+    private static final int SENSOR_PAUSED = -1;
+
+    private SensorManager sensorManager;
+    private boolean useSensorThread;
+
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+
+    private volatile SensorSampleRing.SampleHandler sink;
+
+    private final Object registrationLock = new Object();
+    private boolean started;
+    private MotionState motionState;
+
+    public AndroidSensorSource(Context aContext, boolean useSensorThread) {
+
+        this.useSensorThread = useSensorThread;
+        sensorManager = (SensorManager) aContext.getSystemService(Activity.SENSOR_SERVICE);
+    }
+
+    @Override
+    public void start(SensorSampleRing.SampleHandler sink) {
+
+        synchronized (registrationLock) {
+
+            this.sink = sink;
+            started = true;
+
+            if (useSensorThread) {
+                startSensorThread();
+            }
+            initialiseSensorListeners();
+        }
+    }
+
+    @Override
+    public void stop() {
+
+        synchronized (registrationLock) {
+
+            started = false;
+            sink = null;
+            sensorManager.unregisterListener(sensorEventListener);
+            stopSensorThread();
+        }
+    }
+
+    /**
+     *  Sensor events are delivered to this thread's looper, so sensor processing and fusion
+     *  never run on, or wait behind, the main thread.
+     */
+    private void startSensorThread() {
+
+        sensorThread = new HandlerThread("GlassOrientationSensors");
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+    }
+
+    private void stopSensorThread() {
+
+        if (sensorThread == null)
+            return;
+
+        sensorThread.quit();
+        sensorThread = null;
+        sensorHandler = null;
+    }
+
+	/**
+	 *  With a null sensorHandler, events are delivered on the main looper.
+	 */
+	private void initialiseSensorListeners() {
+
+        registerSensor(Sensor.TYPE_ACCELEROMETER);
+		registerSensor(Sensor.TYPE_GYROSCOPE);
+		registerSensor(Sensor.TYPE_MAGNETIC_FIELD);
+	}
+
+    private void registerSensor(int sensorType) {
+
+        int rate = getSamplingRate(sensorType);
+
+        if (rate != SENSOR_PAUSED) {
+            sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(sensorType), rate, sensorHandler);
+        }
+    }
+
+    /**
+     *  Re-registers each sensor at the rate for the new motion state.
+     *  Called from the fusion stage when the detector changes state, which can be just after stop.
+     */
+    @Override
+    public void setMotionState(MotionState state) {
+
+        synchronized (registrationLock) {
+
+            motionState = state;
+
+            if (!started)
+                return;
+
+            reregisterSensor(Sensor.TYPE_ACCELEROMETER);
+            reregisterSensor(Sensor.TYPE_GYROSCOPE);
+            reregisterSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        }
+    }
+
+    private void reregisterSensor(int sensorType) {
+
+        sensorManager.unregisterListener(sensorEventListener, sensorManager.getDefaultSensor(sensorType));
+        registerSensor(sensorType);
+    }
+
+    /**
+     *  Fast sampling while the head moves, slower once it is still,
+     *  and the magnetometer paused after a long stillness as the heading cannot have changed.
+     *  The gyro always stays fast enough to notice the next movement quickly.
+     */
+    private int getSamplingRate(int sensorType) {
+
+        if (motionState == null)
+            return SensorManager.SENSOR_DELAY_NORMAL;
+
+        switch (motionState) {
+
+            case MOVING:
+                return SensorManager.SENSOR_DELAY_GAME;
+
+            case STILL:
+                return (sensorType == Sensor.TYPE_GYROSCOPE) ? SensorManager.SENSOR_DELAY_UI : SensorManager.SENSOR_DELAY_NORMAL;
+
+            default:
+                if (sensorType == Sensor.TYPE_MAGNETIC_FIELD)
+                    return SENSOR_PAUSED;
+
+                return (sensorType == Sensor.TYPE_GYROSCOPE) ? SensorManager.SENSOR_DELAY_UI : SensorManager.SENSOR_DELAY_NORMAL;
+        }
+    }
+
+
+    private SensorEventListener sensorEventListener = new SensorEventListener() {
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+
+            SensorSampleRing.SampleHandler currentSink = sink;
+
+            if (currentSink != null)
+                currentSink.onSample(event.sensor.getType(), event.timestamp, event.values[0], event.values[1], event.values[2]);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+        }
+    };
+}
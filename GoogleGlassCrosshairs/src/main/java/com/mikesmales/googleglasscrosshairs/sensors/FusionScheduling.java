@@ -0,0 +1,13 @@
+package com.mikesmales.googleglasscrosshairs.sensors;
+
+public enum FusionScheduling {
+
+    /** Sensors are delivered on the main looper and fusion runs on the fusion thread every TIME_CONSTANT ms. */
+    TIMER,
+
+    /**
+     *  Sensors are delivered on a dedicated sensor thread and fusion runs straight after each gyro sample.
+     *  The observer is called on the main thread at most once per display frame.
+     */
+    SENSOR_EVENT
+}
@@ -1,17 +1,18 @@
 package com.mikesmales.googleglasscrosshairs.sensors;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import android.app.Activity;
 import android.content.Context;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.os.Handler;
+import android.os.Looper;
 
-import static com.mikesmales.googleglasscrosshairs.sensors.MatrixHelper.checkForPositiveNegativeAngleMismatch;
+import com.mikesmales.googleglasscrosshairs.helpers.FrameExecutor;
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyRecorder;
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyStage;
 
 /**
  *  Tracks head orientation using a sensor fusion approach.
@@ -21,66 +22,94 @@ import static com.mikesmales.googleglasscrosshairs.sensors.MatrixHelper.checkFor
  *
  *  Therefore, Orientation data from the accelerometer, magnetic compass, and gyro are combined
  *  in order to mitigate the effects of sensor error.
+ *  The fusion itself lives in an OrientationEngine, which has no Android dependencies,
+ *  this class feeds it from a SensorSource and publishes each fused update on an OrientationBus.
  */
 public class GlassOrientationTracker {
 
-    private static final float NS2S = 1.0f / 1000000000.0f;
-    private float timestamp;
-    private boolean initState = true;
-
     public static final int TIME_CONSTANT = 30;
-    public static final float FILTER_COEFFICIENT = 0.98f;
+    public static final float FILTER_COEFFICIENT = EulerOrientationFusion.FILTER_COEFFICIENT;
 
-    final float ONE_MINUS_FILTER_COEFFICIENT = 1.0f - FILTER_COEFFICIENT;
+    private SensorSource sensorSource;
+    private volatile SensorTraceWriter traceWriter;
 
-    private SensorManager sensorManager;
+	private boolean adaptiveSampling;
+	private MotionStateDetector motionDetector = new MotionStateDetector();
 
-	private float[] gyroAngularSpeeds = new float[3];
-	private float[] gyroSum = new float[] { 0f, 0f, 0f };
-	private float[] gyroRotationMatrix = new float[9];
-	private float[] gyroOrientationAngles = new float[3];
+	private static final int SAMPLE_RING_CAPACITY = 256;
+	private SensorSampleRing sampleRing = new SensorSampleRing(SAMPLE_RING_CAPACITY);
+
+	private OrientationEngine engine;
+	private FusionScheduling scheduling;
+
+	/**
+	 *  The fusion thread. It runs the ticks under TIMER scheduling and every reset of the fusion state,
+	 *  one task at a time, so a new tick never starts while the last one is still draining.
+	 *  Under SENSOR_EVENT scheduling the sensor thread drains the ring itself, holding fusionLock.
+	 */
+	private ScheduledThreadPoolExecutor fusionExecutor;
+	private ScheduledFuture<?> fusionTick;
+	private final Object fusionLock = new Object();
+
+	private volatile boolean tracking;
 
-	private float[] magnetometerArray = new float[3];
-	private float[] accelerometerArray = new float[3];
-	private float[] accMagOrientationAngles = new float[3];
-	private float[] accMagRotationMatrix = new float[9];
+	private OrientationBus orientationBus = new OrientationBus();
+	private FrameExecutor mainThreadExecutor;
+	private volatile LatencyRecorder latencyRecorder;
+	private volatile OrientationPredictor predictor;
 
 	private float[] fusedOrientationAngles = new float[3];
+	private float[] gyroAngularSpeeds = new float[3];
+	private float[] gyroSum = new float[3];
+	private float[] gyroBias = new float[3];
 
-    private Timer warmupTimer;
-	private Handler callbackHandle;
-	private GlassOrientationObserver observer;
-	
-	public GlassOrientationTracker(final Context aContext, GlassOrientationObserver observer) {
+	private static final String STATE_FILE = "orientation_state";
+	private static final long MAX_ORIENTATION_AGE_MILLIS = 60000;
 
-		this.observer = observer;
+	/** Shared by every tracker in the process, so a new tracker starts where the last one stopped. */
+	private static OrientationState cachedState;
 
-        initialiseGyroOrientationAngles();
-        initialiseGyroRotationMatrixWithIdentityMatrix();
+	private File stateFile;
+	/** Only touched on the fusion thread. */
+	private boolean stateRestored;
 
-		sensorManager = (SensorManager) aContext.getSystemService(Activity.SENSOR_SERVICE);
-		callbackHandle = new Handler();
+	public GlassOrientationTracker(final Context aContext, GlassOrientationObserver observer) {
+		this(aContext, observer, FusionMode.EULER, FusionScheduling.TIMER);
 	}
 
-    private void initialiseGyroOrientationAngles() {
+	public GlassOrientationTracker(final Context aContext, GlassOrientationObserver observer, FusionMode fusionMode) {
+		this(aContext, observer, fusionMode, FusionScheduling.TIMER);
+	}
 
-        gyroOrientationAngles[0] = 0.0f;
-        gyroOrientationAngles[1] = 0.0f;
-        gyroOrientationAngles[2] = 0.0f;
-    }
+	public GlassOrientationTracker(final Context aContext, GlassOrientationObserver observer, FusionMode fusionMode, FusionScheduling scheduling) {
 
-    private void initialiseGyroRotationMatrixWithIdentityMatrix() {
-
-        gyroRotationMatrix[0] = 1.0f;
-        gyroRotationMatrix[1] = 0.0f;
-        gyroRotationMatrix[2] = 0.0f;
-        gyroRotationMatrix[3] = 0.0f;
-        gyroRotationMatrix[4] = 1.0f;
-        gyroRotationMatrix[5] = 0.0f;
-        gyroRotationMatrix[6] = 0.0f;
-        gyroRotationMatrix[7] = 0.0f;
-        gyroRotationMatrix[8] = 1.0f;
-    }
+		this.engine = new OrientationEngine(fusionMode);
+		this.scheduling = scheduling;
+
+		sensorSource = new AndroidSensorSource(aContext, scheduling == FusionScheduling.SENSOR_EVENT);
+		stateFile = new File(aContext.getFilesDir(), STATE_FILE);
+		mainThreadExecutor = new FrameExecutor(aContext, Looper.getMainLooper());
+
+		fusionExecutor = new ScheduledThreadPoolExecutor(1, fusionThreadFactory);
+		fusionExecutor.setKeepAliveTime(1, TimeUnit.SECONDS);
+		fusionExecutor.allowCoreThreadTimeOut(true);
+
+		if (observer != null) {
+			subscribeOnMainThread(new ObserverAdapter(observer), 1);
+		}
+	}
+
+	/**
+	 *  The bus every fused update is published on. Subscribers can use any executor,
+	 *  subscribeOnMainThread delivers at most once per display frame.
+	 */
+	public OrientationBus getOrientationBus() {
+		return orientationBus;
+	}
+
+	public void subscribeOnMainThread(OrientationSubscriber subscriber, int decimation) {
+		orientationBus.subscribe(subscriber, decimation, mainThreadExecutor);
+	}
 
 
 	public void onPause() {
@@ -88,229 +117,411 @@ public class GlassOrientationTracker {
 	}
 
     private void unregisterSensorsToSaveBatteryLife() {
-        sensorManager.unregisterListener(sensorEventListener);
-        warmupTimer.cancel();
+
+        if (!tracking)
+            return;
+
+        tracking = false;
+        sensorSource.stop();
+
+        if (fusionTick != null) {
+            // a tick already running finishes before any task queued after it starts
+            fusionTick.cancel(false);
+            fusionTick = null;
+        }
+
+        fusionExecutor.execute(saveStateTask);
     }
 
 	public void onResume() {
 
-		initialiseSensorListeners();
-        waitForInitialSensorDataToBeCollected();
+        if (tracking)
+            return;
+
+        tracking = true;
+        fusionExecutor.execute(resetFusionTask);
+
+        if (adaptiveSampling) {
+            // the state the detector starts from after its reset
+            sensorSource.setMotionState(MotionState.MOVING);
+        }
+        sensorSource.start(sampleSink);
+
+        if (scheduling == FusionScheduling.TIMER) {
+            scheduleFusionTask();
+        }
 	}
 
     /**
-     *   Wait for one second to initialise magnetometer/accelerometer
-     *   Then schedule the sensor fusion task
+     *  There is no warmup wait, fusion steps are skipped until the first accelerometer/magnetometer fix,
+     *  or run from the first tick when the engine was started from a saved state or kept its own across the pause.
      */
-    private void waitForInitialSensorDataToBeCollected() {
+    private void scheduleFusionTask() {
 
-        warmupTimer = new Timer();
-        warmupTimer.scheduleAtFixedRate(new calculateFusedOrientationTask(), 1000, TIME_CONSTANT);
+        fusionTick = fusionExecutor.scheduleAtFixedRate(new calculateFusedOrientationTask(), 0, TIME_CONSTANT, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     *  Runs on the fusion thread before the first tick after a resume. Samples still queued from before
+     *  the pause are discarded rather than fused, their timestamps would undo resetSensorData and the
+     *  whole pause would be integrated as a single gyro step.
+     *  A new tracker's saved state is read here too, off the main thread.
+     */
+    private Runnable resetFusionTask = new Runnable() {
+
+        @Override
+        public void run() {
+
+            OrientationState state = stateRestored ? null : loadWarmStartState();
+            stateRestored = true;
 
-	public void initialiseSensorListeners() {
+            synchronized (fusionLock) {
 
-        sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_NORMAL);
-		sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE), SensorManager.SENSOR_DELAY_NORMAL);
-		sensorManager.registerListener(sensorEventListener, sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), SensorManager.SENSOR_DELAY_NORMAL);
-	}
+                sampleRing.clear();
+                motionDetector.reset();
+                engine.setMotionState(motionDetector.getState());
+                engine.resetSensorData();
 
+                if (state != null)
+                    engine.restoreState(state, state.isOrientationFresh(System.currentTimeMillis(), MAX_ORIENTATION_AGE_MILLIS));
 
-    private SensorEventListener sensorEventListener = new SensorEventListener() {
+                OrientationPredictor currentPredictor = predictor;
+                if (currentPredictor != null)
+                    currentPredictor.reset();
+            }
+        }
+    };
+
+    /**
+     *  Runs on the fusion thread after a pause, once the last tick has finished,
+     *  so the engine is read by the thread that owns it and the file is written off the main thread.
+     */
+    private Runnable saveStateTask = new Runnable() {
 
         @Override
-        public void onSensorChanged(SensorEvent event) {
+        public void run() {
+            saveWarmStartState();
+        }
+    };
 
-            switch (event.sensor.getType()) {
+    private static ThreadFactory fusionThreadFactory = new ThreadFactory() {
 
-                case Sensor.TYPE_ACCELEROMETER:
-                    processAccelerometerData(event);
-                    calculateOrientationAnglesFromAccelrometerAndMagnetometerOutput();
-                    break;
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "GlassOrientationFusion");
+        }
+    };
 
-                case Sensor.TYPE_GYROSCOPE:
-                    processGyroscopeData(event);
-                    break;
+    /**
+     *  A tracker's own engine keeps its state between pauses, so only a new tracker needs restoring,
+     *  from the process-wide cache or failing that the state file.
+     */
+    private OrientationState loadWarmStartState() {
 
-                case Sensor.TYPE_MAGNETIC_FIELD:
-                    processMagometerData(event);
-                    break;
-            }
+        synchronized (GlassOrientationTracker.class) {
+            if (cachedState != null)
+                return cachedState;
         }
 
-        @Override
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        if (!stateFile.exists())
+            return null;
 
+        try {
+            return OrientationState.readFrom(stateFile);
+        } catch (IOException e) {
+            return null;
         }
-    };
+    }
 
+    private void saveWarmStartState() {
 
-    private void processAccelerometerData(SensorEvent event) {
-        System.arraycopy(event.values, 0, accelerometerArray, 0, 3);
+        OrientationState state = new OrientationState();
+
+        synchronized (fusionLock) {
+            engine.saveState(state, System.currentTimeMillis());
+        }
 
+        synchronized (GlassOrientationTracker.class) {
+            cachedState = state;
+        }
+
+        try {
+            state.writeTo(stateFile);
+        } catch (IOException e) {
+            // the in-memory state still covers this process
+        }
     }
 
-    private void processMagometerData(SensorEvent event) {
-        System.arraycopy(event.values, 0, magnetometerArray, 0, 3);
+    /**
+     *  Replaces the device sensors, for example with a ReplaySensorSource. Takes effect from the next onResume.
+     */
+    public void setSensorSource(SensorSource sensorSource) {
+        this.sensorSource = sensorSource;
     }
 
+    /**
+     *  Adapts the sensor rates to whether the head is moving. Takes effect from the next onResume.
+     */
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+    }
 
+    /**
+     *  Records the latency of each pipeline stage up to the observer, or stops recording when null.
+     */
+    public void setLatencyRecorder(LatencyRecorder latencyRecorder) {
 
+        this.latencyRecorder = latencyRecorder;
+        updatePredictionHorizonSource();
+    }
 
     /**
-     *  This Integrates the gyroscope data
-     *  The gyroscope orientation data is written into the gyroOrientationAngles array
+     *  Publishes orientation extrapolated forward by horizonNanos instead of the latest fused values,
+     *  or turns prediction off when model is null. With OrientationPredictor.AUTOMATIC_HORIZON the horizon
+     *  follows the measured latency up to the frame while a latency recorder is attached.
+     *  Takes effect from the next onResume.
      */
-	public void processGyroscopeData(SensorEvent event) {
+    public void setPrediction(PredictionModel model, long horizonNanos) {
 
-		if (isAccelerometerMagnetometerOrientationDataEmpty())
-			return;
+        predictor = (model == null) ? null : new OrientationPredictor(model, horizonNanos);
+        updatePredictionHorizonSource();
+    }
 
-		if (initState) {
-            initGyroRotationMatrixUsingAccAndMagOrientationAngleData();
-            initState = false;
-		}
+    public OrientationPredictor getPredictor() {
+        return predictor;
+    }
 
-        populateGyroAngularSpeedsData(event);
-	}
+    private void updatePredictionHorizonSource() {
 
-    private boolean isAccelerometerMagnetometerOrientationDataEmpty() {
-        return (accMagOrientationAngles == null);
+        OrientationPredictor currentPredictor = predictor;
+        LatencyRecorder recorder = latencyRecorder;
+
+        if (currentPredictor != null)
+            currentPredictor.setHorizonSource((recorder == null) ? null : recorder.getHistogram(LatencyStage.FRAME));
     }
 
-    private void initGyroRotationMatrixUsingAccAndMagOrientationAngleData() {
+    /**
+     *  Records every raw sample the tracker receives to traceFile, until stopRecording is called.
+     */
+    public void startRecording(File traceFile) throws IOException {
+
+        stopRecording();
+        traceWriter = new SensorTraceWriter(traceFile);
+    }
 
-        float[] initMatrix = new float[9];
-        initMatrix = MatrixHelper.getRotationMatrixFromOrientation(accMagOrientationAngles);
+    public void stopRecording() {
 
-        float[] temp = new float[3];
-        SensorManager.getOrientation(initMatrix, temp);
+        SensorTraceWriter writer = traceWriter;
+        traceWriter = null;
 
-        gyroRotationMatrix = MatrixHelper.matrixMultiplication(gyroRotationMatrix, initMatrix);
+        if (writer != null) {
+            closeQuietly(writer);
+        }
     }
 
+    private void closeQuietly(SensorTraceWriter writer) {
 
-    private void populateGyroAngularSpeedsData(SensorEvent event) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // the samples written so far are kept
+        }
+    }
 
-        float[] deltaRotationVector = new float[4];
 
-        if (timestamp != 0) {
+    /**
+     *  The sink only queues samples, all processing happens in the fusion stage,
+     *  which owns every piece of sensor and fusion state.
+     */
+    private SensorSampleRing.SampleHandler sampleSink = new SensorSampleRing.SampleHandler() {
+
+        @Override
+        public void onSample(int type, long timestamp, float x, float y, float z) {
 
-            final float dT = (event.timestamp - timestamp) * NS2S;
-            System.arraycopy(event.values, 0, gyroAngularSpeeds, 0, 3);
+            LatencyRecorder recorder = latencyRecorder;
+            if (recorder != null && type == SensorSampleRing.TYPE_GYROSCOPE)
+                recorder.record(LatencyStage.SENSOR_CALLBACK, timestamp);
 
-            MatrixHelper.getRotationVectorFromGyro(gyroAngularSpeeds, deltaRotationVector, dT / 2.0f);
+            recordSample(type, timestamp, x, y, z);
+            sampleRing.offer(type, timestamp, x, y, z);
 
-            gyroSum[0] += gyroAngularSpeeds[0];
-            gyroSum[1] += gyroAngularSpeeds[1];
-            gyroSum[2] += gyroAngularSpeeds[2];
+            if (scheduling == FusionScheduling.SENSOR_EVENT) {
+                synchronized (fusionLock) {
+                    sampleRing.drain(sampleProcessor);
+                }
+            }
         }
+    };
+
+    private void recordSample(int type, long timestamp, float x, float y, float z) {
 
-        timestamp = event.timestamp;
+        SensorTraceWriter writer = traceWriter;
 
-        float[] deltaRotationMatrix = new float[9];
-        SensorManager.getRotationMatrixFromVector(deltaRotationMatrix, deltaRotationVector);
+        if (writer == null)
+            return;
 
-        gyroRotationMatrix = MatrixHelper.matrixMultiplication(gyroRotationMatrix, deltaRotationMatrix);
-        SensorManager.getOrientation(gyroRotationMatrix, gyroOrientationAngles);
+        try {
+            writer.write(type, timestamp, x, y, z);
+        } catch (IOException e) {
+            stopRecording();
+        }
     }
 
 
-    private void calculateOrientationAnglesFromAccelrometerAndMagnetometerOutput() {
+    private SensorSampleRing.SampleHandler sampleProcessor = new SensorSampleRing.SampleHandler() {
+
+        @Override
+        public void onSample(int type, long timestamp, float x, float y, float z) {
+
+            engine.onSample(type, timestamp, x, y, z);
 
-        if (SensorManager.getRotationMatrix(accMagRotationMatrix, null, accelerometerArray, magnetometerArray)) {
-            SensorManager.getOrientation(accMagRotationMatrix, accMagOrientationAngles);
+            switch (type) {
+
+                case SensorSampleRing.TYPE_ACCELEROMETER:
+                    if (motionDetector.onAccelerometer(timestamp, x, y, z))
+                        onMotionStateChanged();
+                    break;
+
+                case SensorSampleRing.TYPE_GYROSCOPE:
+                    if (scheduling == FusionScheduling.SENSOR_EVENT)
+                        fuseSensorOrientationData();
+
+                    engine.getGyroBias(gyroBias);
+                    motionDetector.setGyroBias(gyroBias);
+
+                    if (motionDetector.onGyroscope(timestamp, x, y, z))
+                        onMotionStateChanged();
+                    break;
+            }
         }
+    };
+
+    /**
+     *  The engine only learns the gyro bias while the head is still, and with adaptive sampling
+     *  the sensor rates follow the state too.
+     */
+    private void onMotionStateChanged() {
+
+        MotionState state = motionDetector.getState();
+        engine.setMotionState(state);
+
+        if (adaptiveSampling)
+            sensorSource.setMotionState(state);
     }
 
 
 
-	private class calculateFusedOrientationTask extends TimerTask {
+	/**
+	 *  Drains everything queued since the last tick, in order, then fuses once.
+	 */
+	private class calculateFusedOrientationTask implements Runnable {
 
         public void run() {
-            fuseSensorOrientationData();
+
+            synchronized (fusionLock) {
+                sampleRing.drain(sampleProcessor);
+                fuseSensorOrientationData();
+            }
 		}
 	}
 
     private void fuseSensorOrientationData() {
 
-        fuseAzimuth();
-        fusePitch();
-        fuseRoll();
+        if (engine.fuse()) {
 
-        gyroRotationMatrix = MatrixHelper.getRotationMatrixFromOrientation(fusedOrientationAngles);
-        System.arraycopy(fusedOrientationAngles, 0, gyroOrientationAngles, 0, 3);
+            // no timestamp yet when a restored orientation is published before the first gyro sample
+            LatencyRecorder recorder = latencyRecorder;
+            if (recorder != null && engine.getGyroTimestamp() != 0)
+                recorder.record(LatencyStage.FUSION, engine.getGyroTimestamp());
 
-        notifyUI();
+            notifyUI();
+        }
     }
 
 
-    private void fuseAzimuth() {
-
-        /**
-         *  First check if one of the orientation angles is negative whilst the other is positive
-         *  Compensate by adding (2 * math.PI) to the negative value, then perform the sensor fusion, and remove (2 * math.PI) from the result
-         */
-
-        if (checkForPositiveNegativeAngleMismatch(gyroOrientationAngles[0], accMagOrientationAngles[0])) {
-
-            fusedOrientationAngles[0] = (float) (FILTER_COEFFICIENT * (gyroOrientationAngles[0] + 2.0 * Math.PI) + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[0]);
-            fusedOrientationAngles[0] -= (fusedOrientationAngles[0] > Math.PI) ? 2.0 * Math.PI : 0;
+    /**
+     *  Runs on the fusion thread. The bus copies the values into a snapshot,
+     *  so the engine can carry on overwriting its own arrays.
+     */
+    private void notifyUI() {
 
-        } else if (checkForPositiveNegativeAngleMismatch(accMagOrientationAngles[0], gyroOrientationAngles[0])) {
+        engine.getFusedOrientationAngles(fusedOrientationAngles);
+        engine.getGyroAngularSpeeds(gyroAngularSpeeds);
+        engine.getGyroSum(gyroSum);
 
-            fusedOrientationAngles[0] = (float) (FILTER_COEFFICIENT * gyroOrientationAngles[0] + ONE_MINUS_FILTER_COEFFICIENT * (accMagOrientationAngles[0] + 2.0 * Math.PI));
-            fusedOrientationAngles[0] -= (fusedOrientationAngles[0] > Math.PI) ? 2.0 * Math.PI : 0;
+        OrientationPredictor currentPredictor = predictor;
 
-        } else {
-            fusedOrientationAngles[0] = FILTER_COEFFICIENT * gyroOrientationAngles[0] + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[0];
+        if (currentPredictor != null && engine.getGyroTimestamp() != 0) {
+            currentPredictor.update(engine.getGyroTimestamp(), fusedOrientationAngles, gyroAngularSpeeds);
+            currentPredictor.getPredictedAngles(fusedOrientationAngles);
+            currentPredictor.getPredictedAngularSpeeds(gyroAngularSpeeds);
         }
+
+        orientationBus.publish(engine.getGyroTimestamp(), fusedOrientationAngles, gyroAngularSpeeds, gyroSum);
     }
 
-    private void fusePitch() {
 
-        if (checkForPositiveNegativeAngleMismatch(gyroOrientationAngles[1], accMagOrientationAngles[1])) {
-            fusedOrientationAngles[1] = (float) (FILTER_COEFFICIENT * (gyroOrientationAngles[1] + 2.0 * Math.PI) + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[1]);
-            fusedOrientationAngles[1] -= (fusedOrientationAngles[1] > Math.PI) ? 2.0 * Math.PI : 0;
+    /**
+     *  Delivers bus updates to a GlassOrientationObserver on the main thread,
+     *  in arrays of its own that nothing else writes to.
+     */
+    private class ObserverAdapter implements OrientationSubscriber {
 
-        } else if (checkForPositiveNegativeAngleMismatch(accMagOrientationAngles[1], gyroOrientationAngles[1])) {
-            fusedOrientationAngles[1] = (float) (FILTER_COEFFICIENT * gyroOrientationAngles[1] + ONE_MINUS_FILTER_COEFFICIENT * (accMagOrientationAngles[1] + 2.0 * Math.PI));
-            fusedOrientationAngles[1] -= (fusedOrientationAngles[1] > Math.PI) ? 2.0 * Math.PI : 0;
+        private GlassOrientationObserver observer;
+        private float[] deliveredAngularSpeeds = new float[3];
+        private float[] deliveredGyroSum = new float[3];
 
-        } else {
-            fusedOrientationAngles[1] = FILTER_COEFFICIENT * gyroOrientationAngles[1] + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[1];
+        ObserverAdapter(GlassOrientationObserver observer) {
+            this.observer = observer;
         }
-    }
 
-    private void fuseRoll() {
+        @Override
+        public void onOrientation(OrientationSnapshot snapshot) {
+
+            if (!tracking)
+                return;
 
-        if (checkForPositiveNegativeAngleMismatch(gyroOrientationAngles[2], accMagOrientationAngles[2])) {
-            fusedOrientationAngles[2] = (float) (FILTER_COEFFICIENT * (gyroOrientationAngles[2] + 2.0 * Math.PI) + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[2]);
-            fusedOrientationAngles[2] -= (fusedOrientationAngles[2] > Math.PI) ? 2.0 * Math.PI : 0;
+            snapshot.getAngularSpeeds(deliveredAngularSpeeds);
+            snapshot.getGyroSum(deliveredGyroSum);
 
-        } else if (checkForPositiveNegativeAngleMismatch(accMagOrientationAngles[2], gyroOrientationAngles[2])) {
-            fusedOrientationAngles[2] = (float) (FILTER_COEFFICIENT * gyroOrientationAngles[2] + ONE_MINUS_FILTER_COEFFICIENT * (accMagOrientationAngles[2] + 2.0 * Math.PI));
-            fusedOrientationAngles[2] -= (fusedOrientationAngles[2] > Math.PI) ? 2.0 * Math.PI : 0;
+            LatencyRecorder recorder = latencyRecorder;
+            if (recorder != null && snapshot.getTimestamp() != 0)
+                recorder.recordAndHold(LatencyStage.OBSERVER, snapshot.getTimestamp());
 
-        } else {
-            fusedOrientationAngles[2] = FILTER_COEFFICIENT * gyroOrientationAngles[2] + ONE_MINUS_FILTER_COEFFICIENT * accMagOrientationAngles[2];
+            observer.onUpdate(deliveredAngularSpeeds, deliveredGyroSum);
         }
     }
 
+    public MotionState getMotionState() {
+        return motionDetector.getState();
+    }
 
-    private void notifyUI() {
-        callbackHandle.post(updateOrientationDisplayTask);
+    public float getSecondsInMotionState(MotionState state) {
+        return motionDetector.getSecondsInState(state);
     }
 
+    public int getMotionStateTransitions() {
+        return motionDetector.getTransitions();
+    }
 
-	private Runnable updateOrientationDisplayTask = new Runnable() {
-		public void run() {
-			updateOrientationDisplay();
-		}
-	};
+    /**
+     *  The current motion state, the time spent in each state and the number of transitions, for the latency overlay.
+     */
+    public void formatMotionState(StringBuilder builder) {
+        motionDetector.format(builder);
+    }
+
+    /**
+     *  Samples dropped because the fusion stage fell more than a full ring behind.
+     */
+    public long getSampleOverruns() {
+        return sampleRing.getOverruns();
+    }
 
-    public void updateOrientationDisplay() {
-        observer.onUpdate(gyroAngularSpeeds, gyroSum);
+    /**
+     *  The deepest the sample queue has been, in samples.
+     */
+    public int getSampleQueueHighWaterMark() {
+        return sampleRing.getHighWaterMark();
     }
-}
\ No newline at end of file
+}
@@ -1,116 +0,0 @@
-package com.mikesmales.googleglasscrosshairs.sensors;
-
-public class MatrixHelper {
-
-    private static final float EPSILON = 0.000000001f;
-
-    /**
-     *  This is taken from the Android reference at:
-     *
-     *  http://developer.android.com/reference/android/hardware/SensorEvent.html#values
-     *  It calculates a rotation vector from the gyroscope angular speed values.
-     */
-
-    public static void getRotationVectorFromGyro(float[] gyroValues, float[] deltaRotationVector, float timeFactor) {
-
-        float[] normValues = new float[3];
-
-        // Calculate the angular speed of the sample
-        float omegaMagnitude = (float) Math.sqrt(gyroValues[0] * gyroValues[0] + gyroValues[1] * gyroValues[1] + gyroValues[2] * gyroValues[2]);
-
-        // Normalize the rotation vector if it's big enough to get the axis
-        if (omegaMagnitude > EPSILON) {
-            normValues[0] = gyroValues[0] / omegaMagnitude;
-            normValues[1] = gyroValues[1] / omegaMagnitude;
-            normValues[2] = gyroValues[2] / omegaMagnitude;
-        }
-
-        // Integrate around this axis with the angular speed by the timestep
-        // in order to get a delta rotation from this sample over the timestep
-        // We will convert this axis-angle representation of the delta rotation
-        // into a quaternion before turning it into the rotation matrix.
-        float thetaOverTwo = omegaMagnitude * timeFactor;
-        float sinThetaOverTwo = (float) Math.sin(thetaOverTwo);
-        float cosThetaOverTwo = (float) Math.cos(thetaOverTwo);
-        deltaRotationVector[0] = sinThetaOverTwo * normValues[0];
-        deltaRotationVector[1] = sinThetaOverTwo * normValues[1];
-        deltaRotationVector[2] = sinThetaOverTwo * normValues[2];
-        deltaRotationVector[3] = cosThetaOverTwo;
-    }
-
-    public static float[] getRotationMatrixFromOrientation(float[] o) {
-
-        float[] xM = new float[9];
-        float[] yM = new float[9];
-        float[] zM = new float[9];
-
-        float sinX = (float) Math.sin(o[1]);
-        float cosX = (float) Math.cos(o[1]);
-        float sinY = (float) Math.sin(o[2]);
-        float cosY = (float) Math.cos(o[2]);
-        float sinZ = (float) Math.sin(o[0]);
-        float cosZ = (float) Math.cos(o[0]);
-
-        // rotation about x-axis (pitch)
-        xM[0] = 1.0f;
-        xM[1] = 0.0f;
-        xM[2] = 0.0f;
-        xM[3] = 0.0f;
-        xM[4] = cosX;
-        xM[5] = sinX;
-        xM[6] = 0.0f;
-        xM[7] = -sinX;
-        xM[8] = cosX;
-
-        // rotation about y-axis (roll)
-        yM[0] = cosY;
-        yM[1] = 0.0f;
-        yM[2] = sinY;
-        yM[3] = 0.0f;
-        yM[4] = 1.0f;
-        yM[5] = 0.0f;
-        yM[6] = -sinY;
-        yM[7] = 0.0f;
-        yM[8] = cosY;
-
-        // rotation about z-axis (azimuth)
-        zM[0] = cosZ;
-        zM[1] = sinZ;
-        zM[2] = 0.0f;
-        zM[3] = -sinZ;
-        zM[4] = cosZ;
-        zM[5] = 0.0f;
-        zM[6] = 0.0f;
-        zM[7] = 0.0f;
-        zM[8] = 1.0f;
-
-        // rotation order is y, x, z (roll, pitch, azimuth)
-        float[] resultMatrix = matrixMultiplication(xM, yM);
-        resultMatrix = matrixMultiplication(zM, resultMatrix);
-        return resultMatrix;
-    }
-
-    public static float[] matrixMultiplication(float[] A, float[] B) {
-
-        float[] result = new float[9];
-
-        result[0] = A[0] * B[0] + A[1] * B[3] + A[2] * B[6];
-        result[1] = A[0] * B[1] + A[1] * B[4] + A[2] * B[7];
-        result[2] = A[0] * B[2] + A[1] * B[5] + A[2] * B[8];
-
-        result[3] = A[3] * B[0] + A[4] * B[3] + A[5] * B[6];
-        result[4] = A[3] * B[1] + A[4] * B[4] + A[5] * B[7];
-        result[5] = A[3] * B[2] + A[4] * B[5] + A[5] * B[8];
-
-        result[6] = A[6] * B[0] + A[7] * B[3] + A[8] * B[6];
-        result[7] = A[6] * B[1] + A[7] * B[4] + A[8] * B[7];
-        result[8] = A[6] * B[2] + A[7] * B[5] + A[8] * B[8];
-
-        return result;
-    }
-
-    public static boolean checkForPositiveNegativeAngleMismatch(float angleOne, float angleTwo) {
-        return (angleOne < -0.5 * Math.PI && angleTwo > 0.0);
-    }
-
-}
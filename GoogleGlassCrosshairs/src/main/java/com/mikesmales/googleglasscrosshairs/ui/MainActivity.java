@@ -20,13 +20,17 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
 
         gestureDetector = createGestureDetector();
-        webViewFragment = new WebViewFragment();
 
         if (savedInstanceState == null) {
+            webViewFragment = new WebViewFragment();
             getFragmentManager().beginTransaction()
                     .add(R.id.container, webViewFragment)
                     .commit();
         }
+        else {
+            // the fragment manager has already re-created the fragment, gestures must go to that one
+            webViewFragment = (WebViewFragment) getFragmentManager().findFragmentById(R.id.container);
+        }
     }
 
     @Override
@@ -64,6 +68,9 @@ public class MainActivity extends Activity {
         @Override
         public void onFingerCountChanged(int previousCount, int currentCount) {
 
+            if (webViewFragment == null)
+                return;
+
             if (currentCount == 2) {
                 webViewFragment.showCrosshairs();
             }
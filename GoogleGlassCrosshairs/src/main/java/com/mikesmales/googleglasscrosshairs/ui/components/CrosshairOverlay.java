@@ -0,0 +1,410 @@
+package com.mikesmales.googleglasscrosshairs.ui.components;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.WindowManager;
+
+import com.mikesmales.googleglasscrosshairs.R;
+
+/**
+ *  The crosshair, the dimmed frame shown while the crosshairs are held, the outline of the target it has
+ *  snapped to and the dwell progress ring, all drawn on a surface of their own by a render thread.
+ *
+ *  The surface sits above the window and is composited separately, so nothing drawn here invalidates
+ *  or lays out the web view. The view itself stays visible, hiding it would destroy the surface.
+ *
+ *  The setters only record what to draw and wake the render thread, which draws at display rate
+ *  while something is animating and sleeps otherwise. They can be called from any thread.
+ */
+public class CrosshairOverlay extends SurfaceView implements SurfaceHolder.Callback {
+
+    private static final int FRAME_COLOR = 0x66000000;
+    private static final int HIGHLIGHT_COLOR = 0xff33b5e5;
+    private static final float OUTLINE_PADDING = 4;
+    private static final float OUTLINE_CORNER_RADIUS = 6;
+    private static final float DWELL_RING_GAP = 6;
+
+    /** How quickly the crosshair slides to a snap point, and the outline fades in. */
+    private static final float SNAP_TIME_CONSTANT_MILLIS = 40;
+    private static final float SETTLE_DISTANCE = 0.5f;
+    private static final float DEFAULT_REFRESH_RATE = 60.0f;
+
+    private final Object lock = new Object();
+
+    // written by any thread under the lock
+    private boolean active;
+    private boolean hasTarget;
+    private final RectF target = new RectF();
+    private long dwellStartTime;
+    private long dwellDurationMillis;
+    private boolean dirty = true;
+    private boolean surfaceReady;
+
+    // only used by the render thread
+    private Drawable crosshairDrawable;
+    private Drawable cornerDrawable;
+    private Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private Paint dwellPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private RectF outline = new RectF();
+    private RectF dwellBounds = new RectF();
+    private float reticleX = -1;
+    private float reticleY = -1;
+    private float outlineAlpha;
+    private long lastFrameTime;
+
+    private RenderThread renderThread;
+    private long frameIntervalMillis;
+
+    private long framesDrawn;
+
+    public CrosshairOverlay(Context context, AttributeSet attrs) {
+
+        super(context, attrs);
+
+        crosshairDrawable = context.getResources().getDrawable(R.drawable.crosshairs);
+        cornerDrawable = context.getResources().getDrawable(R.drawable.corner_triangle_top_left);
+
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(3);
+        outlinePaint.setColor(HIGHLIGHT_COLOR);
+
+        dwellPaint.setStyle(Paint.Style.STROKE);
+        dwellPaint.setStrokeWidth(4);
+        dwellPaint.setColor(HIGHLIGHT_COLOR);
+
+        frameIntervalMillis = Math.max(1, Math.round(1000.0f / getRefreshRate(context)));
+
+        setZOrderOnTop(true);
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        getHolder().addCallback(this);
+    }
+
+    private static float getRefreshRate(Context context) {
+
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        return (refreshRate > 0) ? refreshRate : DEFAULT_REFRESH_RATE;
+    }
+
+    /**
+     *  Active while the crosshairs are held: the frame is dimmed and targets are outlined.
+     */
+    public void setActive(boolean active) {
+
+        synchronized (lock) {
+
+            if (this.active == active)
+                return;
+
+            this.active = active;
+            if (!active) {
+                hasTarget = false;
+                dwellDurationMillis = 0;
+            }
+            invalidateOverlay();
+        }
+    }
+
+    /**
+     *  The snapped target's bounds in this view's coordinates, the crosshair slides to its center.
+     */
+    public void setTarget(float left, float top, float right, float bottom) {
+
+        synchronized (lock) {
+
+            if (hasTarget && target.left == left && target.top == top && target.right == right && target.bottom == bottom)
+                return;
+
+            target.set(left, top, right, bottom);
+            hasTarget = true;
+            invalidateOverlay();
+        }
+    }
+
+    public void clearTarget() {
+
+        synchronized (lock) {
+
+            if (!hasTarget)
+                return;
+
+            hasTarget = false;
+            invalidateOverlay();
+        }
+    }
+
+    /**
+     *  Shows a ring around the crosshair that fills over the duration, animated by the render thread.
+     */
+    public void startDwell(long durationMillis) {
+
+        synchronized (lock) {
+
+            dwellStartTime = SystemClock.uptimeMillis();
+            dwellDurationMillis = durationMillis;
+            invalidateOverlay();
+        }
+    }
+
+    public void cancelDwell() {
+
+        synchronized (lock) {
+
+            if (dwellDurationMillis == 0)
+                return;
+
+            dwellDurationMillis = 0;
+            invalidateOverlay();
+        }
+    }
+
+    public long getFramesDrawn() {
+        return framesDrawn;
+    }
+
+    private void invalidateOverlay() {
+
+        dirty = true;
+        lock.notifyAll();
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+
+        synchronized (lock) {
+            surfaceReady = true;
+            dirty = true;
+        }
+
+        renderThread = new RenderThread(holder);
+        renderThread.start();
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+
+        synchronized (lock) {
+            invalidateOverlay();
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+
+        synchronized (lock) {
+            surfaceReady = false;
+            lock.notifyAll();
+        }
+
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                renderThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        renderThread = null;
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private class RenderThread extends Thread {
+
+        private final SurfaceHolder holder;
+
+        private boolean frameActive;
+        private boolean frameHasTarget;
+        private final RectF frameTarget = new RectF();
+        private long frameDwellStart;
+        private long frameDwellDuration;
+
+        private boolean animating;
+
+        RenderThread(SurfaceHolder holder) {
+
+            super("CrosshairOverlay");
+            this.holder = holder;
+        }
+
+        @Override
+        public void run() {
+
+            while (true) {
+
+                synchronized (lock) {
+
+                    while (surfaceReady && !dirty && !animating) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    if (!surfaceReady)
+                        return;
+
+                    dirty = false;
+                    frameActive = active;
+                    frameHasTarget = hasTarget;
+                    frameTarget.set(target);
+                    frameDwellStart = dwellStartTime;
+                    frameDwellDuration = dwellDurationMillis;
+                }
+
+                long frameStart = SystemClock.uptimeMillis();
+                animating = drawFrame(frameStart);
+
+                if (animating) {
+
+                    long sleep = frameIntervalMillis - (SystemClock.uptimeMillis() - frameStart);
+
+                    if (sleep > 0)
+                        SystemClock.sleep(sleep);
+                }
+            }
+        }
+
+        /**
+         *  Returns true if something is still moving and another frame is needed.
+         */
+        private boolean drawFrame(long now) {
+
+            Canvas canvas = holder.lockCanvas();
+
+            if (canvas == null)
+                return false;
+
+            boolean stillAnimating;
+
+            try {
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+
+                if (frameActive)
+                    drawFrameDecoration(canvas);
+
+                stillAnimating = updateReticle(canvas.getWidth(), canvas.getHeight(), now);
+
+                if (outlineAlpha > 0)
+                    canvas.drawRoundRect(outline, OUTLINE_CORNER_RADIUS, OUTLINE_CORNER_RADIUS, outlinePaint);
+
+                stillAnimating |= drawDwell(canvas, now);
+                drawReticle(canvas);
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+
+            framesDrawn++;
+            return stillAnimating;
+        }
+
+        private void drawFrameDecoration(Canvas canvas) {
+
+            canvas.drawColor(FRAME_COLOR);
+
+            int width = canvas.getWidth();
+            int height = canvas.getHeight();
+            int cornerWidth = cornerDrawable.getIntrinsicWidth();
+            int cornerHeight = cornerDrawable.getIntrinsicHeight();
+
+            drawCorner(canvas, cornerWidth / 2, cornerHeight / 2, 0);
+            drawCorner(canvas, width - cornerWidth / 2, cornerHeight / 2, 90);
+            drawCorner(canvas, width - cornerWidth / 2, height - cornerHeight / 2, 180);
+            drawCorner(canvas, cornerWidth / 2, height - cornerHeight / 2, 270);
+        }
+
+        private void drawCorner(Canvas canvas, int centerX, int centerY, float rotation) {
+
+            int halfWidth = cornerDrawable.getIntrinsicWidth() / 2;
+            int halfHeight = cornerDrawable.getIntrinsicHeight() / 2;
+
+            canvas.save();
+            canvas.translate(centerX, centerY);
+            canvas.rotate(rotation);
+            cornerDrawable.setBounds(-halfWidth, -halfHeight, halfWidth, halfHeight);
+            cornerDrawable.draw(canvas);
+            canvas.restore();
+        }
+
+        /**
+         *  Eases the crosshair towards the target's center, or back to the middle, and fades the outline.
+         */
+        private boolean updateReticle(int width, int height, long now) {
+
+            boolean snapping = frameActive && frameHasTarget;
+            float goalX = snapping ? frameTarget.centerX() : width / 2.0f;
+            float goalY = snapping ? frameTarget.centerY() : height / 2.0f;
+            float goalAlpha = snapping ? 1.0f : 0.0f;
+
+            if (snapping) {
+                outline.set(frameTarget.left - OUTLINE_PADDING, frameTarget.top - OUTLINE_PADDING,
+                            frameTarget.right + OUTLINE_PADDING, frameTarget.bottom + OUTLINE_PADDING);
+            }
+
+            float elapsed = (lastFrameTime == 0) ? frameIntervalMillis : Math.min(now - lastFrameTime, 4 * frameIntervalMillis);
+            lastFrameTime = now;
+            float blend = 1.0f - (float) Math.exp(-elapsed / SNAP_TIME_CONSTANT_MILLIS);
+
+            if (reticleX < 0) {
+                reticleX = goalX;
+                reticleY = goalY;
+            }
+
+            reticleX += (goalX - reticleX) * blend;
+            reticleY += (goalY - reticleY) * blend;
+            outlineAlpha += (goalAlpha - outlineAlpha) * blend;
+
+            boolean settled = Math.abs(goalX - reticleX) < SETTLE_DISTANCE && Math.abs(goalY - reticleY) < SETTLE_DISTANCE
+                              && Math.abs(goalAlpha - outlineAlpha) < 0.02f;
+
+            if (settled) {
+                reticleX = goalX;
+                reticleY = goalY;
+                outlineAlpha = goalAlpha;
+                lastFrameTime = 0;
+            }
+
+            outlinePaint.setAlpha(Math.round(outlineAlpha * 255));
+            return !settled;
+        }
+
+        private boolean drawDwell(Canvas canvas, long now) {
+
+            if (frameDwellDuration == 0)
+                return false;
+
+            float progress = Math.min(1.0f, (float) (now - frameDwellStart) / frameDwellDuration);
+            float radius = crosshairDrawable.getIntrinsicWidth() / 2.0f + DWELL_RING_GAP;
+
+            dwellBounds.set(reticleX - radius, reticleY - radius, reticleX + radius, reticleY + radius);
+            canvas.drawArc(dwellBounds, -90, 360 * progress, false, dwellPaint);
+
+            return progress < 1.0f;
+        }
+
+        private void drawReticle(Canvas canvas) {
+
+            int halfWidth = crosshairDrawable.getIntrinsicWidth() / 2;
+            int halfHeight = crosshairDrawable.getIntrinsicHeight() / 2;
+            int x = Math.round(reticleX);
+            int y = Math.round(reticleY);
+
+            crosshairDrawable.setBounds(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight);
+            crosshairDrawable.draw(canvas);
+        }
+    }
+}
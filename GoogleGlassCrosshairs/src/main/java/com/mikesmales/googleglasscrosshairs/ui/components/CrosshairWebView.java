@@ -0,0 +1,31 @@
+package com.mikesmales.googleglasscrosshairs.ui.components;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.webkit.WebView;
+
+import com.mikesmales.googleglasscrosshairs.helpers.ScrollPhysics;
+
+/**
+ *  A WebView that says how far it can scroll, the ranges are only available to subclasses.
+ */
+public class CrosshairWebView extends WebView implements ScrollPhysics.ScrollBounds {
+
+	public CrosshairWebView(Context context) {
+		super(context);
+	}
+
+	public CrosshairWebView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+	}
+
+	@Override
+	public int getMaxScrollX() {
+		return Math.max(0, computeHorizontalScrollRange() - getWidth());
+	}
+
+	@Override
+	public int getMaxScrollY() {
+		return Math.max(0, computeVerticalScrollRange() - getHeight());
+	}
+}
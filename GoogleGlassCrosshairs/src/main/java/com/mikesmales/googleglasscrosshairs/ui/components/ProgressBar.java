@@ -4,23 +4,53 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.graphics.drawable.NinePatchDrawable;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
 
 import com.mikesmales.googleglasscrosshairs.R;
-
+import com.mikesmales.googleglasscrosshairs.helpers.FrameHandler;
+
+/**
+ *  Page load progress with a percentage label.
+ *
+ *  The bar moves smoothly towards each new percentage, one step per display frame,
+ *  and only redraws when the bar's width or the label actually change.
+ *  Labels and their widths are worked out once for every percentage, so drawing allocates nothing.
+ */
 public class ProgressBar extends View {
 
+	private static final float TEXT_SIZE = 20;
+	private static final float ANIMATION_TIME_CONSTANT_MILLIS = 80;
+	private static final float SETTLE_THRESHOLD = 0.5f;
+
+	private static final String[] LABELS = new String[101];
+
+	static {
+		for (int i = 0; i < LABELS.length; i++) {
+			LABELS[i] = i + "%";
+		}
+	}
+
 	private Context context;
 	private NinePatchDrawable backgroundDrawable;
 	private NinePatchDrawable foregroundDrawable;
-	private Paint paint = new Paint();
-	
+	private Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private float[] labelWidths = new float[LABELS.length];
+	private float labelBaselineOffset;
+
+	private FrameHandler frameHandler;
+	private long lastFrameTime;
+
 	private int width;
 	private int height;
 	private int percentage;
+	private float displayedPercentage;
+
+	private int drawnBarWidth = -1;
+	private int drawnLabel = -1;
 
 	public ProgressBar(Context context, AttributeSet attrs) {
 
@@ -29,6 +59,26 @@ public class ProgressBar extends View {
 
 		backgroundDrawable =  (NinePatchDrawable) this.context.getResources().getDrawable(R.drawable.progress_bar_empty);
 		foregroundDrawable =  (NinePatchDrawable) this.context.getResources().getDrawable(R.drawable.progress_bar_full);
+
+		setupLabels();
+
+		if (!isInEditMode())
+			frameHandler = new FrameHandler(context, Looper.getMainLooper(), animationFrameTask);
+	}
+
+	private void setupLabels() {
+
+		paint.setColor(Color.BLACK);
+		paint.setStrokeWidth(0);
+		paint.setTextSize(TEXT_SIZE);
+
+		for (int i = 0; i < LABELS.length; i++) {
+			labelWidths[i] = paint.measureText(LABELS[i]);
+		}
+
+		// the baseline that centers the text between its ascent and descent
+		Paint.FontMetrics metrics = paint.getFontMetrics();
+		labelBaselineOffset = -metrics.ascent / 2 - metrics.descent / 2;
 	}
 
 	@Override
@@ -37,9 +87,24 @@ public class ProgressBar extends View {
         super.onSizeChanged(xNew, yNew, xOld, yOld);
 		width = getWidth();
 		height = getHeight();
+		drawnBarWidth = -1;
+	}
+
+	/**
+	 *  Nothing is drawn while detached, so the bar jumps to the percentage it was heading for.
+	 *  Left part way, setPercentage would take the animation to be running and never request another frame.
+	 */
+	@Override
+	protected void onDetachedFromWindow() {
+
+		super.onDetachedFromWindow();
+
+		if (frameHandler != null)
+			frameHandler.cancel();
+
+		displayedPercentage = percentage;
 	}
 
-	
 	@Override
 	protected void onDraw(Canvas canvas) {
 
@@ -48,55 +113,103 @@ public class ProgressBar extends View {
             backgroundDrawable.setBounds(0, 0, width, height);
 			backgroundDrawable.draw(canvas);
 		}
-		
+
 		if (foregroundDrawable != null) {
 
             drawStatic(canvas);
 		}
 	}
-	
+
 	private void drawStatic(Canvas canvas) {
 
-        double onePercent = (float) width / 100;
-		
-		int startPos = 0;
-		double newWidth = onePercent * percentage;
-		
-		foregroundDrawable.setBounds(startPos, 0, (int) newWidth, height);
+		drawnBarWidth = getBarWidth();
+		drawnLabel = getLabel();
+
+		foregroundDrawable.setBounds(0, 0, drawnBarWidth, height);
 		foregroundDrawable.draw(canvas);
-	
+
 		drawPercentageLabel(canvas);
 	}
 
 	private void drawPercentageLabel(Canvas canvas) {
 
-        paint.setColor(Color.BLACK);
-		paint.setStrokeWidth(0);
-		paint.setTextSize(20);
-    	
-		drawText(canvas);
+		float x = (width - labelWidths[drawnLabel]) / 2;
+		float y = height / 2.0f + labelBaselineOffset;
+
+		canvas.drawText(LABELS[drawnLabel], x, y, paint);
     }
-	
-	private void drawText(Canvas canvas) {
-
-        String labelText = percentage + "%";
-		
-		Rect bounds = new Rect();
-		paint.getTextBounds(labelText, 0, labelText.length(), bounds);
-		float textWidth = paint.measureText(labelText);
-
-		int x = (getWidth() / 2) - ((int)textWidth / 2);
-		int y = (getHeight() + bounds.height() )/ 2;
-		
-		canvas.drawText(labelText, x, y, paint);
-	}
-	
+
+	/**
+	 *  Starts moving the bar to the new percentage. Going backwards, as when a new page starts, jumps straight there.
+	 *  Redraws itself as needed, there is no need to invalidate.
+	 */
 	public void setPercentage(int percentage) {
 
         if (percentage > 100)
 			percentage = 100;
-		
+
+		if (percentage < 0)
+			percentage = 0;
+
+		if (percentage == this.percentage)
+			return;
+
+		boolean animating = displayedPercentage != this.percentage;
 		this.percentage = percentage;
+
+		if (percentage < displayedPercentage || frameHandler == null) {
+			displayedPercentage = percentage;
+			invalidateIfChanged();
+			return;
+		}
+
+		if (!animating) {
+			lastFrameTime = SystemClock.uptimeMillis();
+			frameHandler.requestFrame();
+		}
+	}
+
+	public int getPercentage() {
+		return percentage;
+	}
+
+	private Runnable animationFrameTask = new Runnable() {
+		public void run() {
+			animateFrame();
+		}
+	};
+
+	private void animateFrame() {
+
+		long now = SystemClock.uptimeMillis();
+		float elapsed = now - lastFrameTime;
+		lastFrameTime = now;
+
+		float remaining = percentage - displayedPercentage;
+		float step = remaining * (1.0f - (float) Math.exp(-elapsed / ANIMATION_TIME_CONSTANT_MILLIS));
+
+		if (Math.abs(remaining - step) < SETTLE_THRESHOLD)
+			displayedPercentage = percentage;
+		else
+			displayedPercentage += step;
+
+		invalidateIfChanged();
+
+		if (displayedPercentage != percentage)
+			frameHandler.requestFrame();
+	}
+
+	private void invalidateIfChanged() {
+
+		if (getBarWidth() != drawnBarWidth || getLabel() != drawnLabel)
+			invalidate();
 	}
 
+	private int getBarWidth() {
+		return Math.round(width * displayedPercentage / 100);
+	}
+
+	private int getLabel() {
+		return Math.round(displayedPercentage);
+	}
 }
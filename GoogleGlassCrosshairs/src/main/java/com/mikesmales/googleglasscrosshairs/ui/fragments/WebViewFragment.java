@@ -4,34 +4,124 @@ package com.mikesmales.googleglasscrosshairs.ui.fragments;
 import com.google.android.glass.touchpad.Gesture;
 import com.mikesmales.googleglasscrosshairs.R;
 import com.mikesmales.googleglasscrosshairs.helpers.AudioNotification;
-import com.mikesmales.googleglasscrosshairs.helpers.TouchHelper;
+import com.mikesmales.googleglasscrosshairs.helpers.ScrollCoalescer;
+import com.mikesmales.googleglasscrosshairs.helpers.ScrollPhysics;
+import com.mikesmales.googleglasscrosshairs.helpers.SyntheticInput;
+import com.mikesmales.googleglasscrosshairs.helpers.TimerHandler;
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyRecorder;
+import com.mikesmales.googleglasscrosshairs.metrics.LatencyStage;
+import com.mikesmales.googleglasscrosshairs.reader.ReaderStats;
+import com.mikesmales.googleglasscrosshairs.reader.ReaderStream;
+import com.mikesmales.googleglasscrosshairs.sensors.FusionMode;
+import com.mikesmales.googleglasscrosshairs.sensors.FusionScheduling;
 import com.mikesmales.googleglasscrosshairs.sensors.GlassOrientationObserver;
 import com.mikesmales.googleglasscrosshairs.sensors.GlassOrientationTracker;
+import com.mikesmales.googleglasscrosshairs.sensors.JitterFilter;
+import com.mikesmales.googleglasscrosshairs.sensors.OrientationPredictor;
+import com.mikesmales.googleglasscrosshairs.sensors.PredictionModel;
 import com.mikesmales.googleglasscrosshairs.ui.components.ProgressBar;
+import com.mikesmales.googleglasscrosshairs.ui.components.CrosshairOverlay;
+import com.mikesmales.googleglasscrosshairs.ui.components.CrosshairWebView;
+import com.mikesmales.googleglasscrosshairs.web.CachingInterceptor;
+import com.mikesmales.googleglasscrosshairs.web.ImageDownscaler;
+import com.mikesmales.googleglasscrosshairs.web.Prefetcher;
+import com.mikesmales.googleglasscrosshairs.web.ResponseCache;
+import com.mikesmales.googleglasscrosshairs.web.TargetCollector;
+import com.mikesmales.googleglasscrosshairs.web.TargetIndex;
+import com.mikesmales.googleglasscrosshairs.web.WebViewCookieJar;
+import com.mikesmales.googleglasscrosshairs.web.WebViewPool;
+import com.mikesmales.googleglasscrosshairs.web.WebResource;
 
-import android.app.Activity;
 import android.app.Fragment;
+import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.webkit.JsPromptResult;
 import android.webkit.WebChromeClient;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
+import android.widget.ImageView;
 import android.widget.RelativeLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+
 public class WebViewFragment extends Fragment {
 
     private GlassOrientationTracker orientationTracker;
     protected ProgressBar progressBar;
-    protected WebView webView;
-	private RelativeLayout crosshairView;
+    protected CrosshairWebView webView;
+    private ScrollCoalescer scrollCoalescer;
+    private ScrollPhysics scrollPhysics;
+    private SyntheticInput syntheticInput;
+    private JitterFilter jitterFilter = new JitterFilter();
+
+	private static final long LATENCY_OVERLAY_REFRESH_MILLIS = 500;
+	private static final String LATENCY_DUMP_FILE = "latency.txt";
+
+	private LatencyRecorder latencyRecorder = new LatencyRecorder();
+	private TextView latencyOverlay;
+	private TimerHandler latencyOverlayRefresher;
+	private StringBuilder latencyOverlayText = new StringBuilder();
+	private boolean latencyTracking;
+
+	private static final String STATE_WEBVIEW = "webview";
+	private static final String STATE_SCROLL_X = "scroll_x";
+	private static final String STATE_SCROLL_Y = "scroll_y";
+	private static final String STATE_SCALE = "scale";
+	private static final String STATE_PAGE = "page";
+	private static final String STATE_READER_MODE = "reader_mode";
+
+	/** Pixels per second at one radian per second, the speed the per-update scrolling used to give. */
+	private static final float HEAD_SCROLL_GAIN = 30 * 1000.0f / GlassOrientationTracker.TIME_CONSTANT;
 
 	private boolean inForeground;
+	private boolean crosshairsShown;
 	private String failingUrl;
 
+	private static final String RESPONSE_CACHE_DIR = "responses";
+	private static final long RESPONSE_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+
+	private CachingInterceptor cachingInterceptor;
+
+	private static final String IMAGE_CACHE_DIR = "images";
+	private static final long IMAGE_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+
+	private ImageDownscaler imageDownscaler;
+
+	/** How long the crosshair rests on a link before the page behind it is prefetched. */
+	private static final long PREFETCH_DWELL_MILLIS = 400;
+
+	private Prefetcher prefetcher;
+	private TimerHandler dwellTimer;
+	private TargetIndex.Target dwellTarget;
+	private String dwellHref;
+
+	/** Read on web view threads. */
+	private volatile boolean readerMode;
+	private ReaderStats readerStats = new ReaderStats();
+
+	private static final float SNAP_RADIUS_DIP = 32;
+
+	private TargetCollector targetCollector;
+	private CrosshairOverlay crosshairOverlay;
+	private float snapRadius;
+	private boolean snapped;
+	private float snapX;
+	private float snapY;
+
+	private WebViewPool webViewPool;
+	private ImageView pageSnapshot;
+
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -42,39 +132,142 @@ public class WebViewFragment extends Fragment {
 	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
 		return (RelativeLayout)inflater.inflate(R.layout.layout_webview, container, false);
 	}
+
+	/**
+	 *  Everything is set up once per view, resuming only resumes the web view and, if they were showing, the crosshairs.
+	 */
+	@Override
+	public void onActivityCreated(Bundle savedInstanceState) {
+		super.onActivityCreated(savedInstanceState);
+
+		setupProgressBar();
+		setupWebview();
+		setupCrosshairs();
+		setupLatencyOverlay();
+		restoreOrLaunchSite(savedInstanceState);
+	}
 	
     @Override
     public void onResume() {
         super.onResume();
         inForeground = true;
-        
-        getActivity().runOnUiThread(new SetupWebViewUI());
+
+        webView.onResume();
+
+        if (crosshairsShown) {
+            orientationTracker.onResume();
+        }
     }
     
     @Override
     public void onPause() {
         super.onPause();
         inForeground = false;
+
+        if (latencyTracking) {
+            stopLatencyTracking();
+        }
+
+        syntheticInput.cancel();
+        scrollPhysics.stop();
+
+        if (crosshairsShown) {
+            orientationTracker.onPause();
+            scrollCoalescer.clear();
+        }
+
+        webView.onPause();
     }
-	
-	private class SetupWebViewUI implements Runnable {
 
-        public void run() {
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
 
-			setupProgressBar();
-	        setupWebview();
-	        setupCrosshairs();
-	        launchSite();
-		}
-	}
+        if (webView == null)
+            return;
+
+        Bundle webViewState = new Bundle();
+        webView.saveState(webViewState);
+
+        outState.putInt(STATE_PAGE, webViewPool.getActiveIndex());
+        outState.putBundle(STATE_WEBVIEW, webViewState);
+        outState.putInt(STATE_SCROLL_X, webView.getScrollX());
+        outState.putInt(STATE_SCROLL_Y, webView.getScrollY());
+        outState.putFloat(STATE_SCALE, webView.getScale());
+        outState.putBoolean(STATE_READER_MODE, readerMode);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (webViewPool != null)
+            webViewPool.trimMemory(level);
+    }
+
+    @Override
+    public void onDestroyView() {
+
+        latencyOverlayRefresher.removeMessages(0);
+        scrollCoalescer.clear();
+        scrollPhysics.stop();
+        syntheticInput.cancel();
+
+        webViewPool.destroy();
+        webView = null;
+
+        cancelDwell(true);
+        prefetcher.shutdown();
+        cachingInterceptor.shutdown();
+
+        super.onDestroyView();
+    }
 
 	private void setupProgressBar() {
         progressBar = (ProgressBar) getView().findViewById(R.id.view_progress_bar);
     }
 
+    /**
+     *  The web view in the layout becomes the first page's, the others are created by the pool as they are needed.
+     */
     private void setupWebview() {
 
-        webView = (WebView) getView().findViewById(R.id.webview);
+        webView = (CrosshairWebView) getView().findViewById(R.id.webview);
+        pageSnapshot = (ImageView) getView().findViewById(R.id.image_page_snapshot);
+
+        ResponseCache responseCache = new ResponseCache(new File(getActivity().getCacheDir(), RESPONSE_CACHE_DIR), RESPONSE_CACHE_MAX_BYTES);
+        cachingInterceptor = new CachingInterceptor(responseCache);
+        cachingInterceptor.setUserAgent(webView.getSettings().getUserAgentString());
+        cachingInterceptor.setCookieJar(new WebViewCookieJar());
+
+        DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+        ResponseCache imageCache = new ResponseCache(new File(getActivity().getCacheDir(), IMAGE_CACHE_DIR), IMAGE_CACHE_MAX_BYTES);
+        imageDownscaler = new ImageDownscaler(imageCache, Math.max(displayMetrics.widthPixels, displayMetrics.heightPixels));
+
+        prefetcher = new Prefetcher(responseCache);
+        prefetcher.setUserAgent(webView.getSettings().getUserAgentString());
+        dwellTimer = new TimerHandler(dwellTask);
+
+        configureWebView(webView);
+        webViewPool = new WebViewPool(getActivity(), webView, webViewFactory, getResources().getStringArray(R.array.start_pages));
+
+        scrollCoalescer = new ScrollCoalescer(getActivity(), webView);
+        scrollPhysics = new ScrollPhysics(getActivity(), scrollCoalescer, webView, webView, HEAD_SCROLL_GAIN);
+        syntheticInput = new SyntheticInput(getActivity(), webView);
+    }
+
+    private WebViewPool.WebViewFactory webViewFactory = new WebViewPool.WebViewFactory() {
+
+        @Override
+        public CrosshairWebView createWebView() {
+
+            CrosshairWebView webView = new CrosshairWebView(getActivity());
+            configureWebView(webView);
+            return webView;
+        }
+    };
+
+    private void configureWebView(WebView webView) {
 
         webView.setWebChromeClient(mWebChromeClient);
         webView.setWebViewClient(mWebViewClient);
@@ -89,21 +282,96 @@ public class WebViewFragment extends Fragment {
 
     private void setupCrosshairs() {
 
-        crosshairView = (RelativeLayout) getView().findViewById(R.id.include_crosshair);
-        orientationTracker = new GlassOrientationTracker(getActivity(), orientationListener);
+        crosshairOverlay = (CrosshairOverlay) getView().findViewById(R.id.view_crosshair_overlay);
+        snapRadius = SNAP_RADIUS_DIP * getResources().getDisplayMetrics().density;
+
+        orientationTracker = new GlassOrientationTracker(getActivity(), orientationListener, FusionMode.EULER, FusionScheduling.SENSOR_EVENT);
+        orientationTracker.setAdaptiveSampling(true);
+        orientationTracker.setPrediction(PredictionModel.SECOND_ORDER, OrientationPredictor.AUTOMATIC_HORIZON);
     }
 
-    private void launchSite() {
+    private void setupLatencyOverlay() {
+
+        latencyOverlay = (TextView) getView().findViewById(R.id.text_latency_overlay);
+        latencyOverlayRefresher = new TimerHandler(refreshLatencyOverlayTask);
 
-        String url = "http://en.wikipedia.org/wiki/Google_Glass";
-        webView.loadUrl(url);
+        getView().getViewTreeObserver().addOnPreDrawListener(frameLatencyListener);
     }
-    
+
+    /**
+     *  After the activity was destroyed the page that was showing comes back from the web view's saved state,
+     *  loaded from the cache where possible, and is scrolled back into place once it has loaded.
+     */
+    private void restoreOrLaunchSite(Bundle savedInstanceState) {
+
+        Bundle webViewState = (savedInstanceState == null) ? null : savedInstanceState.getBundle(STATE_WEBVIEW);
+        int pageIndex = 0;
+
+        if (webViewState != null) {
+
+            readerMode = savedInstanceState.getBoolean(STATE_READER_MODE);
+            pageIndex = savedInstanceState.getInt(STATE_PAGE);
+            webViewPool.restorePage(pageIndex, webViewState, savedInstanceState.getInt(STATE_SCROLL_X),
+                                    savedInstanceState.getInt(STATE_SCROLL_Y), savedInstanceState.getFloat(STATE_SCALE, 1.0f));
+        }
+
+        showPage(webViewPool.switchTo(pageIndex));
+    }
+
+    /**
+     *  Points everything that acts on the web view at the page's, and covers a page that is being
+     *  reloaded with its snapshot until it has loaded.
+     */
+    private void showPage(WebViewPool.Page page) {
+
+        webView = page.getWebView();
+        targetCollector = page.getTargetCollector();
+
+        scrollCoalescer.setTarget(webView);
+        scrollPhysics.setTarget(webView, webView);
+        syntheticInput.setTarget(webView);
+
+        snapped = false;
+        cancelDwell(true);
+        crosshairOverlay.clearTarget();
+        progressBar.setVisibility(View.GONE);
+
+        if (page.getThumbnail() != null && webView.getProgress() < 100) {
+            pageSnapshot.setImageBitmap(page.getThumbnail());
+            pageSnapshot.setVisibility(View.VISIBLE);
+        }
+        else {
+            hidePageSnapshot();
+        }
+    }
+
+    private void hidePageSnapshot() {
+
+        if (pageSnapshot.getVisibility() == View.VISIBLE) {
+            pageSnapshot.setVisibility(View.GONE);
+            pageSnapshot.setImageBitmap(null);
+        }
+    }
+
+    private void switchPage(boolean forward) {
+
+        if (webViewPool.getPageCount() < 2)
+            return;
+
+        if (latencyTracking)
+            latencyRecorder.reset();
+
+        WebViewPool.Page page = forward ? webViewPool.next() : webViewPool.previous();
+        showPage(page);
+
+        AudioNotification.playNotificationTap(getActivity());
+    }
+
     private WebChromeClient mWebChromeClient = new WebChromeClient() {
 
         public void onProgressChanged(WebView view, int progress) {
 
-            if (!inForeground)
+            if (!inForeground || view != webView)
                 return;
 
             if (progress == 100) {
@@ -113,10 +381,22 @@ public class WebViewFragment extends Fragment {
                 showProgressBarIfHidden();
 
                 progressBar.setPercentage(progress);
-                progressBar.invalidate();
             }
         }
 
+        /**
+         *  The target script's batches come as prompts, they are answered here and never shown.
+         */
+        @Override
+        public boolean onJsPrompt(WebView view, String url, String message, String defaultValue, JsPromptResult result) {
+
+            if (!webViewPool.onJsPrompt(view, message, defaultValue))
+                return false;
+
+            result.confirm();
+            return true;
+        }
+
         private void showProgressBarIfHidden() {
             if ( progressBar.getVisibility() == View.GONE) {
                 progressBar.setVisibility(View.VISIBLE);
@@ -129,18 +409,80 @@ public class WebViewFragment extends Fragment {
         @Override
         public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
 
+            if (view != webView)
+                return;
+
             WebViewFragment.this.failingUrl = failingUrl;
             Toast.makeText(getActivity(), "Failed to load " + failingUrl, Toast.LENGTH_LONG).show();
         }
 
+        /**
+         *  Following a link means the user wants the live page, so it leaves offline mode.
+         */
         @Override
         public boolean shouldOverrideUrlLoading(WebView view, String url) {
+
+            cachingInterceptor.setOfflineMode(false);
         	return false;
         }
 
+        /**
+         *  Called on a web view thread, not the main thread. A prefetched response is used before the cache.
+         *  In reader mode documents are transformed as they are read, the cache keeps the original.
+         *  Images are shrunk to the display's resolution, and once shrunk are served from their own cache.
+         */
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+
+            WebResource resource = imageDownscaler.intercept(url);
+
+            // already downscaled, going through downscale again would count it as a new image
+            if (resource != null)
+                return new WebResourceResponse(resource.getMimeType(), resource.getEncoding(), resource.getData());
+
+            resource = prefetcher.intercept(url);
+
+            if (resource == null)
+                resource = cachingInterceptor.intercept(url);
+
+            if (resource == null)
+                return null;
+
+            if (readerMode && resource.getMimeType().equals("text/html")) {
+                ReaderStream reader = new ReaderStream(resource.getData(), resource.getEncoding(), url, readerStats);
+                return new WebResourceResponse("text/html", reader.getEncoding(), reader);
+            }
+
+            if (ImageDownscaler.canDownscale(resource.getMimeType())) {
+                resource = imageDownscaler.downscale(resource);
+                if (resource == null)
+                    return null;
+            }
+
+            return new WebResourceResponse(resource.getMimeType(), resource.getEncoding(), resource.getData());
+        }
+
+        @Override
+        public void onPageStarted(WebView view, String url, Bitmap favicon) {
+            super.onPageStarted(view, url, favicon);
+
+            webViewPool.onPageStarted(view);
+
+            if (view == webView) {
+                snapped = false;
+                cancelDwell(false);
+                crosshairOverlay.clearTarget();
+            }
+        }
+
         @Override
         public void onPageFinished(WebView view, String url) {
         	super.onPageFinished(view, url);
+
+            webViewPool.onPageFinished(view);
+
+            if (view == webView)
+                hidePageSnapshot();
         }
     };
 
@@ -148,72 +490,291 @@ public class WebViewFragment extends Fragment {
 
 
 	
+	/**
+	 *  Updates arrive on the main thread at most once per display frame. The head's speed sets the scroll velocity,
+	 *  and ScrollPhysics moves the page every frame in between. Once the jitter filter treats the movement as noise
+	 *  the head has stopped, and the page glides to a halt. A speed that has not changed is not passed on again.
+	 *  During a selection drag the head moves the pointer over the page instead, scaled by the time since the
+	 *  last update to keep the same speed as the original TIME_CONSTANT ticks.
+	 */
 	private GlassOrientationObserver orientationListener = new GlassOrientationObserver() {
 
         private final int ORIENTATION_MOVEMENT_MULTIPLIER = 30;
-		
+        private final long MAX_UPDATE_INTERVAL = 200;
+
+        private long lastUpdateTime;
+
 		@Override
 		public void onUpdate(final float[] gyroValues, final float[] gyroSum) {
 
-            final float xGyro = gyroValues[1];
-			final float deltaX = ORIENTATION_MOVEMENT_MULTIPLIER * xGyro;
-			
-			final float yGyro = gyroValues[0];
-			final float deltaY = ORIENTATION_MOVEMENT_MULTIPLIER * yGyro;
+            long now = SystemClock.uptimeMillis();
+            float intervalScale = getIntervalScale(now);
+            lastUpdateTime = now;
+
+            boolean changed = jitterFilter.filter(now, gyroValues[1], gyroValues[0]);
+
+            if (!jitterFilter.isMoving()) {
+                scrollPhysics.release();
+                return;
+            }
 
             //values need to be negated
-            int deltaPitch = (int) -deltaX;
-            int deltaYaw = (int) -deltaY;
+            if (!syntheticInput.isDragging()) {
 
-			Activity currActivity = getActivity();
-			currActivity.runOnUiThread(new MoveWebview(deltaPitch, deltaYaw));
-		}
-	};
-	
-	private class MoveWebview implements Runnable {
+                if (changed)
+                    scrollPhysics.setHeadVelocity(-jitterFilter.getX(), -jitterFilter.getY());
+                else
+                    scrollPhysics.holdHeadVelocity();
 
-        int deltaPitch;
-		int deltaYaw;
-		
-		public MoveWebview(int deltaPitch, int deltaYaw) {
-			this.deltaPitch = deltaPitch;
-			this.deltaYaw = deltaYaw;
-		}
-		
-		public void run() {
+                return;
+            }
 
+            final float xGyro = jitterFilter.getX();
+			final float deltaX = ORIENTATION_MOVEMENT_MULTIPLIER * xGyro * intervalScale;
 			
-			if (webView != null)
-				webView.scrollBy(this.deltaPitch, this.deltaYaw);
+			final float yGyro = jitterFilter.getY();
+			final float deltaY = ORIENTATION_MOVEMENT_MULTIPLIER * yGyro * intervalScale;
+
+            syntheticInput.moveBy(-deltaX, -deltaY);
 		}
-	}
-	
-    public void showCrosshairs(){
 
-        if ( crosshairView.getVisibility() == View.GONE) {
-    		crosshairView.setVisibility(View.VISIBLE);
+        private float getIntervalScale(long now) {
+
+            if (lastUpdateTime == 0)
+                return 1.0f;
+
+            long interval = Math.min(now - lastUpdateTime, MAX_UPDATE_INTERVAL);
+            return (float) interval / GlassOrientationTracker.TIME_CONSTANT;
         }
+	};
+
+    /**
+     *  Pre-draw is the closest this API level gets to the frame reaching the screen,
+     *  so the FRAME stage is recorded just before the web view draws.
+     *  The snap target is looked up here too, against the scroll position about to be drawn.
+     */
+    private ViewTreeObserver.OnPreDrawListener frameLatencyListener = new ViewTreeObserver.OnPreDrawListener() {
+
+        @Override
+        public boolean onPreDraw() {
+
+            if (latencyTracking)
+                latencyRecorder.recordPendingAndRelease(LatencyStage.FRAME);
+
+            if (crosshairsShown)
+                updateSnapTarget();
+
+            return true;
+        }
+    };
+
+    /**
+     *  Snaps the crosshair to the nearest link or control within reach of the screen center,
+     *  using the page's target index rather than asking the page.
+     */
+    private void updateSnapTarget() {
+
+        float scale = webView.getScale();
+        int scrollX = webView.getScrollX();
+        int scrollY = webView.getScrollY();
+
+        float pageX = (webView.getWidth() / 2.0f + scrollX) / scale;
+        float pageY = (webView.getHeight() / 2.0f + scrollY) / scale;
+
+        TargetIndex.Target target = targetCollector.getIndex().findNearest(pageX, pageY, snapRadius / scale);
+
+        if (target == null) {
+            snapped = false;
+            cancelDwell(true);
+            crosshairOverlay.clearTarget();
+            return;
+        }
+
+        if (target != dwellTarget)
+            startDwell(target);
+
+        snapped = true;
+        snapX = target.getCenterX() * scale - scrollX;
+        snapY = target.getCenterY() * scale - scrollY;
+
+        crosshairOverlay.setTarget(target.getLeft() * scale - scrollX, target.getTop() * scale - scrollY,
+                                   target.getRight() * scale - scrollX, target.getBottom() * scale - scrollY);
+    }
+
+    /**
+     *  Starts timing how long the crosshair stays on the target. A link it stays on is prefetched
+     *  if it is safe to, and moving off it cancels the prefetch if it has not finished.
+     */
+    private void startDwell(TargetIndex.Target target) {
+
+        cancelDwell(true);
+        dwellTarget = target;
+
+        String href = target.getHref();
+        if (href == null || cachingInterceptor.isOfflineMode() || (!href.startsWith("http:") && !href.startsWith("https:")))
+            return;
+
+        // no dwell is shown for a link that would not be prefetched
+        if (!Prefetcher.isSafeToPrefetch(href, webView.getUrl()))
+            return;
+
+        dwellHref = href;
+        crosshairOverlay.startDwell(PREFETCH_DWELL_MILLIS);
+        dwellTimer.sleep(PREFETCH_DWELL_MILLIS);
+    }
+
+    /**
+     *  A page that has started loading keeps its prefetch, it is most likely the link that was dwelt on.
+     */
+    private void cancelDwell(boolean cancelPrefetch) {
+
+        dwellTimer.removeMessages(0);
+        crosshairOverlay.cancelDwell();
+
+        if (cancelPrefetch && dwellHref != null)
+            prefetcher.cancel(dwellHref);
+
+        dwellTarget = null;
+        dwellHref = null;
+    }
+
+    private Runnable dwellTask = new Runnable() {
+        public void run() {
+
+            if (dwellHref != null)
+                prefetcher.prefetch(dwellHref, webView.getUrl());
+        }
+    };
+
+    private Runnable refreshLatencyOverlayTask = new Runnable() {
+        public void run() {
+            refreshLatencyOverlay();
+        }
+    };
+
+    private void refreshLatencyOverlay() {
+
+        if (!latencyTracking)
+            return;
+
+        latencyOverlayText.setLength(0);
+        latencyRecorder.format(latencyOverlayText);
+
+        OrientationPredictor predictor = orientationTracker.getPredictor();
+        if (predictor != null)
+            predictor.format(latencyOverlayText);
+
+        orientationTracker.formatMotionState(latencyOverlayText);
+        jitterFilter.format(latencyOverlayText);
+        scrollPhysics.format(latencyOverlayText);
+        webViewPool.format(latencyOverlayText);
+        cachingInterceptor.format(latencyOverlayText);
+        prefetcher.format(latencyOverlayText);
+        readerStats.format(latencyOverlayText);
+        imageDownscaler.format(latencyOverlayText);
+        latencyOverlay.setText(latencyOverlayText);
+
+        latencyOverlayRefresher.sleep(LATENCY_OVERLAY_REFRESH_MILLIS);
+    }
+
+    /**
+     *  Starts recording motion-to-photon latency and shows the running figures over the page.
+     */
+    private void startLatencyTracking() {
+
+        latencyTracking = true;
+        latencyRecorder.reset();
+
+        orientationTracker.setLatencyRecorder(latencyRecorder);
+        scrollCoalescer.setLatencyRecorder(latencyRecorder);
+
+        latencyOverlay.setVisibility(View.VISIBLE);
+        refreshLatencyOverlay();
+    }
+
+    /**
+     *  Stops recording, hides the overlay and writes the final figures to the app's files directory.
+     */
+    private void stopLatencyTracking() {
+
+        latencyTracking = false;
+
+        orientationTracker.setLatencyRecorder(null);
+        scrollCoalescer.setLatencyRecorder(null);
+
+        latencyOverlayRefresher.removeMessages(0);
+        latencyOverlay.setVisibility(View.GONE);
+
+        dumpLatency();
+    }
+
+    private void dumpLatency() {
+
+        File dumpFile = new File(getActivity().getFilesDir(), LATENCY_DUMP_FILE);
+
+        try {
+            latencyRecorder.dumpToFile(dumpFile);
+            Toast.makeText(getActivity(), "Latency written to " + dumpFile.getPath(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Toast.makeText(getActivity(), "Failed to write " + dumpFile.getPath(), Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    public void showCrosshairs(){
+
+        crosshairsShown = true;
+
+        crosshairOverlay.setActive(true);
     	orientationTracker.onResume();
     }
     
     public void hideCrosshairs() {
 
-        if ( crosshairView.getVisibility() == View.VISIBLE) {
+        crosshairsShown = false;
+
+        snapped = false;
+        cancelDwell(true);
+        crosshairOverlay.setActive(false);
+        syntheticInput.endDrag();
 
-            crosshairView.setVisibility(View.GONE);
-        }
     	orientationTracker.onPause();
+        scrollCoalescer.clear();
+        scrollPhysics.release();
+        jitterFilter.reset();
     }
 
+    private float getPointerX() {
+        return snapped ? snapX : syntheticInput.getCenterX();
+    }
+
+    private float getPointerY() {
+        return snapped ? snapY : syntheticInput.getCenterY();
+    }
+
+    /**
+     *  Taps the snapped target if there is one, otherwise the screen center.
+     */
     protected void doClick() {
 
-        webView.dispatchTouchEvent(TouchHelper.getTouchDown());
-		webView.dispatchTouchEvent(TouchHelper.getTouchUp());
+        syntheticInput.tap(getPointerX(), getPointerY());
 		
 		AudioNotification.playNotificationTap(getActivity());
     }
     
+	/**
+	 *  If the page that failed is in the cache the retry is made offline, so it shows the cached copy
+	 *  rather than failing again on a bad connection.
+	 */
 	public void retryLoadingSite() {
+
+        if (failingUrl == null)
+            return;
+
+        if (cachingInterceptor.getCache().contains(failingUrl)) {
+            cachingInterceptor.setOfflineMode(true);
+            Toast.makeText(getActivity(), "Showing offline copy", Toast.LENGTH_SHORT).show();
+        }
+
         webView.loadUrl(failingUrl);
     }
 
@@ -224,11 +785,53 @@ public class WebViewFragment extends Fragment {
             return true;
         }
 
+        if (gesture == Gesture.TWO_TAP) {
+            syntheticInput.longPress(getPointerX(), getPointerY());
+            return true;
+        }
+
+        // while the crosshairs are held, selects from the crosshair until the fingers are lifted
+        if (gesture == Gesture.TWO_LONG_PRESS && crosshairsShown) {
+            syntheticInput.startDrag(getPointerX(), getPointerY(), true);
+            return true;
+        }
+
+        if (gesture == Gesture.TWO_SWIPE_RIGHT || gesture == Gesture.TWO_SWIPE_LEFT) {
+            switchPage(gesture == Gesture.TWO_SWIPE_RIGHT);
+            return true;
+        }
+
+        if (gesture == Gesture.THREE_TAP) {
+            setReaderMode(!readerMode);
+            return true;
+        }
+
+        if (gesture == Gesture.LONG_PRESS) {
+
+            if (latencyTracking)
+                stopLatencyTracking();
+            else
+                startLatencyTracking();
+
+            return true;
+        }
+
         return false;
     }
 
+    /**
+     *  Reloads the page so it is shown the new way, the original comes from the response cache.
+     */
+    private void setReaderMode(boolean readerMode) {
+
+        this.readerMode = readerMode;
+        Toast.makeText(getActivity(), readerMode ? "Reader mode on" : "Reader mode off", Toast.LENGTH_SHORT).show();
+
+        webView.reload();
+    }
+
     public boolean onScroll(float displacement, float delta, float velocity) {
-        webView.scrollBy(0, (int) delta);
+        scrollCoalescer.scrollBy(0, delta);
         return false;
     }
 }
@@ -0,0 +1,302 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Shrinks images to the display's resolution before the web view sees them, so it never
+ *  decodes or holds more pixels than it can show.
+ *
+ *  An image larger than maxSize in either dimension is decoded with a power of two subsample,
+ *  scaled the rest of the way, re-encoded and written to a cache of its own, which serves it
+ *  from then on without fetching or decoding the original again. Smaller images, animations
+ *  and vector images are passed through untouched.
+ *
+ *  Called on web view threads. Only a couple of images are decoded at once to bound the peak heap,
+ *  and an image that cannot be decoded in the memory available is passed through as it is.
+ */
+public class ImageDownscaler {
+
+    private static final int MAX_CONCURRENT_DECODES = 2;
+
+    /** Originals bigger than this are passed through rather than held in memory to decode. */
+    private static final int MAX_SOURCE_BYTES = 8 * 1024 * 1024;
+
+    private static final int JPEG_QUALITY = 80;
+
+    /** The downscaled copy is kept for a day, then the original is fetched again through the response cache. */
+    private static final long TIME_TO_LIVE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final ResponseCache cache;
+    private final int maxSize;
+    private final Semaphore decodePermits = new Semaphore(MAX_CONCURRENT_DECODES);
+
+    private final AtomicLong images = new AtomicLong();
+    private final AtomicLong downscaled = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong pixelsIn = new AtomicLong();
+    private final AtomicLong pixelsOut = new AtomicLong();
+    private final AtomicLong decodes = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    /**
+     *  maxSize is the most pixels an image keeps in either dimension. A tall image is scrolled rather
+     *  than fitted, so this is the display's longer side rather than its height.
+     */
+    public ImageDownscaler(ResponseCache cache, int maxSize) {
+
+        this.cache = cache;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     *  Serves an image that was downscaled before, or returns null.
+     */
+    public WebResource intercept(String url) {
+
+        if (!cache.contains(url))
+            return null;
+
+        ResponseCache.Entry entry = cache.get(url);
+
+        if (entry == null || !entry.isFresh(System.currentTimeMillis()))
+            return null;
+
+        try {
+            InputStream body = cache.openBody(entry);
+            cacheHits.incrementAndGet();
+            return new WebResource(url, entry.getMimeType(), null, body);
+        } catch (IOException e) {
+            cache.remove(url);
+            return null;
+        }
+    }
+
+    public static boolean canDownscale(String mimeType) {
+        return mimeType.equals("image/jpeg") || mimeType.equals("image/png") || mimeType.equals("image/webp") || mimeType.equals("image/bmp");
+    }
+
+    /**
+     *  Returns the resource shrunk to the display's resolution, or the original if it is small enough
+     *  or cannot be decoded. The resource's stream is read here.
+     */
+    public WebResource downscale(WebResource resource) {
+
+        if (!canDownscale(resource.getMimeType()))
+            return resource;
+
+        images.incrementAndGet();
+
+        byte[] source;
+
+        try {
+            source = readSource(resource.getData());
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            return null;
+        }
+
+        if (source.length > MAX_SOURCE_BYTES) {
+            // too big to hold, the web view gets what was read followed by the rest
+            InputStream rest = new SequenceInputStream(new ByteArrayInputStream(source), resource.getData());
+            return new WebResource(resource.getUrl(), resource.getMimeType(), resource.getEncoding(), rest);
+        }
+
+        bytesIn.addAndGet(source.length);
+
+        try {
+            decodePermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return passThrough(resource, source);
+        }
+
+        ByteArrayOutputStream scaled = new ByteArrayOutputStream();
+        String mimeType = null;
+        long start = System.nanoTime();
+
+        try {
+            mimeType = scale(resource.getMimeType(), source, scaled);
+        } catch (OutOfMemoryError e) {
+            failures.incrementAndGet();
+        } finally {
+            decodePermits.release();
+            decodes.incrementAndGet();
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        if (mimeType == null)
+            return passThrough(resource, source);
+
+        byte[] image = scaled.toByteArray();
+
+        downscaled.incrementAndGet();
+        bytesOut.addAndGet(image.length);
+        store(resource.getUrl(), mimeType, image);
+
+        return new WebResource(resource.getUrl(), mimeType, null, new ByteArrayInputStream(image));
+    }
+
+    private WebResource passThrough(WebResource resource, byte[] source) {
+
+        bytesOut.addAndGet(source.length);
+        return new WebResource(resource.getUrl(), resource.getMimeType(), resource.getEncoding(), new ByteArrayInputStream(source));
+    }
+
+    /**
+     *  Writes the re-encoded image and returns its type, or returns null if the image is already small enough
+     *  or could not be decoded.
+     */
+    private String scale(String mimeType, byte[] source, OutputStream output) {
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(source, 0, source.length, options);
+
+        int width = options.outWidth;
+        int height = options.outHeight;
+
+        if (width <= 0 || height <= 0) {
+            failures.incrementAndGet();
+            return null;
+        }
+
+        long pixels = (long) width * height;
+        pixelsIn.addAndGet(pixels);
+
+        if (width <= maxSize && height <= maxSize) {
+            pixelsOut.addAndGet(pixels);
+            return null;
+        }
+
+        float scale = Math.min((float) maxSize / width, (float) maxSize / height);
+        int targetWidth = Math.max(1, Math.round(width * scale));
+        int targetHeight = Math.max(1, Math.round(height * scale));
+
+        // the largest subsample that still decodes at least the target size, the rest is done by scaling
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+
+        boolean opaque = mimeType.equals("image/jpeg");
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        options.inDither = opaque;
+
+        Bitmap decoded = BitmapFactory.decodeByteArray(source, 0, source.length, options);
+
+        if (decoded == null) {
+            failures.incrementAndGet();
+            pixelsOut.addAndGet(pixels);
+            return null;
+        }
+
+        Bitmap scaled = decoded;
+        if (decoded.getWidth() != targetWidth || decoded.getHeight() != targetHeight)
+            scaled = Bitmap.createScaledBitmap(decoded, targetWidth, targetHeight, true);
+
+        if (scaled != decoded)
+            decoded.recycle();
+
+        boolean alpha = scaled.hasAlpha();
+
+        if (alpha)
+            scaled.compress(Bitmap.CompressFormat.PNG, 100, output);
+        else
+            scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+
+        pixelsOut.addAndGet((long) scaled.getWidth() * scaled.getHeight());
+        scaled.recycle();
+
+        return alpha ? "image/png" : "image/jpeg";
+    }
+
+    private void store(String url, String mimeType, byte[] image) {
+
+        ResponseCache.Editor editor = cache.edit(url, mimeType, null);
+        editor.setValidators(null, null, System.currentTimeMillis() + TIME_TO_LIVE_MILLIS);
+
+        try {
+            OutputStream output = editor.getOutputStream();
+            output.write(image);
+            editor.commit();
+        } catch (IOException e) {
+            editor.abort();
+        }
+    }
+
+    /**
+     *  Reads the whole image and closes the stream, unless it is bigger than MAX_SOURCE_BYTES,
+     *  in which case what was read is returned and the stream is left open.
+     */
+    private static byte[] readSource(InputStream input) throws IOException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        boolean complete = false;
+
+        try {
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+
+                output.write(buffer, 0, count);
+
+                if (output.size() > MAX_SOURCE_BYTES)
+                    return output.toByteArray();
+            }
+            complete = true;
+        } finally {
+            if (complete)
+                input.close();
+        }
+
+        return output.toByteArray();
+    }
+
+
+    public long getImageCount() {
+        return images.get();
+    }
+
+    public long getDownscaledCount() {
+        return downscaled.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     *  The share of decoded pixels, and so of the web view's bitmap memory, that downscaling removed.
+     */
+    public float getPixelReduction() {
+
+        long in = pixelsIn.get();
+        return (in == 0) ? 0 : 1.0f - (float) pixelsOut.get() / in;
+    }
+
+    public void format(StringBuilder builder) {
+
+        builder.append("images ").append(downscaled.get()).append('/').append(images.get());
+        builder.append(" px -").append(Math.round(getPixelReduction() * 100)).append('%');
+        builder.append(' ').append(bytesIn.get() / 1024).append("k>").append(bytesOut.get() / 1024).append('k');
+        builder.append(" cached ").append(cacheHits.get());
+        builder.append(" fail ").append(failures.get());
+        builder.append(" decode ").append((decodes.get() == 0) ? 0 : decodeNanos.get() / decodes.get() / 1000000).append("ms\n");
+    }
+}
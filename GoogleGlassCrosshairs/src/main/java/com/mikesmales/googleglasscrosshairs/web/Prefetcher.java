@@ -0,0 +1,660 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import android.webkit.CookieManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *  Fetches the page behind a link before it is followed, along with the stylesheets and scripts
+ *  its head asks for, and hands them to the web view if the link is followed soon after.
+ *
+ *  Prefetched responses are kept in memory for a short time and served once. Whatever expires
+ *  unused is counted as waste, so the hit and waste ratios show whether the dwell that triggers
+ *  a prefetch is too short or too long.
+ *
+ *  A prefetch is sent with the web view's cookies, so it is only made for links that stay on the
+ *  page's own origin and do not look like an action, such as signing out, unsubscribing, deleting
+ *  or following an ad, which a GET from a glance should never trigger.
+ *
+ *  Only a couple of prefetches run at once. A new one beyond the queue cancels the oldest,
+ *  and a prefetch can be cancelled at any point, which drops its connection.
+ *
+ *  prefetch and cancel are called on the main thread, intercept on a web view thread.
+ */
+public class Prefetcher implements ResourceInterceptor {
+
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 30000;
+
+    private static final int MAX_CONCURRENT = 2;
+    private static final int MAX_QUEUED = 2;
+    private static final int MAX_SUBRESOURCES = 6;
+    private static final int MAX_RESOURCE_BYTES = 512 * 1024;
+    private static final long MAX_CACHED_BYTES = 4 * 1024 * 1024;
+
+    /** The critical subresources are looked for in this much of the document, which covers the head of most pages. */
+    private static final int MAX_SCANNED_CHARS = 32 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 15000;
+
+    /** How long a request for a page still being prefetched waits for it, rather than starting again. */
+    private static final long IN_FLIGHT_WAIT_MILLIS = 5000;
+
+    private static final Pattern TAG = Pattern.compile("<(link|script|body)\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern STYLESHEET = Pattern.compile("\\brel\\s*=\\s*[\"']?stylesheet\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HREF = Pattern.compile("\\bhref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))", Pattern.CASE_INSENSITIVE);
+    /** Words in a link's path or query that mark it as doing something rather than showing a page. */
+    private static final Pattern ACTION = Pattern.compile(
+        "(?:^|[^a-z0-9])(?:logout|log-out|log_out|logoff|signout|sign-out|sign_out|unsubscribe|delete|remove|destroy|cancel"
+      + "|confirm|approve|checkout|purchase|buy|vote|like|follow|subscribe|ad|ads|adclick|aclk|click|clk|track|tracking|redirect)(?:$|[^a-z0-9])",
+        Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SRC = Pattern.compile("\\bsrc\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s>]+))", Pattern.CASE_INSENSITIVE);
+
+    private static class Entry {
+
+        final String url;
+        final String mimeType;
+        final String encoding;
+        final byte[] body;
+        final long expiresAt;
+        final boolean document;
+
+        Entry(String url, String mimeType, String encoding, byte[] body, long expiresAt, boolean document) {
+
+            this.url = url;
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.body = body;
+            this.expiresAt = expiresAt;
+            this.document = document;
+        }
+    }
+
+    private final ResponseCache responseCache;
+    private final long timeToLiveMillis;
+    private final ThreadPoolExecutor executor;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private final LinkedHashMap<String, PrefetchTask> inFlight = new LinkedHashMap<String, PrefetchTask>();
+
+    private volatile String userAgent;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong documentsPrefetched = new AtomicLong();
+    private final AtomicLong documentHits = new AtomicLong();
+    private final AtomicLong documentsWasted = new AtomicLong();
+    private final AtomicLong resourcesPrefetched = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong bytesPrefetched = new AtomicLong();
+    private final AtomicLong bytesUsed = new AtomicLong();
+    private final AtomicLong bytesWasted = new AtomicLong();
+
+    /**
+     *  Pages and subresources the response cache already has are not prefetched, the cache serves them from disk anyway.
+     */
+    public Prefetcher(ResponseCache responseCache) {
+        this(responseCache, DEFAULT_TIME_TO_LIVE_MILLIS);
+    }
+
+    public Prefetcher(ResponseCache responseCache, long timeToLiveMillis) {
+
+        this.responseCache = responseCache;
+        this.timeToLiveMillis = timeToLiveMillis;
+
+        executor = new ThreadPoolExecutor(MAX_CONCURRENT, MAX_CONCURRENT, 30, TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue<Runnable>(MAX_QUEUED));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     *  Sent with each prefetch, so the server returns the same page it would give the web view.
+     */
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    /**
+     *  Starts fetching the page unless it is already cached, prefetched or on its way, or is a link
+     *  that should not be fetched unasked. pageUrl is the page the link is on.
+     */
+    public void prefetch(String url, String pageUrl) {
+
+        if (!isHttp(url))
+            return;
+
+        if (!isSafeToPrefetch(url, pageUrl)) {
+            skipped.incrementAndGet();
+            return;
+        }
+
+        synchronized (entries) {
+
+            evictExpired(System.currentTimeMillis());
+
+            if (entries.containsKey(url))
+                return;
+        }
+
+        if (responseCache != null && responseCache.contains(url))
+            return;
+
+        synchronized (inFlight) {
+
+            if (inFlight.containsKey(url))
+                return;
+
+            if (inFlight.size() >= MAX_CONCURRENT + MAX_QUEUED)
+                inFlight.values().iterator().next().cancel();
+
+            // cancelled tasks stay queued until purged, and would take the places of new ones
+            executor.purge();
+
+            PrefetchTask task = new PrefetchTask(url);
+
+            try {
+                task.future = executor.submit(task);
+            } catch (RejectedExecutionException e) {
+                // the pool is still busy with cancelled prefetches that have not noticed yet
+                return;
+            }
+
+            inFlight.put(url, task);
+            started.incrementAndGet();
+        }
+    }
+
+    /**
+     *  Stops the page's prefetch if it is still running. Anything it already fetched stays until it expires.
+     */
+    public void cancel(String url) {
+
+        PrefetchTask task;
+
+        synchronized (inFlight) {
+            task = inFlight.get(url);
+        }
+
+        if (task != null)
+            task.cancel();
+    }
+
+    public void cancelAll() {
+
+        List<PrefetchTask> tasks;
+
+        synchronized (inFlight) {
+            tasks = new ArrayList<PrefetchTask>(inFlight.values());
+        }
+
+        for (PrefetchTask task : tasks) {
+            task.cancel();
+        }
+    }
+
+    /**
+     *  Serves a prefetched response once. A request for a page still being prefetched waits for it.
+     */
+    @Override
+    public WebResource intercept(String url) {
+
+        if (!isHttp(url))
+            return null;
+
+        PrefetchTask task;
+
+        synchronized (inFlight) {
+            task = inFlight.get(url);
+        }
+
+        if (task != null)
+            task.awaitDocument();
+
+        Entry entry;
+
+        synchronized (entries) {
+
+            evictExpired(System.currentTimeMillis());
+            entry = entries.remove(url);
+
+            if (entry == null)
+                return null;
+
+            cachedBytes -= entry.body.length;
+        }
+
+        hits.incrementAndGet();
+        bytesUsed.addAndGet(entry.body.length);
+
+        if (entry.document)
+            documentHits.incrementAndGet();
+
+        return new WebResource(url, entry.mimeType, entry.encoding, new ByteArrayInputStream(entry.body));
+    }
+
+    /**
+     *  Cancels everything and drops what was prefetched.
+     */
+    public void shutdown() {
+
+        cancelAll();
+        executor.shutdownNow();
+
+        synchronized (entries) {
+
+            for (Entry entry : entries.values()) {
+                countWaste(entry);
+            }
+            entries.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    private class PrefetchTask implements Runnable {
+
+        final String url;
+        final CountDownLatch documentLoaded = new CountDownLatch(1);
+
+        volatile boolean cancelled;
+        volatile HttpURLConnection connection;
+        Future<?> future;
+
+        PrefetchTask(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                Entry document = fetch(this, url, true);
+                documentLoaded.countDown();
+
+                if (document == null || !document.mimeType.equals("text/html"))
+                    return;
+
+                for (String subresource : findCriticalSubresources(document)) {
+
+                    if (cancelled)
+                        return;
+
+                    synchronized (entries) {
+                        if (entries.containsKey(subresource))
+                            continue;
+                    }
+
+                    if (responseCache == null || !responseCache.contains(subresource))
+                        fetch(this, subresource, false);
+                }
+            } finally {
+                documentLoaded.countDown();
+                finished(this);
+            }
+        }
+
+        void cancel() {
+
+            if (cancelled)
+                return;
+
+            cancelled = true;
+            Prefetcher.this.cancelled.incrementAndGet();
+
+            if (future != null)
+                future.cancel(true);
+
+            HttpURLConnection connection = this.connection;
+            if (connection != null)
+                connection.disconnect();
+
+            documentLoaded.countDown();
+            finished(this);
+        }
+
+        void awaitDocument() {
+
+            try {
+                documentLoaded.await(IN_FLIGHT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void finished(PrefetchTask task) {
+
+        synchronized (inFlight) {
+            if (inFlight.get(task.url) == task)
+                inFlight.remove(task.url);
+        }
+    }
+
+    /**
+     *  Fetches and stores one response, returning null if it failed, was cancelled or cannot be served as it is.
+     */
+    private Entry fetch(PrefetchTask task, String url, boolean document) {
+
+        if (task.cancelled)
+            return null;
+
+        HttpURLConnection connection = null;
+
+        try {
+            connection = openConnection(url);
+            task.connection = connection;
+
+            if (task.cancelled)
+                return null;
+
+            // a redirected page has to be loaded from its new url or its relative links break
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK || !url.equals(connection.getURL().toString())) {
+                failed.incrementAndGet();
+                return null;
+            }
+
+            String cacheControl = connection.getHeaderField("Cache-Control");
+            if (cacheControl != null && cacheControl.toLowerCase().contains("no-store")) {
+                failed.incrementAndGet();
+                return null;
+            }
+
+            byte[] body = readBody(task, connection.getInputStream());
+            if (body == null)
+                return null;
+
+            Entry entry = new Entry(url, CachingInterceptor.getMimeType(connection.getContentType()),
+                                    CachingInterceptor.getCharset(connection.getContentType()), body,
+                                    System.currentTimeMillis() + timeToLiveMillis, document);
+            store(entry);
+            return entry;
+
+        } catch (IOException e) {
+            if (!task.cancelled)
+                failed.incrementAndGet();
+            return null;
+        } finally {
+            task.connection = null;
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    /**
+     *  Reads the whole body, or returns null if the task is cancelled or the body is too big to be worth keeping.
+     */
+    private byte[] readBody(PrefetchTask task, InputStream input) throws IOException {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+
+        try {
+            int count;
+
+            while ((count = input.read(buffer)) != -1) {
+
+                if (task.cancelled)
+                    return null;
+
+                output.write(buffer, 0, count);
+
+                if (output.size() > MAX_RESOURCE_BYTES) {
+                    failed.incrementAndGet();
+                    return null;
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        return task.cancelled ? null : output.toByteArray();
+    }
+
+    private void store(Entry entry) {
+
+        bytesPrefetched.addAndGet(entry.body.length);
+
+        if (entry.document)
+            documentsPrefetched.incrementAndGet();
+        else
+            resourcesPrefetched.incrementAndGet();
+
+        synchronized (entries) {
+
+            Entry replaced = entries.put(entry.url, entry);
+            if (replaced != null) {
+                cachedBytes -= replaced.body.length;
+                countWaste(replaced);
+            }
+
+            cachedBytes += entry.body.length;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+
+            while (cachedBytes > MAX_CACHED_BYTES && eldest.hasNext()) {
+
+                Entry evicted = eldest.next();
+                eldest.remove();
+                cachedBytes -= evicted.body.length;
+                countWaste(evicted);
+            }
+        }
+    }
+
+    /**
+     *  Must hold the entries lock.
+     */
+    private void evictExpired(long now) {
+
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+
+            Entry entry = iterator.next();
+
+            if (entry.expiresAt <= now) {
+                iterator.remove();
+                cachedBytes -= entry.body.length;
+                countWaste(entry);
+            }
+        }
+    }
+
+    private void countWaste(Entry entry) {
+
+        bytesWasted.addAndGet(entry.body.length);
+
+        if (entry.document)
+            documentsWasted.incrementAndGet();
+    }
+
+    /**
+     *  The stylesheets and scripts before the body, in document order, resolved against the page's url.
+     *  A scan with patterns rather than a parse, which is enough to find them in the head.
+     */
+    static List<String> findCriticalSubresources(String baseUrl, CharSequence html) {
+
+        List<String> urls = new ArrayList<String>();
+        Matcher tag = TAG.matcher(html);
+
+        while (tag.find() && urls.size() < MAX_SUBRESOURCES) {
+
+            String name = tag.group(1).toLowerCase();
+
+            if (name.equals("body"))
+                break;
+
+            String attributes = tag.group();
+            Matcher reference = null;
+
+            if (name.equals("link") && STYLESHEET.matcher(attributes).find())
+                reference = HREF.matcher(attributes);
+            else if (name.equals("script"))
+                reference = SRC.matcher(attributes);
+
+            if (reference == null || !reference.find())
+                continue;
+
+            String value = reference.group(1) != null ? reference.group(1) : reference.group(2) != null ? reference.group(2) : reference.group(3);
+
+            try {
+                String resolved = new URL(new URL(baseUrl), value.replace("&amp;", "&").trim()).toString();
+
+                if (isHttp(resolved) && !urls.contains(resolved))
+                    urls.add(resolved);
+            } catch (IOException e) {
+                // not a url this can fetch
+            }
+        }
+
+        return urls;
+    }
+
+    private static List<String> findCriticalSubresources(Entry document) {
+
+        int length = Math.min(document.body.length, MAX_SCANNED_CHARS);
+
+        try {
+            // tags and attribute names are ASCII in every encoding a page is likely to use
+            return findCriticalSubresources(document.url, new String(document.body, 0, length, "ISO-8859-1"));
+        } catch (UnsupportedEncodingException e) {
+            return new ArrayList<String>();
+        }
+    }
+
+    /**
+     *  True for a link to the same scheme, host and port as the page, whose path and query have no action words.
+     */
+    public static boolean isSafeToPrefetch(String url, String pageUrl) {
+
+        if (pageUrl == null)
+            return false;
+
+        URL link;
+        URL page;
+
+        try {
+            link = new URL(url);
+            page = new URL(pageUrl);
+        } catch (IOException e) {
+            return false;
+        }
+
+        if (!link.getProtocol().equalsIgnoreCase(page.getProtocol()) || !link.getHost().equalsIgnoreCase(page.getHost())
+                || getPort(link) != getPort(page))
+            return false;
+
+        if (link.getUserInfo() != null)
+            return false;
+
+        return !ACTION.matcher(link.getFile()).find();
+    }
+
+    private static int getPort(URL url) {
+        return (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+    }
+
+    protected HttpURLConnection openConnection(String url) throws IOException {
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setUseCaches(false);
+
+        if (userAgent != null)
+            connection.setRequestProperty("User-Agent", userAgent);
+
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null)
+            connection.setRequestProperty("Cookie", cookies);
+
+        return connection;
+    }
+
+    private static boolean isHttp(String url) {
+        return url != null && (url.startsWith("http:") || url.startsWith("https:"));
+    }
+
+
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    /**
+     *  Links not prefetched because they leave the page's origin or look like an action.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *  Of the prefetched pages that were either followed or expired, the share that were followed.
+     *  Low means prefetches start on links that are only glanced at, so the dwell could be longer.
+     */
+    public float getDocumentHitRatio() {
+
+        long resolved = documentHits.get() + documentsWasted.get();
+        return (resolved == 0) ? 0 : (float) documentHits.get() / resolved;
+    }
+
+    /**
+     *  Of the bytes that were either used or expired, the share that expired unused.
+     */
+    public float getWasteRatio() {
+
+        long resolved = bytesUsed.get() + bytesWasted.get();
+        return (resolved == 0) ? 0 : (float) bytesWasted.get() / resolved;
+    }
+
+    public long getBytesPrefetched() {
+        return bytesPrefetched.get();
+    }
+
+    public long getBytesWasted() {
+        return bytesWasted.get();
+    }
+
+    public void format(StringBuilder builder) {
+
+        builder.append("prefetch ").append(started.get());
+        builder.append(" skip ").append(skipped.get());
+        builder.append(" cancel ").append(cancelled.get());
+        builder.append(" fail ").append(failed.get());
+        builder.append(" pages ").append(documentHits.get()).append('/').append(documentsPrefetched.get());
+        builder.append(" res ").append(resourcesPrefetched.get());
+        builder.append(" hit ").append(Math.round(getDocumentHitRatio() * 100)).append('%');
+        builder.append(" waste ").append(Math.round(getWasteRatio() * 100)).append("% ");
+        builder.append(bytesWasted.get() / 1024).append("k\n");
+    }
+}
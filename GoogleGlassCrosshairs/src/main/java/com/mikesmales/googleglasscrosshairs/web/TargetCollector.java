@@ -0,0 +1,207 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import android.content.Context;
+import android.webkit.WebView;
+
+import com.mikesmales.googleglasscrosshairs.R;
+
+/**
+ *  Keeps a TargetIndex of the current page's links and controls, fed by a script injected into the page.
+ *
+ *  The script sends rectangles in batches, and again only for what changed after a DOM mutation or scroll.
+ *  A batch is sent as a prompt whose message is a prefix and the page generation, which the web chrome client
+ *  hands to receive and answers without showing. Unlike a javascript interface this gives the page nothing
+ *  to reach through, which below API 17 would be every method of the bridge object, getClass included.
+ *  Batches arrive and are applied on the main thread, between frames, so a lookup never sees half a batch.
+ *
+ *  Each page load starts a new generation, batches still arriving from the previous page are dropped.
+ */
+public class TargetCollector {
+
+    private static final String MESSAGE_PREFIX = "crosshair-targets:";
+    private static final String GENERATION_PLACEHOLDER = "GENERATION";
+
+    private final TargetIndex index = new TargetIndex();
+    private final String script;
+
+    private int generation;
+    private long batchesApplied;
+
+    public TargetCollector(Context context) {
+        script = readScript(context);
+    }
+
+    public TargetIndex getIndex() {
+        return index;
+    }
+
+    /**
+     *  Call when a page starts loading.
+     */
+    public void onPageStarted() {
+
+        generation++;
+        index.clear();
+    }
+
+    /**
+     *  Call when a page has loaded, runs the collecting script in it.
+     */
+    public void inject(WebView webView) {
+
+        if (script != null)
+            webView.loadUrl("javascript:" + script.replace(GENERATION_PLACEHOLDER, Integer.toString(generation)));
+    }
+
+    /**
+     *  From WebChromeClient.onJsPrompt. Returns true if the prompt was a batch from the script,
+     *  which the caller answers without showing it, even if the batch was for an earlier page and dropped.
+     */
+    public boolean receive(String message, String encoded) {
+
+        if (message == null || !message.startsWith(MESSAGE_PREFIX))
+            return false;
+
+        int batchGeneration;
+
+        try {
+            batchGeneration = Integer.parseInt(message.substring(MESSAGE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return true;
+        }
+
+        if (batchGeneration != generation || encoded == null)
+            return true;
+
+        TargetBatch batch = TargetBatch.parse(batchGeneration, encoded);
+
+        if (batch != null)
+            apply(batch);
+
+        return true;
+    }
+
+    public long getBatchesApplied() {
+        return batchesApplied;
+    }
+
+    private void apply(TargetBatch batch) {
+
+        if (batch.generation != generation)
+            return;
+
+        for (int i = 0; i < batch.removedCount; i++) {
+            index.remove(batch.removedIds[i]);
+        }
+
+        for (int i = 0; i < batch.count; i++) {
+
+            int offset = i * 4;
+            index.put(batch.ids[i], batch.bounds[offset], batch.bounds[offset + 1], batch.bounds[offset + 2], batch.bounds[offset + 3], batch.hrefs[i]);
+        }
+
+        batchesApplied++;
+    }
+
+    /**
+     *  Entries are separated by ';', an added or moved target is "id,left,top,right,bottom" and a removed one "-id".
+     *  A link has its url-encoded href as a sixth field.
+     */
+    static class TargetBatch {
+
+        int generation;
+
+        int count;
+        int[] ids;
+        float[] bounds;
+        String[] hrefs;
+
+        int removedCount;
+        int[] removedIds;
+
+        static TargetBatch parse(int generation, String encoded) {
+
+            String[] entries = encoded.split(";");
+
+            TargetBatch batch = new TargetBatch();
+            batch.generation = generation;
+            batch.ids = new int[entries.length];
+            batch.bounds = new float[entries.length * 4];
+            batch.hrefs = new String[entries.length];
+            batch.removedIds = new int[entries.length];
+
+            try {
+                for (String entry : entries) {
+
+                    if (entry.startsWith("-")) {
+                        batch.removedIds[batch.removedCount++] = Integer.parseInt(entry.substring(1));
+                        continue;
+                    }
+
+                    String[] fields = entry.split(",");
+                    if (fields.length != 5 && fields.length != 6)
+                        continue;
+
+                    int offset = batch.count * 4;
+                    batch.ids[batch.count] = Integer.parseInt(fields[0]);
+
+                    for (int i = 0; i < 4; i++) {
+                        batch.bounds[offset + i] = Float.parseFloat(fields[i + 1]);
+                    }
+
+                    if (fields.length == 6)
+                        batch.hrefs[batch.count] = URLDecoder.decode(fields[5], "UTF-8");
+
+                    batch.count++;
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            } catch (UnsupportedEncodingException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+
+            return batch;
+        }
+    }
+
+    /**
+     *  Comment lines are dropped so the script still runs if the javascript: url loses its line breaks.
+     */
+    private static String readScript(Context context) {
+
+        InputStream input = context.getResources().openRawResource(R.raw.target_collector);
+        StringBuilder script = new StringBuilder();
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.trim().startsWith("//"))
+                    continue;
+
+                script.append(line).append('\n');
+            }
+            return script.toString();
+
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // nothing was read if it failed
+            }
+        }
+    }
+}
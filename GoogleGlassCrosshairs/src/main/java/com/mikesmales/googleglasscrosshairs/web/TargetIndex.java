@@ -0,0 +1,275 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ *  Uniform grid over the page of the clickable elements' bounding rectangles, in page (CSS pixel) coordinates.
+ *
+ *  Each target is listed in every cell it overlaps, so finding the nearest target to a point only looks at
+ *  the few cells within the search distance, however many targets the page has.
+ *  Rows are added as the page grows, columns are fixed and anything past the last one shares it.
+ *
+ *  Queries do not allocate. Not thread safe, use it from the main thread.
+ */
+public class TargetIndex {
+
+    public static final int DEFAULT_CELL_SIZE = 64;
+
+    private static final int COLUMNS = 64;
+
+    /** Targets this big are easy to hit without help, and would fill the grid. */
+    private static final int MAX_CELLS_PER_TARGET = 256;
+
+    public static class Target {
+
+        final int id;
+        float left;
+        float top;
+        float right;
+        float bottom;
+        String href;
+
+        int firstRow;
+        int lastRow;
+        int firstColumn;
+        int lastColumn;
+
+        Target(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public float getLeft() {
+            return left;
+        }
+
+        public float getTop() {
+            return top;
+        }
+
+        public float getRight() {
+            return right;
+        }
+
+        public float getBottom() {
+            return bottom;
+        }
+
+        /**
+         *  The url a link leads to, null if the target is not a link.
+         */
+        public String getHref() {
+            return href;
+        }
+
+        public float getCenterX() {
+            return (left + right) / 2;
+        }
+
+        public float getCenterY() {
+            return (top + bottom) / 2;
+        }
+
+        float getArea() {
+            return (right - left) * (bottom - top);
+        }
+
+        /**
+         *  Squared distance from the point to the nearest edge, zero if the point is inside.
+         */
+        float distanceSquared(float x, float y) {
+
+            float dx = (x < left) ? left - x : (x > right) ? x - right : 0;
+            float dy = (y < top) ? top - y : (y > bottom) ? y - bottom : 0;
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private static class Cell {
+
+        Target[] targets = new Target[4];
+        int count;
+
+        void add(Target target) {
+
+            if (count == targets.length) {
+                Target[] grown = new Target[count * 2];
+                System.arraycopy(targets, 0, grown, 0, count);
+                targets = grown;
+            }
+            targets[count++] = target;
+        }
+
+        void remove(Target target) {
+
+            for (int i = 0; i < count; i++) {
+
+                if (targets[i] == target) {
+                    targets[i] = targets[--count];
+                    targets[count] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final int cellSize;
+    private final HashMap<Integer, Target> targets = new HashMap<Integer, Target>();
+    private final ArrayList<Cell[]> rows = new ArrayList<Cell[]>();
+
+    public TargetIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    public TargetIndex(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void put(int id, float left, float top, float right, float bottom) {
+        put(id, left, top, right, bottom, null);
+    }
+
+    /**
+     *  Adds the target, or moves it if it is already indexed.
+     */
+    public void put(int id, float left, float top, float right, float bottom, String href) {
+
+        Target target = targets.get(id);
+
+        if (target == null) {
+            target = new Target(id);
+            targets.put(id, target);
+        }
+        else {
+            unlink(target);
+        }
+
+        target.left = left;
+        target.top = top;
+        target.right = right;
+        target.bottom = bottom;
+        target.href = href;
+
+        target.firstRow = getRow(top);
+        target.lastRow = getRow(bottom);
+        target.firstColumn = getColumn(left);
+        target.lastColumn = getColumn(right);
+
+        int cells = (target.lastRow - target.firstRow + 1) * (target.lastColumn - target.firstColumn + 1);
+
+        if (cells > MAX_CELLS_PER_TARGET) {
+            targets.remove(id);
+            return;
+        }
+
+        link(target);
+    }
+
+    public void remove(int id) {
+
+        Target target = targets.remove(id);
+
+        if (target != null)
+            unlink(target);
+    }
+
+    public void clear() {
+
+        targets.clear();
+        rows.clear();
+    }
+
+    public int size() {
+        return targets.size();
+    }
+
+    /**
+     *  Returns the target closest to the point, or null if none is within maxDistance.
+     *  A point inside several targets gets the smallest, which is the innermost of nested elements.
+     */
+    public Target findNearest(float x, float y, float maxDistance) {
+
+        int firstRow = getRow(y - maxDistance);
+        int lastRow = Math.min(getRow(y + maxDistance), rows.size() - 1);
+        int firstColumn = getColumn(x - maxDistance);
+        int lastColumn = getColumn(x + maxDistance);
+
+        float maxDistanceSquared = maxDistance * maxDistance;
+        Target nearest = null;
+        float nearestDistance = Float.MAX_VALUE;
+
+        for (int row = firstRow; row <= lastRow; row++) {
+
+            Cell[] cells = rows.get(row);
+
+            for (int column = firstColumn; column <= lastColumn; column++) {
+
+                Cell cell = cells[column];
+                if (cell == null)
+                    continue;
+
+                for (int i = 0; i < cell.count; i++) {
+
+                    Target target = cell.targets[i];
+                    float distance = target.distanceSquared(x, y);
+
+                    if (distance > maxDistanceSquared || distance > nearestDistance)
+                        continue;
+
+                    if (distance < nearestDistance || target.getArea() < nearest.getArea()) {
+                        nearest = target;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    private void link(Target target) {
+
+        while (rows.size() <= target.lastRow) {
+            rows.add(new Cell[COLUMNS]);
+        }
+
+        for (int row = target.firstRow; row <= target.lastRow; row++) {
+
+            Cell[] cells = rows.get(row);
+
+            for (int column = target.firstColumn; column <= target.lastColumn; column++) {
+
+                if (cells[column] == null)
+                    cells[column] = new Cell();
+
+                cells[column].add(target);
+            }
+        }
+    }
+
+    private void unlink(Target target) {
+
+        for (int row = target.firstRow; row <= target.lastRow && row < rows.size(); row++) {
+
+            Cell[] cells = rows.get(row);
+
+            for (int column = target.firstColumn; column <= target.lastColumn; column++) {
+
+                if (cells[column] != null)
+                    cells[column].remove(target);
+            }
+        }
+    }
+
+    private int getRow(float y) {
+        return Math.max(0, (int) (y / cellSize));
+    }
+
+    private int getColumn(float x) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) (x / cellSize)));
+    }
+}
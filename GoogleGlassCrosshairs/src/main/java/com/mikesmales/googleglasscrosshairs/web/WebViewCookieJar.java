@@ -0,0 +1,19 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import android.webkit.CookieManager;
+
+/**
+ *  The web view's own cookies, shared by every web view in the process.
+ */
+public class WebViewCookieJar implements CookieJar {
+
+    @Override
+    public String getCookie(String url) {
+        return CookieManager.getInstance().getCookie(url);
+    }
+
+    @Override
+    public void setCookie(String url, String setCookie) {
+        CookieManager.getInstance().setCookie(url, setCookie);
+    }
+}
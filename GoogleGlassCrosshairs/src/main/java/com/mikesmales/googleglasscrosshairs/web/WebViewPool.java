@@ -0,0 +1,482 @@
+package com.mikesmales.googleglasscrosshairs.web;
+
+import java.util.ArrayList;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.ViewGroup;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+
+import com.mikesmales.googleglasscrosshairs.ui.components.CrosshairWebView;
+
+/**
+ *  A fixed set of pages, each with its own web view, of which one is shown at a time.
+ *
+ *  Switching to a page that still has its web view is a view swap, the page that was shown is paused
+ *  and keeps its state. Background pages are evicted least recently used first when their estimated memory
+ *  goes over the budget, or all at once when the system is short of memory: the web view's state is saved
+ *  and it is destroyed, keeping a small snapshot to show while the page is restored on the next visit.
+ *
+ *  A spare web view is created whenever the main thread is idle, so even restoring an evicted page
+ *  does not pay for constructing one.
+ *
+ *  All methods must be called on the main thread.
+ */
+public class WebViewPool {
+
+    /**
+     *  Creates a web view with the clients and settings every page uses.
+     */
+    public interface WebViewFactory {
+
+        CrosshairWebView createWebView();
+    }
+
+    private static final int THUMBNAIL_SCALE = 4;
+
+    /** DOM, script and decoded images, which the view does not show. */
+    private static final long PAGE_BASE_BYTES = 4 * 1024 * 1024;
+
+    /** The rendered tiles kept for a page, in screens. */
+    private static final int MAX_RENDERED_SCREENS = 4;
+
+    /** Share of the app's heap limit that background pages may hold, as a fraction. */
+    private static final int MEMORY_CLASS_DIVISOR = 3;
+
+    public static class Page {
+
+        final String startUrl;
+
+        CrosshairWebView webView;
+        TargetCollector targetCollector;
+        long lastUsedMillis;
+
+        Bitmap thumbnail;
+
+        Bundle savedState;
+        int restoreScrollX;
+        int restoreScrollY;
+        float restoreScale;
+        boolean restoring;
+
+        Page(String startUrl) {
+            this.startUrl = startUrl;
+        }
+
+        public CrosshairWebView getWebView() {
+            return webView;
+        }
+
+        public TargetCollector getTargetCollector() {
+            return targetCollector;
+        }
+
+        public Bitmap getThumbnail() {
+            return thumbnail;
+        }
+
+        public boolean isWarm() {
+            return webView != null;
+        }
+
+        public String getUrl() {
+
+            String url = (webView == null) ? null : webView.getUrl();
+            return (url == null) ? startUrl : url;
+        }
+    }
+
+    private final Context context;
+    private final WebViewFactory factory;
+    private final ViewGroup container;
+    private final int viewIndex;
+    private final ViewGroup.LayoutParams layoutParams;
+
+    private final ArrayList<Page> pages = new ArrayList<Page>();
+    private int activeIndex = -1;
+    private long memoryBudgetBytes;
+
+    private CrosshairWebView spare;
+    private boolean spareScheduled;
+
+    private long switches;
+    private long warmSwitches;
+    private long evictions;
+    private long lastSwitchMicros;
+
+    /**
+     *  The placeholder is the web view from the layout, it is taken out of the layout and used for the first page,
+     *  and every page's web view goes in its place.
+     */
+    public WebViewPool(Context context, CrosshairWebView placeholder, WebViewFactory factory, String[] urls) {
+
+        this.context = context;
+        this.factory = factory;
+
+        container = (ViewGroup) placeholder.getParent();
+        viewIndex = container.indexOfChild(placeholder);
+        layoutParams = placeholder.getLayoutParams();
+        container.removeView(placeholder);
+        spare = placeholder;
+
+        for (String url : urls) {
+            pages.add(new Page(url));
+        }
+
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        memoryBudgetBytes = (long) activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+    }
+
+    public void setMemoryBudget(long bytes) {
+
+        memoryBudgetBytes = bytes;
+        trimToBudget();
+    }
+
+    /**
+     *  Restores the page from a saved web view state when it is next shown, instead of loading its start url.
+     */
+    public void restorePage(int index, Bundle state, int scrollX, int scrollY, float scale) {
+
+        Page page = pages.get(index);
+        page.savedState = state;
+        page.restoreScrollX = scrollX;
+        page.restoreScrollY = scrollY;
+        page.restoreScale = scale;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public int getActiveIndex() {
+        return activeIndex;
+    }
+
+    public Page getActivePage() {
+        return (activeIndex < 0) ? null : pages.get(activeIndex);
+    }
+
+    public Page findPage(WebView webView) {
+
+        for (int i = 0; i < pages.size(); i++) {
+
+            if (pages.get(i).webView == webView)
+                return pages.get(i);
+        }
+        return null;
+    }
+
+    public Page next() {
+        return switchTo((activeIndex + 1) % pages.size());
+    }
+
+    public Page previous() {
+        return switchTo((activeIndex + pages.size() - 1) % pages.size());
+    }
+
+    /**
+     *  Shows the page, swapping its web view in if it is warm, otherwise creating one and loading or restoring the page.
+     */
+    public Page switchTo(int index) {
+
+        long start = System.nanoTime();
+        Page page = pages.get(index);
+        Page previous = getActivePage();
+
+        if (page == previous)
+            return page;
+
+        if (previous != null)
+            sendToBackground(previous);
+
+        boolean warm = page.isWarm();
+
+        if (!warm)
+            createView(page);
+
+        container.addView(page.webView, viewIndex, layoutParams);
+        page.webView.onResume();
+        page.lastUsedMillis = System.currentTimeMillis();
+        activeIndex = index;
+
+        switches++;
+        if (warm)
+            warmSwitches++;
+        lastSwitchMicros = (System.nanoTime() - start) / 1000;
+
+        trimToBudget();
+        scheduleSpare();
+        return page;
+    }
+
+    public void onPageStarted(WebView webView) {
+
+        Page page = findPage(webView);
+
+        if (page != null)
+            page.targetCollector.onPageStarted();
+    }
+
+    /**
+     *  From WebChromeClient.onJsPrompt, returns true if the prompt was the target script's and has been handled.
+     */
+    public boolean onJsPrompt(WebView webView, String message, String value) {
+
+        Page page = findPage(webView);
+        return page != null && page.targetCollector.receive(message, value);
+    }
+
+    /**
+     *  Puts a restored page back where it was scrolled to.
+     */
+    public void onPageFinished(WebView webView) {
+
+        Page page = findPage(webView);
+
+        if (page == null)
+            return;
+
+        page.targetCollector.inject(webView);
+
+        if (page.restoring) {
+            page.restoring = false;
+            webView.getSettings().setCacheMode(WebSettings.LOAD_DEFAULT);
+            webView.scrollTo(page.restoreScrollX, page.restoreScrollY);
+        }
+    }
+
+    /**
+     *  From ComponentCallbacks2.onTrimMemory. The levels for a running app need API 16,
+     *  so every background page goes once the UI is hidden.
+     */
+    public void trimMemory(int level) {
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            evictBackgroundPages(0);
+            destroySpare();
+        }
+    }
+
+    public void destroy() {
+
+        for (int i = 0; i < pages.size(); i++) {
+
+            Page page = pages.get(i);
+
+            if (page.webView != null) {
+                container.removeView(page.webView);
+                page.webView.destroy();
+                page.webView = null;
+            }
+        }
+
+        activeIndex = -1;
+        destroySpare();
+    }
+
+    public long getSwitchCount() {
+        return switches;
+    }
+
+    public long getWarmSwitchCount() {
+        return warmSwitches;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    public long getLastSwitchMicros() {
+        return lastSwitchMicros;
+    }
+
+    public void format(StringBuilder builder) {
+
+        int warmPages = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).isWarm())
+                warmPages++;
+        }
+
+        builder.append("pages ").append(activeIndex + 1).append('/').append(pages.size());
+        builder.append(" warm ").append(warmPages);
+        builder.append(" switch ").append(lastSwitchMicros / 1000).append('.').append(lastSwitchMicros / 100 % 10).append(" ms");
+        builder.append(" hot ").append(warmSwitches).append('/').append(switches);
+        builder.append(" evicted ").append(evictions).append('\n');
+    }
+
+    private void sendToBackground(Page page) {
+
+        captureThumbnail(page);
+        page.webView.onPause();
+        page.lastUsedMillis = System.currentTimeMillis();
+        container.removeView(page.webView);
+    }
+
+    private void createView(Page page) {
+
+        page.webView = takeSpare();
+        page.targetCollector = new TargetCollector(context);
+
+        if (page.savedState != null) {
+
+            page.webView.setInitialScale(Math.round(page.restoreScale * 100));
+            page.webView.getSettings().setCacheMode(WebSettings.LOAD_CACHE_ELSE_NETWORK);
+
+            if (page.webView.restoreState(page.savedState) != null) {
+                page.restoring = true;
+                page.savedState = null;
+                return;
+            }
+
+            page.webView.getSettings().setCacheMode(WebSettings.LOAD_DEFAULT);
+            page.savedState = null;
+        }
+
+        page.webView.loadUrl(page.startUrl);
+    }
+
+    private void evict(Page page) {
+
+        Bundle state = new Bundle();
+        page.webView.saveState(state);
+
+        page.savedState = state;
+        page.restoreScrollX = page.webView.getScrollX();
+        page.restoreScrollY = page.webView.getScrollY();
+        page.restoreScale = page.webView.getScale();
+        page.restoring = false;
+
+        page.webView.destroy();
+        page.webView = null;
+        page.targetCollector = null;
+        evictions++;
+    }
+
+    private void trimToBudget() {
+
+        long total = 0;
+
+        for (int i = 0; i < pages.size(); i++) {
+
+            if (pages.get(i).isWarm())
+                total += estimateBytes(pages.get(i));
+        }
+
+        if (total > memoryBudgetBytes)
+            evictBackgroundPages(total - memoryBudgetBytes);
+    }
+
+    /**
+     *  Evicts least recently used background pages until at least the given number of bytes is freed,
+     *  or every background page when it is 0.
+     */
+    private void evictBackgroundPages(long bytesToFree) {
+
+        while (bytesToFree >= 0) {
+
+            Page oldest = null;
+
+            for (int i = 0; i < pages.size(); i++) {
+
+                Page page = pages.get(i);
+
+                if (i != activeIndex && page.isWarm() && (oldest == null || page.lastUsedMillis < oldest.lastUsedMillis))
+                    oldest = page;
+            }
+
+            if (oldest == null)
+                return;
+
+            long freed = estimateBytes(oldest);
+            evict(oldest);
+
+            if (bytesToFree > 0) {
+                bytesToFree -= freed;
+                if (bytesToFree <= 0)
+                    return;
+            }
+        }
+    }
+
+    /**
+     *  The web view does not report its memory, this counts a fixed cost for the page
+     *  plus the rendered screens it is likely to keep.
+     */
+    private long estimateBytes(Page page) {
+
+        CrosshairWebView webView = page.webView;
+        long screenBytes = (long) webView.getWidth() * webView.getHeight() * 4;
+
+        int height = Math.max(1, webView.getHeight());
+        int contentHeight = Math.round(webView.getContentHeight() * webView.getScale());
+        int screens = Math.max(1, Math.min(MAX_RENDERED_SCREENS, (contentHeight + height - 1) / height));
+
+        long thumbnailBytes = (page.thumbnail == null) ? 0 : page.thumbnail.getRowBytes() * page.thumbnail.getHeight();
+        return PAGE_BASE_BYTES + screenBytes * screens + thumbnailBytes;
+    }
+
+    private void captureThumbnail(Page page) {
+
+        CrosshairWebView webView = page.webView;
+        int width = webView.getWidth() / THUMBNAIL_SCALE;
+        int height = webView.getHeight() / THUMBNAIL_SCALE;
+
+        if (width == 0 || height == 0)
+            return;
+
+        if (page.thumbnail == null || page.thumbnail.getWidth() != width || page.thumbnail.getHeight() != height)
+            page.thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+
+        Canvas canvas = new Canvas(page.thumbnail);
+        canvas.scale(1.0f / THUMBNAIL_SCALE, 1.0f / THUMBNAIL_SCALE);
+        canvas.translate(-webView.getScrollX(), -webView.getScrollY());
+        webView.draw(canvas);
+    }
+
+    private CrosshairWebView takeSpare() {
+
+        CrosshairWebView webView = (spare != null) ? spare : factory.createWebView();
+        spare = null;
+        return webView;
+    }
+
+    private void destroySpare() {
+
+        if (spare != null) {
+            spare.destroy();
+            spare = null;
+        }
+    }
+
+    private void scheduleSpare() {
+
+        if (spare != null || spareScheduled)
+            return;
+
+        spareScheduled = true;
+        Looper.myQueue().addIdleHandler(createSpareWhenIdle);
+    }
+
+    private MessageQueue.IdleHandler createSpareWhenIdle = new MessageQueue.IdleHandler() {
+
+        @Override
+        public boolean queueIdle() {
+
+            spareScheduled = false;
+
+            if (spare == null && activeIndex >= 0)
+                spare = factory.createWebView();
+
+            return false;
+        }
+    };
+}
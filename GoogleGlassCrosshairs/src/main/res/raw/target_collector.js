@@ -0,0 +1,176 @@
+// Sends the page rectangles of links and controls to the app, as a prompt the app answers itself.
+// Rectangles are in page coordinates, so elements are only measured again when the layout may have changed,
+// after a DOM change or a resize. A scroll only culls the measured rectangles to those within a viewport
+// of the visible area, once the scroll has settled, and only changes are sent.
+// Links also send their resolved href, encoded so it cannot contain the separators.
+// GENERATION is replaced with the page generation when the script is injected.
+(function(generation) {
+
+    if (window.__crosshairTargets) {
+        window.__crosshairTargets.setGeneration(generation);
+        return;
+    }
+
+    var MESSAGE_PREFIX = 'crosshair-targets:';
+    var SELECTOR = 'a[href], button, input, select, textarea, label, [onclick], [role="button"], [role="link"]';
+    var BATCH_SIZE = 200;
+    var MARGIN_VIEWPORTS = 1;
+    var SCAN_DELAY_MILLIS = 100;
+    var SCROLL_SETTLE_MILLIS = 150;
+    var CHANGE_POLL_MILLIS = 1000;
+
+    // kept in case the page replaces it
+    var prompt = window.prompt;
+
+    var nextId = 1;
+    var sent = {};
+    var measured = [];
+    var layoutChanged = true;
+    var scanTimer = null;
+
+    function flush(batch) {
+
+        if (batch.length > 0)
+            prompt.call(window, MESSAGE_PREFIX + generation, batch.join(';'));
+
+        batch.length = 0;
+    }
+
+    // forces a layout, so it runs once per layout change rather than once per scan
+    function measure() {
+
+        var scrollX = window.pageXOffset;
+        var scrollY = window.pageYOffset;
+        var elements = document.querySelectorAll(SELECTOR);
+
+        measured = [];
+
+        for (var i = 0; i < elements.length; i++) {
+
+            var element = elements[i];
+            var id = element.__crosshairId || (element.__crosshairId = nextId++);
+            var rect = element.getBoundingClientRect();
+            var top = rect.top + scrollY;
+            var bottom = rect.bottom + scrollY;
+            var value = null;
+
+            if (rect.width !== 0 && rect.height !== 0) {
+
+                value = Math.round(rect.left + scrollX) + ',' + Math.round(top) + ',' +
+                        Math.round(rect.right + scrollX) + ',' + Math.round(bottom);
+
+                if (element.tagName === 'A' && element.href)
+                    value += ',' + encodeURIComponent(element.href);
+            }
+
+            measured.push({ id: id, top: top, bottom: bottom, value: value });
+        }
+
+        layoutChanged = false;
+    }
+
+    function scan() {
+
+        scanTimer = null;
+
+        if (layoutChanged)
+            measure();
+
+        var scrollY = window.pageYOffset;
+        var viewportHeight = window.innerHeight;
+        var windowTop = scrollY - viewportHeight * MARGIN_VIEWPORTS;
+        var windowBottom = scrollY + viewportHeight * (1 + MARGIN_VIEWPORTS);
+
+        var present = {};
+        var batch = [];
+
+        for (var i = 0; i < measured.length; i++) {
+
+            var target = measured[i];
+            present[target.id] = true;
+
+            if (target.value === null) {
+
+                if (sent[target.id]) {
+                    delete sent[target.id];
+                    batch.push('-' + target.id);
+                }
+            }
+            else if (target.bottom >= windowTop && target.top <= windowBottom && sent[target.id] !== target.value) {
+                sent[target.id] = target.value;
+                batch.push(target.id + ',' + target.value);
+            }
+
+            if (batch.length >= BATCH_SIZE)
+                flush(batch);
+        }
+
+        for (var sentId in sent) {
+
+            if (!present[sentId]) {
+                delete sent[sentId];
+                batch.push('-' + sentId);
+            }
+        }
+
+        flush(batch);
+    }
+
+    function scheduleScan() {
+
+        if (scanTimer === null)
+            scanTimer = setTimeout(scan, SCAN_DELAY_MILLIS);
+    }
+
+    function onLayoutChanged() {
+
+        layoutChanged = true;
+        scheduleScan();
+    }
+
+    // each scroll event puts the scan back, so it runs once head scrolling stops
+    function onScroll() {
+
+        if (scanTimer !== null)
+            clearTimeout(scanTimer);
+
+        scanTimer = setTimeout(scan, SCROLL_SETTLE_MILLIS);
+    }
+
+    window.__crosshairTargets = {
+        setGeneration: function(newGeneration) {
+            generation = newGeneration;
+            sent = {};
+            onLayoutChanged();
+        }
+    };
+
+    window.addEventListener('scroll', onScroll, false);
+    window.addEventListener('resize', onLayoutChanged, false);
+
+    var Observer = window.MutationObserver || window.WebKitMutationObserver;
+
+    if (Observer) {
+        new Observer(onLayoutChanged).observe(document.documentElement, { childList: true, subtree: true });
+    }
+    else {
+        // mutation events would slow every DOM change on the page, a cheap check now and then is enough
+        var elementCount = document.getElementsByTagName('*').length;
+        var pageHeight = document.documentElement.scrollHeight;
+
+        setInterval(function() {
+
+            var count = document.getElementsByTagName('*').length;
+            var height = document.documentElement.scrollHeight;
+
+            if (count !== elementCount || height !== pageHeight) {
+                elementCount = count;
+                pageHeight = height;
+                onLayoutChanged();
+            }
+        }, CHANGE_POLL_MILLIS);
+    }
+
+    scan();
+
+})(GENERATION);
@@ -0,0 +1,76 @@
+package com.mikesmales.googleglasscrosshairs.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mikesmales.googleglasscrosshairs.sensors.FusionMode;
+import com.mikesmales.googleglasscrosshairs.sensors.OrientationEngine;
+
+/**
+ *  The OrientationEngine that GlassOrientationTracker drives.
+ *
+ *  fuseStep is one fusion tick, for the Euler path that is fuseAzimuth/fusePitch/fuseRoll plus the gyro matrix rebuild.
+ *  processSample is the work done for one sensor event, replayed in recorded order.
+ *  Both are run for each FusionMode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FusionBenchmark {
+
+    @Param({"synthetic"})
+    public String stream;
+
+    @Param({"EULER", "QUATERNION"})
+    public String mode;
+
+    private SensorStream sensorStream;
+    private OrientationEngine engine;
+    private int cursor;
+
+    @Setup
+    public void loadStream() throws IOException {
+
+        sensorStream = SensorStream.load(stream);
+        engine = new OrientationEngine(FusionMode.valueOf(mode));
+
+        // run the whole stream through once so that fuseStep starts from realistic angles
+        for (int i = 0; i < sensorStream.size(); i++) {
+            processSample();
+        }
+        engine.fuse();
+    }
+
+    @Benchmark
+    public boolean fuseStep() {
+        return engine.fuse();
+    }
+
+    @Benchmark
+    public void processSample() {
+
+        int i = cursor;
+        cursor = (cursor + 1) % sensorStream.size();
+
+        // the stream is replayed in a loop, so the gyro must not integrate back across the wrap
+        if (i == 0)
+            engine.resetTimestamp();
+
+        engine.onSample(sensorStream.types[i], sensorStream.timestamps[i], sensorStream.x[i], sensorStream.y[i], sensorStream.z[i]);
+    }
+}
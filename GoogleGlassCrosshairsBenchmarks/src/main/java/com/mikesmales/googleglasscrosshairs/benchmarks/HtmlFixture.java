@@ -0,0 +1,103 @@
+package com.mikesmales.googleglasscrosshairs.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ *  A page's HTML held in memory, so the reader transform can be run over it repeatedly.
+ */
+public class HtmlFixture {
+
+    public final String url;
+    public final byte[] html;
+
+    private HtmlFixture(String url, byte[] html) {
+
+        this.url = url;
+        this.html = html;
+    }
+
+    /**
+     *  "synthetic" generates an article page, anything else is the path of an HTML file saved from a browser.
+     */
+    public static HtmlFixture load(String source) throws IOException {
+
+        if ("synthetic".equals(source))
+            return synthetic(40);
+
+        return new HtmlFixture("file://" + source, readFile(source));
+    }
+
+    /**
+     *  An article of the given number of sections wrapped in the furniture of a typical content site:
+     *  scripts and styles, a navigation bar, a sidebar, ads, images and a footer.
+     */
+    public static HtmlFixture synthetic(int sections) throws UnsupportedEncodingException {
+
+        StringBuilder page = new StringBuilder();
+
+        page.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Synthetic article</title>\n");
+        page.append("<link rel=\"stylesheet\" href=\"/site.css\">\n");
+        page.append("<style>body { font-family: serif; } .nav li { display: inline; }</style>\n");
+        page.append("<script>var analytics = { track: function(a, b) { return a < b && b > a; } };</script>\n");
+        page.append("</head><body class=\"article\">\n");
+
+        page.append("<div id=\"top-nav\" class=\"nav\"><ul>");
+        for (int i = 0; i < 20; i++) {
+            page.append("<li><a href=\"/section/").append(i).append("\">Section ").append(i).append("</a></li>");
+        }
+        page.append("</ul></div>\n");
+
+        page.append("<div id=\"content\"><h1>Synthetic article</h1>\n");
+
+        for (int section = 0; section < sections; section++) {
+
+            page.append("<div class=\"section\"><h2>Heading ").append(section).append("</h2>\n");
+            page.append("<div class=\"thumb tright\"><img src=\"/images/").append(section).append(".jpg\" width=\"220\" height=\"160\">");
+            page.append("<div class=\"caption\">Caption ").append(section).append("</div></div>\n");
+
+            for (int paragraph = 0; paragraph < 3; paragraph++) {
+                page.append("<p class=\"body-text\" style=\"margin: 0 0 1em\">Lorem ipsum dolor sit amet, <a href=\"/wiki/Link_")
+                    .append(section).append('_').append(paragraph)
+                    .append("\" title=\"Link\">consectetur</a> adipiscing elit, sed do <b>eiusmod</b> tempor incididunt ut labore")
+                    .append(" et dolore magna aliqua.<sup class=\"reference\"><a href=\"#cite-").append(paragraph).append("\">[")
+                    .append(paragraph + 1).append("]</a></sup></p>\n");
+            }
+
+            if (section % 5 == 0)
+                page.append("<div class=\"ad-slot\"><iframe src=\"/ads/").append(section).append("\"></iframe><script>loadAd(").append(section).append(");</script></div>\n");
+
+            page.append("</div>\n");
+        }
+
+        page.append("</div>\n<aside class=\"sidebar\"><h3>Related</h3><ul>");
+        for (int i = 0; i < 30; i++) {
+            page.append("<li><a href=\"/related/").append(i).append("\"><img src=\"/thumbs/").append(i).append(".png\">Related ").append(i).append("</a></li>");
+        }
+        page.append("</ul></aside>\n<div id=\"footer\"><p>Footer text &copy; Synthetic</p></div>\n");
+        page.append("<script>analytics.track('view', 1);</script>\n</body></html>\n");
+
+        return new HtmlFixture("http://example.com/wiki/Synthetic", page.toString().getBytes("UTF-8"));
+    }
+
+    private static byte[] readFile(String path) throws IOException {
+
+        InputStream input = new FileInputStream(path);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+        }
+
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,140 @@
+package com.mikesmales.googleglasscrosshairs.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mikesmales.googleglasscrosshairs.sensors.MatrixHelper;
+
+/**
+ *  The individual MatrixHelper kernels, fed with gyro samples and accelerometer/magnetometer
+ *  orientations taken from a sensor stream.
+ *
+ *  Both the allocating and the out-parameter forms are measured so the GC profiler shows the difference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatrixHelperBenchmark {
+
+    @Param({"synthetic"})
+    public String stream;
+
+    private float[][] gyroSamples;
+    private float[][] orientations;
+    private float[][] rotationMatrices;
+    private int cursor;
+
+    private float[] deltaRotationVector = new float[4];
+    private float[] resultMatrix = new float[9];
+
+    @Setup
+    public void loadStream() throws IOException {
+
+        SensorStream sensorStream = SensorStream.load(stream);
+        int gyroCount = count(sensorStream, SensorStream.TYPE_GYROSCOPE);
+        int accelerometerCount = count(sensorStream, SensorStream.TYPE_ACCELEROMETER);
+
+        gyroSamples = new float[gyroCount][3];
+        orientations = new float[accelerometerCount][3];
+        rotationMatrices = new float[accelerometerCount][9];
+
+        float[] magnetometer = new float[] { 0.0f, 22.0f, -40.0f };
+        float[] accelerometer = new float[3];
+        int gyro = 0;
+        int orientation = 0;
+
+        for (int i = 0; i < sensorStream.size(); i++) {
+
+            switch (sensorStream.types[i]) {
+
+                case SensorStream.TYPE_GYROSCOPE:
+                    copy(sensorStream, i, gyroSamples[gyro++]);
+                    break;
+
+                case SensorStream.TYPE_MAGNETIC_FIELD:
+                    copy(sensorStream, i, magnetometer);
+                    break;
+
+                case SensorStream.TYPE_ACCELEROMETER:
+                    copy(sensorStream, i, accelerometer);
+                    MatrixHelper.getRotationMatrix(rotationMatrices[orientation], accelerometer, magnetometer);
+                    MatrixHelper.getOrientation(rotationMatrices[orientation], orientations[orientation]);
+                    orientation++;
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public float[] matrixMultiplication() {
+
+        int i = next();
+        return MatrixHelper.matrixMultiplication(rotationMatrices[i], rotationMatrices[(i + 1) % rotationMatrices.length]);
+    }
+
+    @Benchmark
+    public float[] matrixMultiplicationInto() {
+
+        int i = next();
+        MatrixHelper.matrixMultiplication(rotationMatrices[i], rotationMatrices[(i + 1) % rotationMatrices.length], resultMatrix);
+        return resultMatrix;
+    }
+
+    @Benchmark
+    public float[] getRotationMatrixFromOrientation() {
+        return MatrixHelper.getRotationMatrixFromOrientation(orientations[next()]);
+    }
+
+    @Benchmark
+    public float[] getRotationMatrixFromOrientationInto() {
+
+        MatrixHelper.getRotationMatrixFromOrientation(orientations[next()], resultMatrix);
+        return resultMatrix;
+    }
+
+    @Benchmark
+    public float[] getRotationVectorFromGyro() {
+
+        cursor = (cursor + 1) % gyroSamples.length;
+        MatrixHelper.getRotationVectorFromGyro(gyroSamples[cursor], deltaRotationVector, 0.0025f);
+        return deltaRotationVector;
+    }
+
+    private int next() {
+
+        cursor = (cursor + 1) % orientations.length;
+        return cursor;
+    }
+
+    static int count(SensorStream sensorStream, int type) {
+
+        int count = 0;
+        for (int i = 0; i < sensorStream.size(); i++) {
+            if (sensorStream.types[i] == type)
+                count++;
+        }
+        return count;
+    }
+
+    static void copy(SensorStream sensorStream, int i, float[] values) {
+
+        values[0] = sensorStream.x[i];
+        values[1] = sensorStream.y[i];
+        values[2] = sensorStream.z[i];
+    }
+}
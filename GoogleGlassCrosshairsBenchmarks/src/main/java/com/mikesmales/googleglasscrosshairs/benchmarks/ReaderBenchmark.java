@@ -0,0 +1,74 @@
+package com.mikesmales.googleglasscrosshairs.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mikesmales.googleglasscrosshairs.reader.ReaderStats;
+import com.mikesmales.googleglasscrosshairs.reader.ReaderStream;
+
+/**
+ *  The reader mode transform over a whole page, read through ReaderStream as the web view reads it.
+ *
+ *  Run it against a saved page with -p page=/path/to/page.html. The byte and element reduction
+ *  for the page is printed at the end of the trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReaderBenchmark {
+
+    @Param({"synthetic"})
+    public String page;
+
+    private HtmlFixture fixture;
+    private ReaderStats stats;
+    private byte[] buffer = new byte[8192];
+
+    @Setup
+    public void loadPage() throws IOException {
+
+        fixture = HtmlFixture.load(page);
+        stats = new ReaderStats();
+    }
+
+    @Benchmark
+    public long transform() throws IOException {
+
+        ReaderStream stream = new ReaderStream(new ByteArrayInputStream(fixture.html), "UTF-8", fixture.url, stats);
+        long total = 0;
+        int count;
+
+        while ((count = stream.read(buffer)) != -1) {
+            total += count;
+        }
+        stream.close();
+
+        return total;
+    }
+
+    @TearDown(Level.Trial)
+    public void printReduction() {
+
+        StringBuilder builder = new StringBuilder();
+        stats.format(builder);
+        System.out.print(builder);
+    }
+}
@@ -0,0 +1,204 @@
+package com.mikesmales.googleglasscrosshairs.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+import com.mikesmales.googleglasscrosshairs.sensors.MatrixHelper;
+import com.mikesmales.googleglasscrosshairs.sensors.SensorSampleRing;
+import com.mikesmales.googleglasscrosshairs.sensors.SensorTraceReader;
+
+/**
+ *  A sequence of raw accelerometer, gyroscope and magnetometer samples held in primitive arrays,
+ *  so that replaying it inside a benchmark does not allocate.
+ *
+ *  Sensor types use the same values as android.hardware.Sensor.
+ */
+public class SensorStream {
+
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+
+    private static final float GRAVITY = 9.81f;
+    private static final float MAGNETIC_FIELD_NORTH = 22.0f;
+    private static final float MAGNETIC_FIELD_DOWN = -40.0f;
+
+    public final int[] types;
+    public final long[] timestamps;
+    public final float[] x;
+    public final float[] y;
+    public final float[] z;
+
+    private SensorStream(int size) {
+
+        types = new int[size];
+        timestamps = new long[size];
+        x = new float[size];
+        y = new float[size];
+        z = new float[size];
+    }
+
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     *  "synthetic" generates a stream, a path ending in .trace is read as a binary trace
+     *  written by SensorTraceWriter, and anything else is read as a CSV trace.
+     */
+    public static SensorStream load(String source) throws IOException {
+
+        if ("synthetic".equals(source))
+            return synthetic(10, 200, 42L);
+
+        if (source.endsWith(".trace"))
+            return readTrace(source);
+
+        return readCsv(source);
+    }
+
+    /**
+     *  Head sweeping side to side while nodding, sampled by all three sensors at rateHz,
+     *  with a little gaussian noise on each axis.
+     */
+    public static SensorStream synthetic(int seconds, int rateHz, long seed) {
+
+        int samplesPerSensor = seconds * rateHz;
+        SensorStream stream = new SensorStream(samplesPerSensor * 3);
+        Random random = new Random(seed);
+
+        float[] orientation = new float[3];
+        float[] previousOrientation = new float[3];
+        float[] rotationMatrix = new float[9];
+
+        long periodNs = 1000000000L / rateHz;
+        float dT = 1.0f / rateHz;
+
+        for (int sample = 0; sample < samplesPerSensor; sample++) {
+
+            double t = sample * dT;
+            orientation[0] = (float) (0.6 * Math.sin(2.0 * Math.PI * 0.3 * t));
+            orientation[1] = (float) (0.2 * Math.sin(2.0 * Math.PI * 0.5 * t));
+            orientation[2] = (float) (0.05 * Math.sin(2.0 * Math.PI * 0.2 * t));
+
+            MatrixHelper.getRotationMatrixFromOrientation(orientation, rotationMatrix);
+            long timestamp = sample * periodNs;
+
+            // gravity and the earth's field expressed in device coordinates are rows of the rotation matrix
+            int i = sample * 3;
+            stream.set(i, TYPE_ACCELEROMETER, timestamp,
+                    GRAVITY * rotationMatrix[6] + noise(random, 0.05f),
+                    GRAVITY * rotationMatrix[7] + noise(random, 0.05f),
+                    GRAVITY * rotationMatrix[8] + noise(random, 0.05f));
+
+            stream.set(i + 1, TYPE_GYROSCOPE, timestamp,
+                    (orientation[1] - previousOrientation[1]) / dT + noise(random, 0.01f),
+                    (orientation[2] - previousOrientation[2]) / dT + noise(random, 0.01f),
+                    (previousOrientation[0] - orientation[0]) / dT + noise(random, 0.01f));
+
+            stream.set(i + 2, TYPE_MAGNETIC_FIELD, timestamp,
+                    MAGNETIC_FIELD_NORTH * rotationMatrix[3] + MAGNETIC_FIELD_DOWN * rotationMatrix[6] + noise(random, 0.5f),
+                    MAGNETIC_FIELD_NORTH * rotationMatrix[4] + MAGNETIC_FIELD_DOWN * rotationMatrix[7] + noise(random, 0.5f),
+                    MAGNETIC_FIELD_NORTH * rotationMatrix[5] + MAGNETIC_FIELD_DOWN * rotationMatrix[8] + noise(random, 0.5f));
+
+            System.arraycopy(orientation, 0, previousOrientation, 0, 3);
+        }
+
+        return stream;
+    }
+
+    /**
+     *  Reads a recorded trace, one sample per line:
+     *
+     *  type,timestamp_ns,x,y,z
+     *
+     *  Blank lines and lines starting with # are ignored.
+     */
+    public static SensorStream readCsv(String path) throws IOException {
+
+        int lines = countSamples(path);
+        SensorStream stream = new SensorStream(lines);
+
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            int i = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                if (isComment(line))
+                    continue;
+
+                String[] fields = line.split(",");
+                stream.set(i++,
+                        Integer.parseInt(fields[0].trim()),
+                        Long.parseLong(fields[1].trim()),
+                        Float.parseFloat(fields[2].trim()),
+                        Float.parseFloat(fields[3].trim()),
+                        Float.parseFloat(fields[4].trim()));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return stream;
+    }
+
+    /**
+     *  Reads a binary trace recorded on the device by GlassOrientationTracker.startRecording.
+     */
+    public static SensorStream readTrace(String path) throws IOException {
+
+        SensorTraceReader reader = new SensorTraceReader(new File(path));
+        final SensorStream stream = new SensorStream(reader.getSampleCount());
+
+        reader.readAll(new SensorSampleRing.SampleHandler() {
+
+            private int i;
+
+            @Override
+            public void onSample(int type, long timestamp, float x, float y, float z) {
+                stream.set(i++, type, timestamp, x, y, z);
+            }
+        });
+
+        return stream;
+    }
+
+    private static int countSamples(String path) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            int count = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!isComment(line))
+                    count++;
+            }
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean isComment(String line) {
+
+        String trimmed = line.trim();
+        return trimmed.length() == 0 || trimmed.startsWith("#");
+    }
+
+    private static float noise(Random random, float deviation) {
+        return (float) random.nextGaussian() * deviation;
+    }
+
+    private void set(int i, int type, long timestamp, float xValue, float yValue, float zValue) {
+
+        types[i] = type;
+        timestamps[i] = timestamp;
+        x[i] = xValue;
+        y[i] = yValue;
+        z[i] = zValue;
+    }
+}